@@ -0,0 +1,15 @@
+package application.controller;
+
+/**
+ * Player of audio files used by {@link Controller}. Times are in
+ * microseconds.
+ * 
+ * @author Tomáš Zíma
+ */
+public interface AudioPlayer {
+	public void	setSourceLocation(String filename);
+	public void	play();
+	public void	pause();
+	public long	getCurrentPosition();
+	public long	getTotalPlayTimeMcsec();
+}
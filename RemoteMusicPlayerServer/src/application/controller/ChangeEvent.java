@@ -0,0 +1,26 @@
+package application.controller;
+
+/**
+ * Types of changes published by {@link EventBus}.
+ * 
+ * @author Tomáš Zíma
+ */
+public enum ChangeEvent {
+	/** Client connected to the server. */
+	CONNECTION_OPENED,
+	
+	/** Client disconnected (or all connections were closed by the server). */
+	CONNECTION_CLOSED,
+	
+	/** Client was authenticated (or its authentication failed). */
+	USER_AUTHENTICATED,
+	
+	/** State of the player (song, playback) changed. */
+	PLAYER_STATE_CHANGED,
+	
+	/** Server was started or stopped. */
+	SERVER_STATE_CHANGED,
+	
+	/** Music library was built or updated. */
+	LIBRARY_CHANGED
+}
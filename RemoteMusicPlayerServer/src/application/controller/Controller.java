@@ -1,47 +1,175 @@
 package application.controller;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.List;
+import java.net.InetAddress;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import maryb.player.Player;
-
 import org.farng.mp3.MP3File;
 import org.farng.mp3.TagException;
 import org.farng.mp3.id3.ID3v1;
 import org.xml.sax.SAXException;
 
+import tools.LibraryView;
+import tools.LibraryWatcher;
 import tools.MusicLibrary;
 import tools.communicator.Communicator;
 import tools.communicator.ConnectionDescriptor;
 import tools.communicator.ConnectionListener;
 import tools.communicator.PlayerState;
 
-public class Controller implements ConnectionListener, OnChangeListener {
+public class Controller implements ConnectionListener {
+	/** Time without changes of music files (in milliseconds), after which the library is updated. */
+	private static final long						WATCH_DELAY			= 2000;
+	
+	/** Maximal time (in milliseconds) since a change of music files to the update of the library. */
+	private static final long						WATCH_MAX_DELAY		= 30000;
+	
 	private Communicator							communicator		= null;
 	private Thread									serverThread		= null;
 	private boolean									serverRunning		= false;
 	
-	private MusicLibrary							musicLibrary		= new MusicLibrary();
-	private Player									player				= new Player();
-	private ConnectionDescriptor					activeConnection	= null;
-	private Hashtable<ConnectionDescriptor, User>	users				= new Hashtable<>();
+	private final MusicLibrary						musicLibrary		= new MusicLibrary();
+	
+	/**
+	 * Lock, which serializes loading, builds and updates of the library. The
+	 * library itself is locked only while a new version is swapped in, so
+	 * clients asking for changes aren't blocked by a long build.
+	 */
+	private final Object							libraryLock			= new Object();
+	
+	/**
+	 * Player of audio files, it's created by {@link #internalPlay(String)}
+	 * when the first song is played (see {@link #createPlayer()}) and thrown
+	 * away by {@link #internalStop()}. Guarded by {@link #playerLock}.
+	 */
+	private AudioPlayer								player				= null;
+	private final SessionRegistry					sessions			= new SessionRegistry();
 	
 	private ControllerErrorListener					errorListener		= null;
-	private List<OnChangeListener>					onChangeListeners	= new ArrayList<>();
+	private final EventBus							eventBus			= new EventBus();
 	
 	private String									pathMusicLibrary	= "MusicLibrary.xml";
 	
-	private PlayerState								playerState			= new PlayerState();
+	/**
+	 * Port of the HTTP endpoint with statistics of the server (0 = disabled).
+	 * Default might be set by system property "statisticsPort".
+	 */
+	private int										statisticsPort		= Integer.getInteger("statisticsPort", 0);
+	
+	/**
+	 * UDP port, on which clients might discover the server (0 = disabled).
+	 * Default might be set by system property "discoveryPort".
+	 */
+	private int										discoveryPort		= Integer.getInteger("discoveryPort", Communicator.DEFAULT_DISCOVERY_PORT);
+	
+	/**
+	 * Maximal count of opened connections (0 = unlimited). Default might be
+	 * set by system property "maxConnections".
+	 */
+	private int										maxConnections		= Integer.getInteger("maxConnections", 0);
+	
+	/** Name of the server sent to discovering clients. */
+	private String									serverName			= System.getProperty("serverName", defaultServerName());
+	
+	/**
+	 * True if the music directory is watched and the library is updated
+	 * when files change. Default might be set by system property
+	 * "watchLibrary".
+	 */
+	private volatile boolean							watchLibrary		= Boolean.getBoolean("watchLibrary");
+	
+	/** Watcher of the music directory (null if it isn't watched, guarded by {@link #libraryLock}). */
+	private LibraryWatcher							libraryWatcher		= null;
+	
+	/** Version of the library file, it's loaded again only when the file changes. */
+	private volatile LibraryVersion					libraryVersion		= null;
+	
+	/**
+	 * Immutable state of the player, it's replaced as a whole (under
+	 * {@link #playerLock}), so readers never see a half-changed state.
+	 */
+	private volatile PlayerState					playerState			= new PlayerState();
+	
+	/**
+	 * Lock, which serializes all commands changing the player. Read-only
+	 * commands (state, library) don't use it and run in parallel.
+	 */
+	private final Object							playerLock			= new Object();
+	
+	/**
+	 * Version of the library file together with the attributes of the file,
+	 * from which it was loaded.
+	 */
+	private static class LibraryVersion {
+		/** Time of the last modification of the file. */
+		private final long	lastModified;
+		
+		/** Length of the file. */
+		private final long	length;
+		
+		/** Version of the library (0 if the file couldn't be read). */
+		private final long	version;
+		
+		/**
+		 * @param lastModified
+		 * 	Time of the last modification of the file.
+		 * 
+		 * @param length
+		 * 	Length of the file.
+		 * 
+		 * @param version
+		 * 	Version of the library.
+		 */
+		public LibraryVersion(long lastModified, long length, long version) {
+			this.lastModified	= lastModified;
+			this.length			= length;
+			this.version		= version;
+		}
+		
+		/**
+		 * @param file
+		 * 	The library file.
+		 * 
+		 * @return
+		 * 	True if the file wasn't changed since the version was loaded.
+		 */
+		public boolean isCurrent(File file) {
+			return (file.lastModified() == lastModified && file.length() == length);
+		}
+	}
 
 	public void runServer() {
 		communicator = new Communicator(9999);
 		
 		communicator.setConnectionListener(this);
-		communicator.setOnChangeListener(this);
+		communicator.setEventBus(eventBus);
+		communicator.setMaxConnections(maxConnections);
+		
+		// New communicator doesn't know the player yet, subscribers get the
+		// current state immediately and position ticks while it's playing
+		PlayerState state = playerState;
+		
+		if (state != null) {
+			communicator.publishState(state);
+		}
+		
+		if (statisticsPort > 0) {
+			try {
+				communicator.startStatisticsServer(statisticsPort);
+			} catch (IOException e) {
+				System.err.println("Controller: Statistics server couldn't be started: " + e.getMessage());
+			}
+		}
+		
+		if (discoveryPort > 0) {
+			try {
+				communicator.startDiscovery(discoveryPort, serverName);
+			} catch (IOException e) {
+				System.err.println("Controller: Discovery couldn't be started: " + e.getMessage());
+			}
+		}
 		
 		serverThread = new Thread() {
 			@Override
@@ -59,32 +187,311 @@ public class Controller implements ConnectionListener, OnChangeListener {
 		serverThread.start();
 		serverRunning = true;
 		
-		triggerListenersOnChange();
+		// Load the library (for changes since older versions) and compress it
+		// before clients ask for it
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					synchronized (libraryLock) {
+						musicLibrary.deserialize(pathMusicLibrary);
+					}
+					
+					reportLibrary();
+					updateWatcher();
+					
+					MusicLibrary.loadCompressedContent(pathMusicLibrary, MusicLibrary.ENCODING_GZIP);
+				} catch (ParserConfigurationException | IOException | SAXException | RuntimeException e) {
+					// Library doesn't exist yet (or it's corrupted)
+				}
+			}
+		}.start();
+		
+		eventBus.publish(ChangeEvent.SERVER_STATE_CHANGED);
 	}
 	
 	public void killServer() {
+		communicator.stop();
 		serverThread.interrupt();
 		serverRunning = false;
 		
 		communicator = null;
 		serverThread = null;
 		
-		users = new Hashtable<>();
+		sessions.clear();
 		
-		triggerListenersOnChange();
+		eventBus.publish(ChangeEvent.SERVER_STATE_CHANGED);
+	}
+	
+	/**
+	 * Builds the music library from the directory again and saves it, so
+	 * clients will download the new version. Changes against the previous
+	 * version are recorded for command UPDATE_SINCE. If nothing changed, the
+	 * version and the saved library are kept.
+	 * 
+	 * @param directory
+	 * 	The directory with music files.
+	 * 
+	 * @throws Exception
+	 * 	Library couldn't be built or saved (e.g. the directory isn't
+	 * 	available). The current version of the library is kept.
+	 */
+	public void rebuildLibrary(File directory) throws Exception {
+		boolean changed;
+		
+		synchronized (libraryLock) {
+			loadLibrary();
+			
+			changed = musicLibrary.buildLibrary(directory);
+			musicLibrary.buildXML();
+			
+			if (changed) {
+				musicLibrary.serialize(pathMusicLibrary);
+			} else {
+				musicLibrary.saveManifest(pathMusicLibrary);
+			}
+		}
+		
+		reportLibrary();
+		updateWatcher();
+		
+		if (changed) {
+			eventBus.publish(ChangeEvent.LIBRARY_CHANGED);
+		}
+	}
+	
+	/**
+	 * Updates the music library from the directory and saves it. Only new
+	 * and changed files are read (see {@link MusicLibrary#updateLibrary(File)}),
+	 * so it's much faster than {@link #rebuildLibrary(File)}. If nothing
+	 * changed, the version and the saved library are kept.
+	 * 
+	 * @param directory
+	 * 	The directory with music files (see {@link #getMusicDirectory()}).
+	 * 
+	 * @throws Exception
+	 * 	Library couldn't be updated or saved (e.g. the directory isn't
+	 * 	available, because a network share isn't mounted). The current
+	 * 	version of the library is kept.
+	 */
+	public void updateLibrary(File directory) throws Exception {
+		boolean changed;
+		
+		synchronized (libraryLock) {
+			loadLibrary();
+			
+			changed = musicLibrary.updateLibrary(directory);
+			musicLibrary.buildXML();
+			
+			if (changed) {
+				musicLibrary.serialize(pathMusicLibrary);
+			} else {
+				musicLibrary.saveManifest(pathMusicLibrary);
+			}
+		}
+		
+		reportLibrary();
+		updateWatcher();
+		
+		if (changed) {
+			eventBus.publish(ChangeEvent.LIBRARY_CHANGED);
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Directory, from which the saved library was built, or null if it's
+	 * 	unknown. It might wait for a running build, if the library wasn't
+	 * 	loaded yet, so it shouldn't be called by the event dispatching thread.
+	 */
+	public File getMusicDirectory() {
+		File directory = musicLibrary.getRootDirectory();
+		
+		if (directory != null) {
+			return directory;
+		}
+		
+		// The library might not be loaded yet
+		synchronized (libraryLock) {
+			loadLibrary();
+			return musicLibrary.getRootDirectory();
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Count of songs in the current library.
+	 */
+	public int getLibrarySongCount() {
+		return musicLibrary.getView().getSongCount();
+	}
+	
+	/**
+	 * Starts watching of the directory, from which the library was built, or
+	 * stops the watcher if watching was disabled. Each batch of changes of
+	 * music files causes one update of the library (see
+	 * {@link LibraryWatcher}).
+	 */
+	private void updateWatcher() {
+		synchronized (libraryLock) {
+			File directory = (watchLibrary ? getMusicDirectory() : null);
+			
+			if (libraryWatcher != null && libraryWatcher.getRootDirectory().equals(directory)) {
+				return;
+			}
+			
+			if (libraryWatcher != null) {
+				libraryWatcher.stop();
+				libraryWatcher = null;
+			}
+			
+			if (directory == null) {
+				return;
+			}
+			
+			libraryWatcher = new LibraryWatcher(directory, WATCH_DELAY, WATCH_MAX_DELAY, new LibraryWatcher.ChangeListener() {
+				@Override
+				public void libraryChanged(File rootDirectory, int changesCount) {
+					try {
+						updateLibrary(rootDirectory);
+					} catch (IOException e) {
+						System.err.println("Controller: Library couldn't be updated: " + e.getMessage());
+						
+						// Nobody else is waiting for the result of the update
+						if (errorListener != null) {
+							errorListener.addIOException(e);
+						}
+					} catch (Exception e) {
+						System.err.println("Controller: Library couldn't be updated: " + e.getMessage());
+					}
+				}
+			});
+			
+			try {
+				libraryWatcher.start();
+			} catch (IOException e) {
+				System.err.println("Controller: Music directory couldn't be watched: " + e.getMessage());
+				libraryWatcher = null;
+			}
+		}
+	}
+	
+	/**
+	 * Loads the saved library, unless it's in memory already (the server
+	 * loads it when it's started). It has to be called with
+	 * {@link #libraryLock} held.
+	 */
+	private void loadLibrary() {
+		if (musicLibrary.getVersionNumber() != 0) {
+			return;
+		}
+		
+		try {
+			musicLibrary.deserialize(pathMusicLibrary);
+		} catch (ParserConfigurationException | IOException | SAXException | RuntimeException e) {
+			// Library doesn't exist yet (or it's corrupted)
+		}
+	}
+	
+	/**
+	 * Prints size of the current library and its search index.
+	 */
+	private void reportLibrary() {
+		LibraryView view = musicLibrary.getView();
+		
+		System.out.printf(
+			"Controller: Library contains %d songs, search index uses %.1f MB.%n",
+			view.getSongCount(),
+			view.getSearchMemoryUsage() / (1024.0 * 1024.0)
+		);
 	}
 	
 	public boolean isServerRunning() {
 		return serverRunning;
 	}
 	
-	public User getCurrentUser() {
-		return users.get(activeConnection);
+	public User getUser(ConnectionDescriptor connection) {
+		return sessions.getUser(connection);
 	}
 	
-	@Override
-	public void setActiveConnection(ConnectionDescriptor connectionDescriptor) {
-		activeConnection = connectionDescriptor;
+	/**
+	 * @param statisticsPort
+	 * 	Port of the HTTP endpoint with statistics (0 = disabled). It's used
+	 * 	when the server is started next time.
+	 */
+	public void setStatisticsPort(int statisticsPort) {
+		this.statisticsPort = statisticsPort;
+	}
+	
+	/**
+	 * @param discoveryPort
+	 * 	UDP port, on which clients might discover the server (0 = disabled).
+	 * 	It's used when the server is started next time.
+	 */
+	public void setDiscoveryPort(int discoveryPort) {
+		this.discoveryPort = discoveryPort;
+	}
+	
+	/**
+	 * @param maxConnections
+	 * 	Maximal count of opened connections (0 = unlimited). It's used when
+	 * 	the server is started next time.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	
+	/**
+	 * @param watchLibrary
+	 * 	True if the music directory should be watched and the library updated
+	 * 	when music files change (it's watched since the library is built or
+	 * 	loaded).
+	 */
+	public void setWatchLibrary(boolean watchLibrary) {
+		this.watchLibrary = watchLibrary;
+		updateWatcher();
+	}
+	
+	/**
+	 * @param serverName
+	 * 	Name of the server sent to discovering clients. It's used when the
+	 * 	server is started next time.
+	 */
+	public void setServerName(String serverName) {
+		this.serverName = serverName;
+	}
+	
+	/**
+	 * @return
+	 * 	Name of this computer, or a generic name if it's unknown.
+	 */
+	private static String defaultServerName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (IOException e) {
+			return "RemoteMusicPlayer";
+		}
+	}
+	
+	/**
+	 * @param pathMusicLibrary
+	 * 	Path of the file with the serialized music library.
+	 */
+	public void setPathMusicLibrary(String pathMusicLibrary) {
+		this.pathMusicLibrary = pathMusicLibrary;
+	}
+	
+	/**
+	 * Creates the player of audio files. It's called when a song is played
+	 * and there's no player yet (at first or after a stop), never from the
+	 * constructor, so subclass might return a different player (e.g.
+	 * {@link SilentAudioPlayer} for load tests) even if it uses its own fields.
+	 * 
+	 * @return
+	 * 	New player.
+	 */
+	protected AudioPlayer createPlayer() {
+		return new DefaultAudioPlayer();
 	}
 	
 	public void setErrorListener(ControllerErrorListener controllerErrorListener) {
@@ -92,47 +499,125 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 	
 	public void addOnChangeListener(OnChangeListener onChangeListener) {
-		onChangeListeners.add(onChangeListener);
+		eventBus.addListener(onChangeListener);
 	}
 
 	@Override
-	public boolean authenticate(String device, String password) {
+	public boolean authenticate(ConnectionDescriptor connection, String device, String password) {
 		User user = User.authenticate(device, password);
-		users.put(activeConnection, user);
 		
-		onChange();
+		sessions.authenticate(connection, user);
+		
+		eventBus.publish(ChangeEvent.USER_AUTHENTICATED);
 		return (user != null);
 	}
 
 	@Override
-	public void invalidCommand() {
+	public void invalidCommand(ConnectionDescriptor connection) {
 		//
 	}
 
 	@Override
-	public void close() {
-		users.remove(activeConnection);
+	public void open(ConnectionDescriptor connection) {
+		sessions.open(connection);
+	}
+
+	@Override
+	public void close(ConnectionDescriptor connection) {
+		sessions.close(connection);
 	}
 
 	@Override
-	public boolean checkVersion(long version) {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionCheckVersion()) {
+	public boolean checkVersion(ConnectionDescriptor connection, long version) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionCheckVersion()) {
+			long current = getLibraryVersion();
+			return (current != 0 && current == version);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns version of the library file, which is sent by UPDATE. The file
+	 * is parsed only when it changes, so CHECK and discovery queries don't
+	 * read the whole library.
+	 */
+	@Override
+	public long getLibraryVersion() {
+		File			file	= new File(pathMusicLibrary);
+		LibraryVersion	cached	= libraryVersion;
+		
+		if (cached != null && cached.isCurrent(file)) {
+			return cached.version;
+		}
+		
+		// Attributes are read before the file, so a change during parsing
+		// only causes another parsing next time
+		long lastModified	= file.lastModified();
+		long length			= file.length();
+		long version		= 0;
+		
+		try {
+			version = MusicLibrary.fastLoadID(pathMusicLibrary);
+		}
+		catch (ParserConfigurationException | IOException | SAXException | RuntimeException e) {
+			// File doesn't exist yet (or it's corrupted)
+		}
+		
+		libraryVersion = new LibraryVersion(lastModified, length, version);
+		return version;
+	}
+
+	@Override
+	public File update(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionUpdate()) {
+			File file = new File(pathMusicLibrary);
+			
+			// Content isn't loaded here, communicator sends the file directly
+			return (file.isFile() ? file : null);
+		}
+		
+		return null;
+	}
+
+	@Override
+	public byte[] updateSince(ConnectionDescriptor connection, long version) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionUpdate()) {
 			try {
-				return (MusicLibrary.fastLoadID(pathMusicLibrary) == version);
+				return musicLibrary.getChangesSince(version);
 			}
-			catch (ParserConfigurationException | IOException | SAXException e) {
-				return false;
+			catch (Exception e) {
+				return null;
 			}
 		}
 		
-		return false;
+		return null;
+	}
+
+	@Override
+	public LibraryView getLibraryView(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionUpdate()) {
+			return musicLibrary.getView();
+		}
+		
+		return null;
 	}
 
 	@Override
-	public String update() {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionUpdate()) {
+	public byte[] updateCompressed(ConnectionDescriptor connection, String encoding) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionUpdate()) {
 			try {
-				return MusicLibrary.fastLoadContent(pathMusicLibrary);
+				return MusicLibrary.loadCompressedContent(pathMusicLibrary, encoding);
 			}
 			catch (IOException e) {
 				return null;
@@ -143,8 +628,10 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 
 	@Override
-	public PlayerState getState() {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionGetState()) {
+	public PlayerState getState(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionGetState()) {
 			return internalGetState();
 		}
 		
@@ -152,8 +639,10 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 
 	@Override
-	public boolean play(String filename) {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionPlay()) {
+	public boolean play(ConnectionDescriptor connection, String filename) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionPlay()) {
 			return internalPlay(filename);
 		}
 		
@@ -161,8 +650,15 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 	
 	@Override
-	public boolean pause() {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionPause()) {
+	public boolean statistics(ConnectionDescriptor connection) {
+		return (getUser(connection) != null);
+	}
+	
+	@Override
+	public boolean pause(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionPause()) {
 			return internalPause();
 		}
 		
@@ -170,8 +666,10 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 
 	@Override
-	public boolean unpause() {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionUnpause()) {
+	public boolean unpause(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionUnpause()) {
 			return internalUnpause();
 		}
 		
@@ -179,8 +677,10 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 	
 	@Override
-	public boolean stop() {
-		if (getCurrentUser() != null && getCurrentUser().hasPermissionStop()) {
+	public boolean stop(ConnectionDescriptor connection) {
+		User user = getUser(connection);
+		
+		if (user != null && user.hasPermissionStop()) {
 			return internalStop();
 		}
 		
@@ -188,107 +688,108 @@ public class Controller implements ConnectionListener, OnChangeListener {
 	}
 	
 	public PlayerState internalGetState() {
-		return playerState;
+		return playerState.getCurrent();
 	}
 
 	public boolean internalPause() {
-		player.pause();
-		playerState.setPlaying(false);
+		synchronized (playerLock) {
+			if (player == null) {
+				return false;
+			}
+			
+			player.pause();
+			playerState = playerState.withPlaying(false, player.getCurrentPosition() / 1000000);
+		}
 		
-		triggerListenersOnChange();
+		playerStateChanged();
 		return true;
 	}
 
 	public boolean internalUnpause() {
-		if (player != null) {
+		synchronized (playerLock) {
+			if (player == null) {
+				return false;
+			}
+			
 			player.play();
-			playerState.setPlaying(true);
-
-			triggerListenersOnChange();
-			return true;
-		}
-		else {
-			return false;
+			playerState = playerState.withPlaying(true, player.getCurrentPosition() / 1000000);
 		}
+		
+		playerStateChanged();
+		return true;
 	}
 
 	public boolean internalStop() {
-		if (player != null) {
-			player.pause();
-			player = null;
+		synchronized (playerLock) {
+			if (player == null) {
+				return false;
+			}
 			
-			playerState.setPlaying(false);
-			triggerListenersOnChange();
+			player.pause();
+			playerState = playerState.withPlaying(false, player.getCurrentPosition() / 1000000);
 			
-			return true;
-		}
-		else {
-			return false;
+			player = null;
 		}
+		
+		playerStateChanged();
+		return true;
 	}
 
 	public boolean internalPlay(String filename) {
-		try {
-			if (player == null) {
-				player = new Player();
+		synchronized (playerLock) {
+			try {
+				if (player == null) {
+					player = createPlayer();
+				}
+				
+				player.setSourceLocation(filename);
+				player.play();
+				
+				ID3v1 tag = new MP3File(filename).getID3v1Tag();
+				
+				this.playerState = new PlayerState(
+					true,
+					tag.getArtist().length() != 0 ? tag.getArtist() : "(unknown)",
+					tag.getAlbum().length() != 0 ? tag.getAlbum() : "(unknown)",
+					tag.getSongTitle().length() != 0 ? tag.getSongTitle() : "(unknown)",
+					filename,
+					player.getTotalPlayTimeMcsec() / 1000000,
+					player.getCurrentPosition() / 1000000
+				);
+			} catch (IOException e) {
+				return false;
+			} catch (TagException | NullPointerException e) {
+				this.playerState = new PlayerState(
+					true,
+					"(unknown)",
+					"(unknown)",
+					"(unknown)",
+					filename,
+					player.getTotalPlayTimeMcsec() / 1000000,
+					player.getCurrentPosition() / 1000000
+				);
 			}
-			
-			player.setSourceLocation(filename);
-			player.play();
-			
-			ID3v1 tag = new MP3File(filename).getID3v1Tag();
-			
-			this.playerState = new PlayerState(
-				true,
-				tag.getArtist().length() != 0 ? tag.getArtist() : "(unknown)",
-				tag.getAlbum().length() != 0 ? tag.getAlbum() : "(unknown)",
-				tag.getSongTitle().length() != 0 ? tag.getSongTitle() : "(unknown)",
-				filename,
-				player.getTotalPlayTimeMcsec() / 1000,
-				player.getCurrentPosition() / 1000
-			);
-		} catch (IOException e) {
-			return false;
-		} catch (TagException | NullPointerException e) {
-			this.playerState = new PlayerState(
-				true,
-				"(unknown)",
-				"(unknown)",
-				"(unknown)",
-				filename,
-				player.getTotalPlayTimeMcsec() / 1000,
-				player.getCurrentPosition() / 1000
-			);
-			
-			triggerListenersOnChange();
-			return true;
 		}
 		
-		triggerListenersOnChange();
+		playerStateChanged();
 		return true;
 	}
 	
 	public int getConnectionsCount() {
-		if (communicator == null) {
-			return 0;
-		}
-		else {
-			return communicator.getConnectionsCount();
-		}
+		return sessions.getConnectionsCount();
 	}
 	
-	protected void triggerListenersOnChange() {
-		for (OnChangeListener onChangeListener : onChangeListeners) {
-			onChangeListener.onChange();
+	protected void playerStateChanged() {
+		Communicator communicator = this.communicator;
+		
+		if (communicator != null) {
+			communicator.publishState(playerState);
 		}
-	}
-
-	@Override
-	public void onChange() {
-		triggerListenersOnChange();
+		
+		eventBus.publish(ChangeEvent.PLAYER_STATE_CHANGED);
 	}
 	
 	public int getUsersCount() {
-		return this.users.size();
+		return sessions.getUsersCount();
 	}
 }
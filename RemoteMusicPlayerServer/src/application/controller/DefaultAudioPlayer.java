@@ -0,0 +1,38 @@
+package application.controller;
+
+import maryb.player.Player;
+
+/**
+ * {@link AudioPlayer}, which really plays files using the library
+ * JavaMediaPlayer.
+ * 
+ * @author Tomáš Zíma
+ */
+public class DefaultAudioPlayer implements AudioPlayer {
+	private final Player	player	= new Player();
+	
+	@Override
+	public void setSourceLocation(String filename) {
+		player.setSourceLocation(filename);
+	}
+	
+	@Override
+	public void play() {
+		player.play();
+	}
+	
+	@Override
+	public void pause() {
+		player.pause();
+	}
+	
+	@Override
+	public long getCurrentPosition() {
+		return player.getCurrentPosition();
+	}
+	
+	@Override
+	public long getTotalPlayTimeMcsec() {
+		return player.getTotalPlayTimeMcsec();
+	}
+}
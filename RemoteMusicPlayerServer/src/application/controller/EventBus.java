@@ -0,0 +1,170 @@
+package application.controller;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 	Delivers change events to {@link OnChangeListener}s. Events aren't
+ * 	delivered immediately: the first published event opens an interval and
+ * 	all events published during it are delivered together at its end, each
+ * 	type only once. Therefore, listeners are called at most once per interval
+ * 	no matter how many clients connect or disconnect at the same time.
+ * </p>
+ * 
+ * <p>
+ * 	All deliveries are done by one daemon thread, so listeners are never
+ * 	called concurrently.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class EventBus {
+	/** Default length of the interval (in milliseconds). */
+	public static final long				DEFAULT_INTERVAL	= 100;
+	
+	/** Length of the interval (in milliseconds). */
+	private final long						interval;
+	
+	/** Registered listeners. */
+	private final List<OnChangeListener>	listeners			= new CopyOnWriteArrayList<>();
+	
+	/** Thread, which delivers events. */
+	private final ScheduledExecutorService	dispatcher;
+	
+	/** Events, which weren't delivered yet (guarded by this). */
+	private final Set<ChangeEvent>			pending				= EnumSet.noneOf(ChangeEvent.class);
+	
+	/** True if the delivery of pending events is already scheduled (guarded by this). */
+	private boolean							scheduled			= false;
+	
+	/** Count of published events (guarded by this). */
+	private long							publishedCount		= 0;
+	
+	/** Count of deliveries (guarded by this). */
+	private long							deliveredCount		= 0;
+	
+	/**
+	 * Delivers all pending events.
+	 */
+	private final Runnable					delivery			= new Runnable() {
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+	
+	/**
+	 * Creates the bus with the default interval.
+	 */
+	public EventBus() {
+		this(DEFAULT_INTERVAL);
+	}
+	
+	/**
+	 * @param interval
+	 * 	Length of the interval, during which events are collected (in
+	 * 	milliseconds).
+	 */
+	public EventBus(long interval) {
+		this.interval	= interval;
+		this.dispatcher	= new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "EventBus");
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * @param listener
+	 * 	Listener, which will receive all events published from now.
+	 */
+	public void addListener(OnChangeListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 * 	Listener, which won't receive events anymore.
+	 */
+	public void removeListener(OnChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Publishes the event. It never blocks, listeners are called later by
+	 * the thread of this bus.
+	 * 
+	 * @param event
+	 * 	Type of the change.
+	 */
+	public void publish(ChangeEvent event) {
+		synchronized (this) {
+			pending.add(event);
+			publishedCount++;
+			
+			if (scheduled) {
+				return;
+			}
+			
+			scheduled = true;
+		}
+		
+		dispatcher.schedule(delivery, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Takes all pending events and passes them to the listeners.
+	 */
+	private void deliver() {
+		Set<ChangeEvent> events;
+		
+		synchronized (this) {
+			scheduled = false;
+			
+			if (pending.isEmpty()) {
+				return;
+			}
+			
+			events = Collections.unmodifiableSet(EnumSet.copyOf(pending));
+			pending.clear();
+			deliveredCount++;
+		}
+		
+		for (OnChangeListener listener : listeners) {
+			try {
+				listener.onChange(events);
+			} catch (RuntimeException e) {
+				// One broken listener mustn't stop the others (or the bus)
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Count of published events since the bus was created.
+	 */
+	public synchronized long getPublishedCount() {
+		return publishedCount;
+	}
+	
+	/**
+	 * @return
+	 * 	Count of deliveries to the listeners since the bus was created.
+	 */
+	public synchronized long getDeliveredCount() {
+		return deliveredCount;
+	}
+}
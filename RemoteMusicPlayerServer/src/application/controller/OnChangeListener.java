@@ -1,5 +1,14 @@
 package application.controller;
 
+import java.util.Set;
+
 public interface OnChangeListener {
-	public void onChange();
+	/**
+	 * Called by {@link EventBus} with all changes, which happened since the
+	 * previous call.
+	 * 
+	 * @param events
+	 * 	Types of the changes (unmodifiable, never empty).
+	 */
+	public void onChange(Set<ChangeEvent> events);
 }
@@ -0,0 +1,163 @@
+package application.controller;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tools.communicator.ConnectionDescriptor;
+
+/**
+ * <p>
+ * 	Registry of all opened connections (sessions) and users authenticated by
+ * 	them. Sessions are looked up by ID of the connection, so the user (and his
+ * 	permissions) is found in constant time without any global lock.
+ * </p>
+ * 
+ * <p>
+ * 	Counts of the connections and the authenticated users are kept in atomic
+ * 	counters, so they might be read by GUI or statistics at any time without
+ * 	walking through the sessions.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class SessionRegistry {
+	/**
+	 * One opened connection.
+	 */
+	private static class Session {
+		/**
+		 * User authenticated by this connection (null if there's none). It's
+		 * changed only under lock of the session, but read without it.
+		 */
+		private volatile User	user	= null;
+		
+		/** True if the connection was closed (no user might be set then). */
+		private boolean			closed	= false;
+	}
+	
+	/** All opened connections, the key is an ID of the connection. */
+	private final ConcurrentMap<Integer, Session>	sessions			= new ConcurrentHashMap<>();
+	
+	/** Count of opened connections. */
+	private final AtomicInteger						connectionsCount	= new AtomicInteger();
+	
+	/** Count of connections with an authenticated user. */
+	private final AtomicInteger						usersCount			= new AtomicInteger();
+	
+	/**
+	 * Registers a new connection (without user).
+	 * 
+	 * @param connection
+	 * 	Descriptor of the connection.
+	 */
+	public void open(ConnectionDescriptor connection) {
+		if (sessions.putIfAbsent(connection.getConnectionId(), new Session()) == null) {
+			connectionsCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Sets the user of the connection. Nothing happens, if the connection
+	 * isn't opened (e.g. it was just closed).
+	 * 
+	 * @param connection
+	 * 	Descriptor of the connection.
+	 * 
+	 * @param user
+	 * 	Authenticated user, or null if the authentication failed.
+	 */
+	public void authenticate(ConnectionDescriptor connection, User user) {
+		Session session = sessions.get(connection.getConnectionId());
+		
+		if (session == null) {
+			return;
+		}
+		
+		synchronized (session) {
+			if (session.closed) {
+				return;
+			}
+			
+			if (session.user == null && user != null) {
+				usersCount.incrementAndGet();
+			}
+			else if (session.user != null && user == null) {
+				usersCount.decrementAndGet();
+			}
+			
+			session.user = user;
+		}
+	}
+	
+	/**
+	 * Removes the connection and its user. It might be called more than once.
+	 * 
+	 * @param connection
+	 * 	Descriptor of the connection.
+	 */
+	public void close(ConnectionDescriptor connection) {
+		close(sessions.remove(connection.getConnectionId()));
+	}
+	
+	/**
+	 * Updates the counters for the removed session.
+	 * 
+	 * @param session
+	 * 	Session removed from the map (or null, if nothing was removed).
+	 */
+	private void close(Session session) {
+		if (session == null) {
+			return;
+		}
+		
+		connectionsCount.decrementAndGet();
+		
+		synchronized (session) {
+			if (session.user != null) {
+				usersCount.decrementAndGet();
+			}
+			
+			session.user	= null;
+			session.closed	= true;
+		}
+	}
+	
+	/**
+	 * Removes all connections (e.g. when the server is stopped).
+	 */
+	public void clear() {
+		for (Integer connectionId : sessions.keySet()) {
+			close(sessions.remove(connectionId));
+		}
+	}
+	
+	/**
+	 * @param connection
+	 * 	Descriptor of the connection.
+	 * 
+	 * @return
+	 * 	User authenticated by the connection, or null.
+	 */
+	public User getUser(ConnectionDescriptor connection) {
+		Session session = sessions.get(connection.getConnectionId());
+		
+		return (session == null ? null : session.user);
+	}
+	
+	/**
+	 * @return
+	 * 	Count of opened connections.
+	 */
+	public int getConnectionsCount() {
+		return connectionsCount.get();
+	}
+	
+	/**
+	 * @return
+	 * 	Count of connections with an authenticated user.
+	 */
+	public int getUsersCount() {
+		return usersCount.get();
+	}
+}
@@ -0,0 +1,45 @@
+package application.controller;
+
+/**
+ * {@link AudioPlayer}, which doesn't play anything, it only measures time
+ * of the playback. It's used for load tests of the server on machines
+ * without sound (or where the sound would be annoying).
+ * 
+ * @author Tomáš Zíma
+ */
+public class SilentAudioPlayer implements AudioPlayer {
+	/** Position, when the player was paused (in microseconds). */
+	private long	position	= 0;
+	
+	/** Time, when the playback was started (System.nanoTime()), or -1 if paused. */
+	private long	startTime	= -1;
+	
+	@Override
+	public synchronized void setSourceLocation(String filename) {
+		position	= 0;
+		startTime	= -1;
+	}
+	
+	@Override
+	public synchronized void play() {
+		if (startTime < 0) {
+			startTime = System.nanoTime();
+		}
+	}
+	
+	@Override
+	public synchronized void pause() {
+		position	= getCurrentPosition();
+		startTime	= -1;
+	}
+	
+	@Override
+	public synchronized long getCurrentPosition() {
+		return (startTime < 0 ? position : position + (System.nanoTime() - startTime) / 1000);
+	}
+	
+	@Override
+	public long getTotalPlayTimeMcsec() {
+		return 0;
+	}
+}
@@ -3,16 +3,21 @@ package application.gui;
 import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
+import javax.swing.JFileChooser;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JTextPane;
 
 import tools.communicator.PlayerState;
 
+import application.controller.ChangeEvent;
 import application.controller.Controller;
 import application.controller.ControllerErrorListener;
 import application.controller.OnChangeListener;
@@ -76,19 +81,14 @@ public class MainWindow implements OnChangeListener, ControllerErrorListener {
 	public ActionListener	buttonMediaMusicLibraryBuild	= new ActionListener() {
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			System.out.println("music library build");
+			processLibrary(false);
 		}
 	};
 	
 	public ActionListener	buttonMediaMusicLibraryUpdate	= new ActionListener() {
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			JOptionPane.showMessageDialog(
-				null,
-				"Unfortunately, update of the music library isn't supported currently.\nPlease, use the \"Build\" button above.",
-				"Unsupported operation",
-				JOptionPane.ERROR_MESSAGE
-			);
+			processLibrary(true);
 		}
 	};
 	
@@ -155,11 +155,128 @@ public class MainWindow implements OnChangeListener, ControllerErrorListener {
 		controller.runServer();
 		
 		cookSwing.render("res/gui/MainWindow.xml").setVisible(true);
-		onChange();
+		refresh();
 	}
 
+	/**
+	 * Lets the user choose a directory with music files. It's called by a
+	 * background thread, the dialog is shown by the event dispatching thread.
+	 * 
+	 * @param current
+	 * 	Preselected directory (might be null).
+	 * 
+	 * @return
+	 * 	The chosen directory, or null if the user cancelled the dialog.
+	 */
+	private File chooseMusicDirectory(final File current) {
+		final File[] chosen = new File[1];
+		
+		try {
+			EventQueue.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					JFileChooser chooser = new JFileChooser(current);
+					
+					chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+					chooser.setDialogTitle("Music directory");
+					
+					if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+						chosen[0] = chooser.getSelectedFile();
+					}
+				}
+			});
+		} catch (InterruptedException | InvocationTargetException e) {
+			return null;
+		}
+		
+		return chosen[0];
+	}
+	
+	/**
+	 * Builds or updates the music library in the background. The directory
+	 * is looked up by the background thread too, because the library might
+	 * be loaded or built just now, so the window doesn't freeze. The result
+	 * is shown in a dialog.
+	 * 
+	 * @param update
+	 * 	True if only new and changed files should be read. The user chooses
+	 * 	the directory only for a build or if it's unknown.
+	 */
+	private void processLibrary(final boolean update) {
+		new Thread("MusicLibrary") {
+			@Override
+			public void run() {
+				File directory = controller.getMusicDirectory();
+				
+				// Library wasn't built yet (or it was built by an older version)
+				if (!update || directory == null) {
+					directory = chooseMusicDirectory(directory);
+				}
+				
+				if (directory == null) {
+					return;
+				}
+				
+				try {
+					long start = System.nanoTime();
+					
+					if (update) {
+						controller.updateLibrary(directory);
+					} else {
+						controller.rebuildLibrary(directory);
+					}
+					
+					showMessage(
+						String.format(
+							"Music library contains %d songs.\nIt was %s in %.1f s.",
+							controller.getLibrarySongCount(),
+							update ? "updated" : "built",
+							(System.nanoTime() - start) / 1e9
+						),
+						"Music library",
+						JOptionPane.INFORMATION_MESSAGE
+					);
+				} catch (Exception e) {
+					showMessage(
+						"Music library couldn't be " + (update ? "updated" : "built") + ".\n\nError message:\n" + e.getMessage(),
+						"Error",
+						JOptionPane.ERROR_MESSAGE
+					);
+				}
+			}
+		}.start();
+	}
+	
+	/**
+	 * Shows a message dialog by the event dispatching thread.
+	 * 
+	 * @param message
+	 * 	Text of the message.
+	 * 
+	 * @param title
+	 * 	Title of the dialog.
+	 * 
+	 * @param type
+	 * 	Type of the message (see {@link JOptionPane}).
+	 */
+	private static void showMessage(final String message, final String title, final int type) {
+		EventQueue.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JOptionPane.showMessageDialog(null, message, title, type);
+			}
+		});
+	}
+	
 	@Override
-	public void onChange() {
+	public void onChange(Set<ChangeEvent> events) {
+		refresh();
+	}
+	
+	/**
+	 * Shows the current state of the player and the server.
+	 */
+	private void refresh() {
 		synchronized (cookSwing) {
 			PlayerState playerState = controller.internalGetState();
 			
@@ -218,13 +335,13 @@ public class MainWindow implements OnChangeListener, ControllerErrorListener {
 			stackTrace += stackTraceElement.toString() + "\n\t";
 		}
 		
-		JOptionPane.showMessageDialog(
-			null,
+		// Errors come from the server thread and the library watcher
+		showMessage(
 			"Error message:\n" + exception.getMessage() + "\n\nStack trace:\n" + stackTrace + "\n", 
 			"Error",
 			JOptionPane.ERROR_MESSAGE
 		);
 		
-		onChange();
+		refresh();
 	}
 }
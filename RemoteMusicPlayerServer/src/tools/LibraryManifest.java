@@ -0,0 +1,235 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import tools.MusicLibrary.SongRecord;
+
+/**
+ * <p>
+ * 	List of all music files, from which the library was built, with their
+ * 	size, time of the last modification and parsed tags. Update of the
+ * 	library (see {@link MusicLibrary#updateLibrary(File)}) reads tags only
+ * 	from files, which are new or whose size or time was changed.
+ * </p>
+ * 
+ * <p>
+ * 	Manifest is saved next to the file with the library. It contains version
+ * 	of the library, so a manifest, which doesn't belong to the loaded
+ * 	library, is ignored.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class LibraryManifest {
+	/** Suffix of the file with the manifest (appended to the library file). */
+	public static final String		FILE_SUFFIX		= ".manifest";
+	
+	/** The first bytes of the file ("RMPM"). */
+	private static final int		MAGIC			= 0x524D504D;
+	
+	/** Version of the format of the file. */
+	private static final int		FORMAT_VERSION	= 1;
+	
+	/** Directory, from which the library was built (null if unknown). */
+	private final File				rootDirectory;
+	
+	/** Files by absolute paths. */
+	private final Map<String, Entry>	entries		= new HashMap<>();
+	
+	/**
+	 * One music file.
+	 */
+	static class Entry {
+		/** Absolute path to the file. */
+		private final String		path;
+		
+		/** Size of the file in bytes. */
+		private final long			size;
+		
+		/** Time of the last modification (in milliseconds). */
+		private final long			lastModified;
+		
+		/** Parsed tags, or null if the file couldn't be read. */
+		private final SongRecord	record;
+		
+		/**
+		 * @param path
+		 * 	Absolute path to the file.
+		 * 
+		 * @param size
+		 * 	Size of the file in bytes.
+		 * 
+		 * @param lastModified
+		 * 	Time of the last modification (in milliseconds).
+		 * 
+		 * @param record
+		 * 	Parsed tags, or null if the file couldn't be read.
+		 */
+		public Entry(String path, long size, long lastModified, SongRecord record) {
+			this.path			= path;
+			this.size			= size;
+			this.lastModified	= lastModified;
+			this.record			= record;
+		}
+		
+		/**
+		 * @param size
+		 * 	Current size of the file.
+		 * 
+		 * @param lastModified
+		 * 	Current time of the last modification.
+		 * 
+		 * @return
+		 * 	True if the file wasn't changed, so its tags might be reused.
+		 */
+		public boolean isCurrent(long size, long lastModified) {
+			return (this.size == size && this.lastModified == lastModified);
+		}
+		
+		/**
+		 * @return
+		 * 	Absolute path to the file.
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * @return
+		 * 	Parsed tags, or null if the file couldn't be read.
+		 */
+		public SongRecord getRecord() {
+			return record;
+		}
+	}
+	
+	/**
+	 * Creates an empty manifest.
+	 * 
+	 * @param rootDirectory
+	 * 	Directory, from which the library is built (null if unknown).
+	 */
+	public LibraryManifest(File rootDirectory) {
+		this.rootDirectory = rootDirectory;
+	}
+	
+	/**
+	 * @param path
+	 * 	Absolute path to the file.
+	 * 
+	 * @return
+	 * 	The file, or null if it isn't in the manifest.
+	 */
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+	
+	/**
+	 * @param entry
+	 * 	File to be added (or replaced).
+	 */
+	public void add(Entry entry) {
+		entries.put(entry.path, entry);
+	}
+	
+	/**
+	 * @return
+	 * 	Count of files.
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return
+	 * 	Directory, from which the library was built (null if unknown).
+	 */
+	public File getRootDirectory() {
+		return rootDirectory;
+	}
+	
+	/**
+	 * Saves the manifest. Existing file is replaced at once.
+	 * 
+	 * @param file
+	 * 	Target file.
+	 * 
+	 * @param libraryVersion
+	 * 	Version of the library, to which the manifest belongs.
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be written.
+	 */
+	public void save(File file, long libraryVersion) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024))) {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeLong(libraryVersion);
+			output.writeUTF(rootDirectory != null ? rootDirectory.getAbsolutePath() : "");
+			output.writeInt(entries.size());
+			
+			for (Entry entry : entries.values()) {
+				output.writeUTF(entry.path);
+				output.writeLong(entry.size);
+				output.writeLong(entry.lastModified);
+				output.writeBoolean(entry.record != null);
+				
+				if (entry.record != null) {
+					entry.record.write(output);
+				}
+			}
+		}
+		
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Loads the manifest of the library.
+	 * 
+	 * @param file
+	 * 	File with the manifest.
+	 * 
+	 * @param libraryVersion
+	 * 	Version of the loaded library.
+	 * 
+	 * @return
+	 * 	The manifest, or an empty manifest if the file doesn't exist, it's
+	 * 	corrupted or it belongs to another version of the library.
+	 */
+	public static LibraryManifest load(File file, long libraryVersion) {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+			if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || input.readLong() != libraryVersion) {
+				return new LibraryManifest(null);
+			}
+			
+			String			root		= input.readUTF();
+			LibraryManifest	manifest	= new LibraryManifest(root.isEmpty() ? null : new File(root));
+			
+			for (int count = input.readInt(); count > 0; count--) {
+				String		path			= input.readUTF();
+				long		size			= input.readLong();
+				long		lastModified	= input.readLong();
+				SongRecord	record			= (input.readBoolean() ? SongRecord.read(input, path) : null);
+				
+				manifest.add(new Entry(path, size, lastModified, record));
+			}
+			
+			return manifest;
+		} catch (IOException e) {
+			return new LibraryManifest(null);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.farng.mp3.MP3File;
+import org.farng.mp3.TagException;
+import org.farng.mp3.id3.ID3v1;
+
+import tools.MusicLibrary.SongRecord;
+
+/**
+ * <p>
+ * 	Scans a directory with music files for {@link MusicLibrary}. Scanning is
+ * 	a pipeline with three stages running at the same time:
+ * </p>
+ * 
+ * <ol>
+ * 	<li>
+ * 		Walker thread goes through the directory tree (subdirectories are
+ * 		followed even if they're symbolic links). Type of each file is taken
+ * 		from attributes read together with the directory, so the walker
+ * 		doesn't ask the file system about each file again.
+ * 	</li>
+ * 	<li>
+ * 		ID3 tags of found MP3 files are read in parallel by a work-stealing
+ * 		pool with limited count of threads. Files, whose size and time of the
+ * 		last modification are the same as in the previous manifest, aren't
+ * 		read at all, the walker reuses their tags from the manifest.
+ * 	</li>
+ * 	<li>
+ * 		The thread calling {@link #scan(File, LibraryManifest, FileHandler)}
+ * 		takes results in the same order, in which files were found, and
+ * 		passes them to the handler. The handler is called only by this
+ * 		thread, so it might insert songs into the library without locking.
+ * 	</li>
+ * </ol>
+ * 
+ * <p>
+ * 	Files are found in the same order as by recursive
+ * 	{@link File#listFiles()}, so the library is the same as if files were
+ * 	scanned one after another. Count of files, which were found but weren't
+ * 	passed to the handler yet, is limited, so the walker can't run too far
+ * 	ahead on a huge directory tree.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class LibraryScanner {
+	/** Maximal count of files found by the walker, which weren't handled yet. */
+	private static final int									MAX_PENDING_FILES	= 1024;
+	
+	/** Marks the end of the queue, the walker has finished. */
+	private static final Future<LibraryManifest.Entry>			END					= new FutureTask<>(new Callable<LibraryManifest.Entry>() {
+		@Override
+		public LibraryManifest.Entry call() {
+			return null;
+		}
+	});
+	
+	/** Count of threads reading tags. */
+	private final int											threads;
+	
+	/** Results of the files found by the walker, in the order of finding. */
+	private final BlockingQueue<Future<LibraryManifest.Entry>>	pending				= new ArrayBlockingQueue<>(MAX_PENDING_FILES);
+	
+	/** Count of MP3 files found by the walker. */
+	private volatile long										filesCount			= 0;
+	
+	/** Count of MP3 files, whose tags were read (not reused). */
+	private volatile long										parsedCount			= 0;
+	
+	/** Error of the walker, which makes the whole scan invalid (or null). */
+	private volatile IOException								failure				= null;
+	
+	/**
+	 * Receives files found by the scanner.
+	 */
+	interface FileHandler {
+		/**
+		 * @param file
+		 * 	The file with informations about the song (the record is null if
+		 * 	the file couldn't be read).
+		 */
+		void addFile(LibraryManifest.Entry file);
+	}
+	
+	/**
+	 * @param threads
+	 * 	Count of threads reading tags (at least 1).
+	 */
+	public LibraryScanner(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Scans the directory and passes all MP3 files to the handler.
+	 * Subdirectories, which can't be read, are skipped. Files without ID3
+	 * tags are placed into "(unknown artist)" and "(unknown album)".
+	 * 
+	 * @param rootDirectory
+	 * 	The directory with music files.
+	 * 
+	 * @param previous
+	 * 	Manifest of the previous scan, tags of unchanged files are taken from
+	 * 	it (an empty manifest reads all files).
+	 * 
+	 * @param handler
+	 * 	Receiver of the files, it's called only by the current thread.
+	 * 
+	 * @throws IOException
+	 * 	The directory doesn't exist or it can't be read (e.g. a network share
+	 * 	isn't mounted). Files passed to the handler before the error was
+	 * 	found aren't the whole content of the directory.
+	 */
+	public void scan(final File rootDirectory, final LibraryManifest previous, FileHandler handler) throws IOException {
+		// Empty result would look like all songs were removed
+		if (!rootDirectory.isDirectory() || !rootDirectory.canRead()) {
+			throw new IOException("Music directory " + rootDirectory + " doesn't exist or it can't be read.");
+		}
+		
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		
+		Thread walker = new Thread("LibraryScanner") {
+			@Override
+			public void run() {
+				try {
+					walk(rootDirectory.toPath(), previous, pool);
+					pending.put(END);
+				} catch (InterruptedException e) {
+					// Scanning was cancelled
+				}
+			}
+		};
+		
+		walker.setDaemon(true);
+		walker.start();
+		
+		boolean interrupted = false;
+		
+		try {
+			while (true) {
+				Future<LibraryManifest.Entry> result;
+				
+				try {
+					result = pending.take();
+				} catch (InterruptedException e) {
+					// Library would be incomplete, so scanning continues
+					interrupted = true;
+					continue;
+				}
+				
+				if (result == END) {
+					break;
+				}
+				
+				handler.addFile(getResult(result));
+			}
+		} finally {
+			walker.interrupt();
+			pool.shutdownNow();
+			
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Goes through the directory tree and submits reading of each new or
+	 * changed MP3 file into the pool.
+	 * 
+	 * @param root
+	 * 	The directory with music files.
+	 * 
+	 * @param previous
+	 * 	Manifest of the previous scan.
+	 * 
+	 * @param pool
+	 * 	Pool, which reads tags.
+	 * 
+	 * @throws InterruptedException
+	 * 	Scanning was cancelled.
+	 */
+	private void walk(final Path root, final LibraryManifest previous, final ForkJoinPool pool) throws InterruptedException {
+		try {
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if (attributes.isDirectory() || !file.toString().endsWith(".mp3")) {
+						return FileVisitResult.CONTINUE;
+					}
+					
+					final File		mp3				= file.toFile();
+					final String	path			= mp3.getAbsolutePath();
+					final long		size			= attributes.size();
+					final long		lastModified	= attributes.lastModifiedTime().toMillis();
+					
+					LibraryManifest.Entry			entry	= previous.get(path);
+					Future<LibraryManifest.Entry>	result;
+					
+					if (entry != null && entry.isCurrent(size, lastModified)) {
+						result = completed(entry);
+					} else {
+						result = pool.submit(new Callable<LibraryManifest.Entry>() {
+							@Override
+							public LibraryManifest.Entry call() {
+								return new LibraryManifest.Entry(path, size, lastModified, readSong(mp3));
+							}
+						});
+						
+						parsedCount++;
+					}
+					
+					try {
+						pending.put(result);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return FileVisitResult.TERMINATE;
+					}
+					
+					filesCount++;
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					// The whole directory is unavailable, nothing was found
+					if (file.equals(root)) {
+						failure = e;
+						return FileVisitResult.TERMINATE;
+					}
+					
+					// Unreadable subdirectory or a loop of symbolic links
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+					// Listing of the directory was broken (e.g. share was unmounted)
+					if (e != null && directory.equals(root)) {
+						failure = e;
+						return FileVisitResult.TERMINATE;
+					}
+					
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			failure = e;
+		}
+		
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+	
+	/**
+	 * Reads ID3 tags of one file.
+	 * 
+	 * @param file
+	 * 	MP3 file.
+	 * 
+	 * @return
+	 * 	Informations about the song, or null if the file can't be read.
+	 */
+	private static SongRecord readSong(File file) {
+		try {
+			MP3File	mp3File	= new MP3File(file);
+			ID3v1	id3v1	= mp3File.getID3v1Tag();
+			
+			return new SongRecord(
+				id3v1.getArtist(),
+				id3v1.getAlbum(),
+				id3v1.getYear(),
+				id3v1.getSongTitle(),
+				mp3File.getMp3file().getAbsolutePath(),
+				id3v1.getTrackNumberOnAlbum()
+			);
+		} catch (IOException | TagException e) {
+			return null;
+		} catch (UnsupportedOperationException | NullPointerException e) {
+			return new SongRecord("(unknown artist)", "(unknown album)", "", file.getName(), file.getAbsolutePath(), "1");
+		}
+	}
+	
+	/**
+	 * @param entry
+	 * 	File with tags from the previous manifest.
+	 * 
+	 * @return
+	 * 	Already completed result with the file.
+	 */
+	private static Future<LibraryManifest.Entry> completed(final LibraryManifest.Entry entry) {
+		FutureTask<LibraryManifest.Entry> result = new FutureTask<>(new Callable<LibraryManifest.Entry>() {
+			@Override
+			public LibraryManifest.Entry call() {
+				return entry;
+			}
+		});
+		
+		result.run();
+		return result;
+	}
+	
+	/**
+	 * Waits for reading of one file.
+	 * 
+	 * @param result
+	 * 	Result from the pool.
+	 * 
+	 * @return
+	 * 	The file with informations about the song.
+	 */
+	private static LibraryManifest.Entry getResult(Future<LibraryManifest.Entry> result) {
+		boolean interrupted = false;
+		
+		try {
+			while (true) {
+				try {
+					return result.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// Unexpected errors of the parser stop scanning the same
+					// way as if the file was read by this thread
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					
+					throw (Error) e.getCause();
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Count of MP3 files found by the last scan.
+	 */
+	public long getFilesCount() {
+		return filesCount;
+	}
+	
+	/**
+	 * @return
+	 * 	Count of MP3 files, whose tags were read by the last scan (the others
+	 * 	were taken from the previous manifest).
+	 */
+	public long getParsedCount() {
+		return parsedCount;
+	}
+}
@@ -0,0 +1,584 @@
+package tools;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * 	Sorted view of the music library for browsing by pages. Artists are sorted
+ * 	by name, albums of each artist by name and year and songs of each album
+ * 	stay in the order of the album (by track number).
+ * </p>
+ * 
+ * <p>
+ * 	The view is created once for each version of the library (see
+ * 	{@link MusicLibrary#getView()}) and it's never changed, so it might be used
+ * 	by many threads without locking. Artists and albums are found by binary
+ * 	search and each page is only a slice of an array, so a page costs the same
+ * 	time regardless of the size of the library.
+ * </p>
+ * 
+ * <p>
+ * 	Pages are one-line XML documents (in UTF-8), elements and attributes have
+ * 	the same names as in the whole library (see {@link MusicLibrary#buildXML()}):
+ * </p>
+ * 
+ * <pre>
+ * 	{@code
+ * 		<artists version="1394098421000" total="1520" offset="0">
+ * 			<artist name="Sybreed" albums="3"/>
+ * 		</artists>
+ * 		<albums version="..." artist="Sybreed" total="3" offset="0">
+ * 			<album name="Slave design" year="2007" songs="10"/>
+ * 		</albums>
+ * 		<songs version="..." artist="Sybreed" album="Slave design" total="10" offset="0">
+ * 			<song name="Bioactive" track="1" filename="/home/user/Music/Sybreed/SlaveDesign/Bioactive.mp3"/>
+ * 		</songs>
+ * 		<searchResults version="..." query="bio">
+ * 			<artist name="..." albums="..."/>
+ * 			<album artist="..." name="..." year="..." songs="..."/>
+ * 			<song artist="Sybreed" album="Slave design" name="Bioactive" track="1" filename="..."/>
+ * 		</searchResults>
+ * 	}
+ * </pre>
+ * 
+ * <p>
+ * 	Names of artists, albums and songs are indexed by {@link SearchIndex}
+ * 	when the view is created, so searching doesn't go trough the library.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class LibraryView {
+	/** Maximal count of items in one page, larger limits are reduced. */
+	public static final int						MAX_PAGE_SIZE		= 1000;
+	
+	/** Encoding of the pages. */
+	private static final Charset				UTF8				= Charset.forName("UTF-8");
+	
+	/**
+	 * Order of names: case-insensitive, names which differ only in case are
+	 * ordered by the case (so it's a total order and binary search works).
+	 */
+	private static final Comparator<String>		NAME_ORDER			= new Comparator<String>() {
+		@Override
+		public int compare(String first, String second) {
+			int result = first.compareToIgnoreCase(second);
+			return (result != 0 ? result : first.compareTo(second));
+		}
+	};
+	
+	/** Order of artists by name. */
+	private static final Comparator<ArtistEntry>	ARTIST_ORDER	= new Comparator<ArtistEntry>() {
+		@Override
+		public int compare(ArtistEntry first, ArtistEntry second) {
+			return NAME_ORDER.compare(first.name, second.name);
+		}
+	};
+	
+	/** Order of albums by name and year. */
+	private static final Comparator<AlbumEntry>	ALBUM_ORDER		= new Comparator<AlbumEntry>() {
+		@Override
+		public int compare(AlbumEntry first, AlbumEntry second) {
+			int result = NAME_ORDER.compare(first.name, second.name);
+			return (result != 0 ? result : first.year.compareTo(second.year));
+		}
+	};
+	
+	/** Version of the library, which is described by this view. */
+	private final long							version;
+	
+	/** All artists, sorted by {@link #ARTIST_ORDER}. */
+	private final ArtistEntry[]					artists;
+	
+	/** Albums of all artists (in the order of {@link #artists}). */
+	private final AlbumEntry[]					albums;
+	
+	/** Songs of all albums (in the order of {@link #albums}). */
+	private final SongEntry[]					songs;
+	
+	/** Index of names of {@link #artists}. */
+	private final SearchIndex					artistIndex;
+	
+	/** Index of names of {@link #albums}. */
+	private final SearchIndex					albumIndex;
+	
+	/** Index of names of {@link #songs}. */
+	private final SearchIndex					songIndex;
+	
+	/**
+	 * Artist with albums, sorted by {@link #ALBUM_ORDER}.
+	 */
+	static class ArtistEntry {
+		/** Name of the artist. */
+		private final String		name;
+		
+		/** Albums of the artist. */
+		private final AlbumEntry[]	albums;
+		
+		/**
+		 * @param name
+		 * 	Name of the artist.
+		 * 
+		 * @param albums
+		 * 	Albums of the artist in any order, the array is sorted.
+		 */
+		ArtistEntry(String name, AlbumEntry[] albums) {
+			this.name	= name;
+			this.albums	= albums;
+			
+			Arrays.sort(albums, ALBUM_ORDER);
+			
+			for (AlbumEntry album : albums) {
+				album.artist = this;
+			}
+		}
+	}
+	
+	/**
+	 * Album with songs in the order of the album.
+	 */
+	static class AlbumEntry {
+		/** Name of the album. */
+		private final String		name;
+		
+		/** Year of publication. */
+		private final String		year;
+		
+		/** Songs of the album. */
+		private final SongEntry[]	songs;
+		
+		/** Artist of the album (it's set by the artist). */
+		private ArtistEntry			artist;
+		
+		/**
+		 * @param name
+		 * 	Name of the album.
+		 * 
+		 * @param year
+		 * 	Year of publication.
+		 * 
+		 * @param songs
+		 * 	Songs of the album in the order of the album.
+		 */
+		AlbumEntry(String name, String year, SongEntry[] songs) {
+			this.name	= name;
+			this.year	= year;
+			this.songs	= songs;
+			
+			for (SongEntry song : songs) {
+				song.album = this;
+			}
+		}
+	}
+	
+	/**
+	 * Single song.
+	 */
+	static class SongEntry {
+		/** Name of the song. */
+		private final String	name;
+		
+		/** Number of the track on the album. */
+		private final String	trackNumber;
+		
+		/** Absolute path to the file with the song. */
+		private final String	path;
+		
+		/** Album of the song (it's set by the album). */
+		private AlbumEntry		album;
+		
+		/**
+		 * @param name
+		 * 	Name of the song.
+		 * 
+		 * @param trackNumber
+		 * 	Number of the track on the album.
+		 * 
+		 * @param path
+		 * 	Absolute path to the file with the song.
+		 */
+		SongEntry(String name, String trackNumber, String path) {
+			this.name			= name;
+			this.trackNumber	= trackNumber;
+			this.path			= path;
+		}
+	}
+	
+	/**
+	 * @param version
+	 * 	Version of the library.
+	 * 
+	 * @param artists
+	 * 	All artists in any order, the array is sorted.
+	 */
+	LibraryView(long version, ArtistEntry[] artists) {
+		this.version	= version;
+		this.artists	= artists;
+		
+		Arrays.sort(artists, ARTIST_ORDER);
+		
+		int albumCount	= 0;
+		int songCount	= 0;
+		
+		for (ArtistEntry artist : artists) {
+			albumCount += artist.albums.length;
+			
+			for (AlbumEntry album : artist.albums) {
+				songCount += album.songs.length;
+			}
+		}
+		
+		albums	= new AlbumEntry[albumCount];
+		songs	= new SongEntry[songCount];
+		
+		String[] artistNames	= new String[artists.length];
+		String[] albumNames		= new String[albumCount];
+		String[] songNames		= new String[songCount];
+		
+		albumCount	= 0;
+		songCount	= 0;
+		
+		for (int i = 0; i < artists.length; i++) {
+			artistNames[i] = artists[i].name;
+			
+			for (AlbumEntry album : artists[i].albums) {
+				albumNames[albumCount]	= album.name;
+				albums[albumCount++]	= album;
+				
+				for (SongEntry song : album.songs) {
+					songNames[songCount]	= song.name;
+					songs[songCount++]		= song;
+				}
+			}
+		}
+		
+		artistIndex	= new SearchIndex(artistNames);
+		albumIndex	= new SearchIndex(albumNames);
+		songIndex	= new SearchIndex(songNames);
+	}
+	
+	/**
+	 * @return
+	 * 	Version of the library, which is described by this view.
+	 */
+	public long getVersionNumber() {
+		return version;
+	}
+	
+	/**
+	 * Creates one page of artists.
+	 * 
+	 * @param offset
+	 * 	Index of the first artist (from 0).
+	 * 
+	 * @param limit
+	 * 	Maximal count of artists (at most {@link #MAX_PAGE_SIZE}).
+	 * 
+	 * @return
+	 * 	XML document {@code <artists>} in UTF-8.
+	 */
+	public byte[] listArtists(int offset, int limit) {
+		StringBuilder	builder	= new StringBuilder();
+		int				end		= pageEnd(artists.length, offset, limit);
+		
+		builder.append("<artists");
+		appendAttribute(builder, "version", String.valueOf(version));
+		appendAttribute(builder, "total", String.valueOf(artists.length));
+		appendAttribute(builder, "offset", String.valueOf(offset));
+		builder.append('>');
+		
+		for (int i = offset; i < end; i++) {
+			builder.append("<artist");
+			appendAttribute(builder, "name", artists[i].name);
+			appendAttribute(builder, "albums", String.valueOf(artists[i].albums.length));
+			builder.append("/>");
+		}
+		
+		builder.append("</artists>");
+		return builder.toString().getBytes(UTF8);
+	}
+	
+	/**
+	 * Creates one page of albums of the artist.
+	 * 
+	 * @param artist
+	 * 	Name of the artist.
+	 * 
+	 * @param offset
+	 * 	Index of the first album (from 0).
+	 * 
+	 * @param limit
+	 * 	Maximal count of albums (at most {@link #MAX_PAGE_SIZE}).
+	 * 
+	 * @return
+	 * 	XML document {@code <albums>} in UTF-8, or null if there's no such
+	 * 	artist.
+	 */
+	public byte[] listAlbums(String artist, int offset, int limit) {
+		ArtistEntry entry = findArtist(artist);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		StringBuilder	builder	= new StringBuilder();
+		int				end		= pageEnd(entry.albums.length, offset, limit);
+		
+		builder.append("<albums");
+		appendAttribute(builder, "version", String.valueOf(version));
+		appendAttribute(builder, "artist", entry.name);
+		appendAttribute(builder, "total", String.valueOf(entry.albums.length));
+		appendAttribute(builder, "offset", String.valueOf(offset));
+		builder.append('>');
+		
+		for (int i = offset; i < end; i++) {
+			builder.append("<album");
+			appendAttribute(builder, "name", entry.albums[i].name);
+			appendAttribute(builder, "year", entry.albums[i].year);
+			appendAttribute(builder, "songs", String.valueOf(entry.albums[i].songs.length));
+			builder.append("/>");
+		}
+		
+		builder.append("</albums>");
+		return builder.toString().getBytes(UTF8);
+	}
+	
+	/**
+	 * Creates one page of songs of the album. If the artist has more albums
+	 * with the same name (but different year), the oldest one is used.
+	 * 
+	 * @param artist
+	 * 	Name of the artist.
+	 * 
+	 * @param album
+	 * 	Name of the album.
+	 * 
+	 * @param offset
+	 * 	Index of the first song (from 0).
+	 * 
+	 * @param limit
+	 * 	Maximal count of songs (at most {@link #MAX_PAGE_SIZE}).
+	 * 
+	 * @return
+	 * 	XML document {@code <songs>} in UTF-8, or null if there's no such
+	 * 	artist or album.
+	 */
+	public byte[] listSongs(String artist, String album, int offset, int limit) {
+		ArtistEntry artistEntry = findArtist(artist);
+		
+		if (artistEntry == null) {
+			return null;
+		}
+		
+		AlbumEntry entry = findAlbum(artistEntry, album);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		StringBuilder	builder	= new StringBuilder();
+		int				end		= pageEnd(entry.songs.length, offset, limit);
+		
+		builder.append("<songs");
+		appendAttribute(builder, "version", String.valueOf(version));
+		appendAttribute(builder, "artist", artistEntry.name);
+		appendAttribute(builder, "album", entry.name);
+		appendAttribute(builder, "total", String.valueOf(entry.songs.length));
+		appendAttribute(builder, "offset", String.valueOf(offset));
+		builder.append('>');
+		
+		for (int i = offset; i < end; i++) {
+			builder.append("<song");
+			appendAttribute(builder, "name", entry.songs[i].name);
+			appendAttribute(builder, "track", entry.songs[i].trackNumber);
+			appendAttribute(builder, "filename", entry.songs[i].path);
+			builder.append("/>");
+		}
+		
+		builder.append("</songs>");
+		return builder.toString().getBytes(UTF8);
+	}
+	
+	/**
+	 * Finds artists, albums and songs, whose names contain the query at the
+	 * beginning of a word (see {@link SearchIndex}). Artists are listed first,
+	 * then albums and songs, names beginning with the query are listed before
+	 * the others.
+	 * 
+	 * @param query
+	 * 	Text typed by the user, case and diacritics don't matter.
+	 * 
+	 * @param limit
+	 * 	Maximal count of results (at most {@link #MAX_PAGE_SIZE}).
+	 * 
+	 * @return
+	 * 	XML document {@code <searchResults>} in UTF-8.
+	 */
+	public byte[] search(String query, int limit) {
+		byte[]	key		= SearchIndex.prepareQuery(query);
+		int[]	results	= new int[Math.min(limit, MAX_PAGE_SIZE)];
+		
+		StringBuilder builder = new StringBuilder();
+		
+		builder.append("<searchResults");
+		appendAttribute(builder, "version", String.valueOf(version));
+		appendAttribute(builder, "query", query);
+		builder.append('>');
+		
+		int count = artistIndex.search(key, results);
+		
+		for (int i = 0; i < count; i++) {
+			ArtistEntry artist = artists[results[i]];
+			
+			builder.append("<artist");
+			appendAttribute(builder, "name", artist.name);
+			appendAttribute(builder, "albums", String.valueOf(artist.albums.length));
+			builder.append("/>");
+		}
+		
+		results	= new int[results.length - count];
+		count	= albumIndex.search(key, results);
+		
+		for (int i = 0; i < count; i++) {
+			AlbumEntry album = albums[results[i]];
+			
+			builder.append("<album");
+			appendAttribute(builder, "artist", album.artist.name);
+			appendAttribute(builder, "name", album.name);
+			appendAttribute(builder, "year", album.year);
+			appendAttribute(builder, "songs", String.valueOf(album.songs.length));
+			builder.append("/>");
+		}
+		
+		results	= new int[results.length - count];
+		count	= songIndex.search(key, results);
+		
+		for (int i = 0; i < count; i++) {
+			SongEntry song = songs[results[i]];
+			
+			builder.append("<song");
+			appendAttribute(builder, "artist", song.album.artist.name);
+			appendAttribute(builder, "album", song.album.name);
+			appendAttribute(builder, "name", song.name);
+			appendAttribute(builder, "track", song.trackNumber);
+			appendAttribute(builder, "filename", song.path);
+			builder.append("/>");
+		}
+		
+		builder.append("</searchResults>");
+		return builder.toString().getBytes(UTF8);
+	}
+	
+	/**
+	 * @return
+	 * 	Count of songs in the library.
+	 */
+	public int getSongCount() {
+		return songs.length;
+	}
+	
+	/**
+	 * @return
+	 * 	Approximate count of bytes occupied by search indexes (without names,
+	 * 	which are shared with the view).
+	 */
+	public long getSearchMemoryUsage() {
+		return artistIndex.getMemoryUsage() + albumIndex.getMemoryUsage() + songIndex.getMemoryUsage();
+	}
+	
+	/**
+	 * @param name
+	 * 	Name of the artist.
+	 * 
+	 * @return
+	 * 	The artist or null if there's no such artist.
+	 */
+	private ArtistEntry findArtist(String name) {
+		int index = Arrays.binarySearch(artists, new ArtistEntry(name, new AlbumEntry[0]), ARTIST_ORDER);
+		return (index >= 0 ? artists[index] : null);
+	}
+	
+	/**
+	 * @param artist
+	 * 	The artist.
+	 * 
+	 * @param name
+	 * 	Name of the album.
+	 * 
+	 * @return
+	 * 	The first album (by year) with the given name or null if there's no
+	 * 	such album.
+	 */
+	private static AlbumEntry findAlbum(ArtistEntry artist, String name) {
+		// Year "" is lower than any other year
+		int index = Arrays.binarySearch(artist.albums, new AlbumEntry(name, "", new SongEntry[0]), ALBUM_ORDER);
+		
+		if (index < 0) {
+			index = -index - 1;
+		}
+		
+		if (index < artist.albums.length && artist.albums[index].name.equals(name)) {
+			return artist.albums[index];
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @param length
+	 * 	Count of all items.
+	 * 
+	 * @param offset
+	 * 	Index of the first item of the page (not negative).
+	 * 
+	 * @param limit
+	 * 	Maximal count of items (not negative).
+	 * 
+	 * @return
+	 * 	Index after the last item of the page.
+	 */
+	private static int pageEnd(int length, int offset, int limit) {
+		return (int) Math.min(length, (long) offset + Math.min(limit, MAX_PAGE_SIZE));
+	}
+	
+	/**
+	 * Appends attribute with escaped value. Line breaks are escaped too, so
+	 * the document stays on one line.
+	 * 
+	 * @param builder
+	 * 	Document being created.
+	 * 
+	 * @param name
+	 * 	Name of the attribute.
+	 * 
+	 * @param value
+	 * 	Value of the attribute.
+	 */
+	private static void appendAttribute(StringBuilder builder, String name, String value) {
+		builder.append(' ').append(name).append("=\"");
+		
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+			
+			switch (character) {
+				case '&':	builder.append("&amp;");	break;
+				case '<':	builder.append("&lt;");		break;
+				case '>':	builder.append("&gt;");		break;
+				case '"':	builder.append("&quot;");	break;
+				case '\t':	builder.append("&#9;");		break;
+				case '\n':	builder.append("&#10;");	break;
+				case '\r':	builder.append("&#13;");	break;
+				
+				default:
+					// Other control characters aren't allowed in XML
+					if (character >= ' ') {
+						builder.append(character);
+					}
+			}
+		}
+		
+		builder.append('"');
+	}
+}
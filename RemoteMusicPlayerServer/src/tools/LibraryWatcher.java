@@ -0,0 +1,266 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 	Watches the directory with music files (including all subdirectories)
+ * 	and reports changes of MP3 files, so the library might be updated
+ * 	without user's action (see {@link MusicLibrary#updateLibrary(File)}).
+ * </p>
+ * 
+ * <p>
+ * 	Changes come in bursts (e.g.: copying of an album produces several
+ * 	events for each file), so they're collected into batches. A batch is
+ * 	reported when there's no change for the given delay, or at latest after
+ * 	the maximal delay since its first change, so copying of thousands of
+ * 	files causes only a few updates. Changes, which come while the listener
+ * 	is running, belong to the next batch.
+ * </p>
+ * 
+ * <p>
+ * 	New subdirectories are watched as soon as they're reported. Files
+ * 	created in them before that aren't missed, because the update goes
+ * 	through the whole directory again.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class LibraryWatcher {
+	/** The watched directory. */
+	private final File						rootDirectory;
+	
+	/** Time without changes (in milliseconds), after which a batch is reported. */
+	private final long						delay;
+	
+	/** Maximal time (in milliseconds) since the first change of a batch to its report. */
+	private final long						maxDelay;
+	
+	/** Receiver of batches of changes. */
+	private final ChangeListener			listener;
+	
+	/** Watched directories by their keys. */
+	private final Map<WatchKey, Path>		directories		= new HashMap<>();
+	
+	/** Paths of the watched directories (to recognize their deletion). */
+	private final Set<Path>					paths			= new HashSet<>();
+	
+	/** Service reporting changes (null if watching wasn't started). */
+	private volatile WatchService			watchService	= null;
+	
+	/**
+	 * Receives batches of changes.
+	 */
+	public interface ChangeListener {
+		/**
+		 * Called by the thread of the watcher after a batch of changes.
+		 * 
+		 * @param rootDirectory
+		 * 	The watched directory.
+		 * 
+		 * @param changesCount
+		 * 	Count of changes in the batch.
+		 */
+		void libraryChanged(File rootDirectory, int changesCount);
+	}
+	
+	/**
+	 * @param rootDirectory
+	 * 	Directory with music files.
+	 * 
+	 * @param delay
+	 * 	Time without changes (in milliseconds), after which a batch is
+	 * 	reported.
+	 * 
+	 * @param maxDelay
+	 * 	Maximal time (in milliseconds) since the first change of a batch to
+	 * 	its report.
+	 * 
+	 * @param listener
+	 * 	Receiver of batches of changes.
+	 */
+	public LibraryWatcher(File rootDirectory, long delay, long maxDelay, ChangeListener listener) {
+		this.rootDirectory	= rootDirectory.getAbsoluteFile();
+		this.delay			= delay;
+		this.maxDelay		= Math.max(delay, maxDelay);
+		this.listener		= listener;
+	}
+	
+	/**
+	 * Registers all directories and starts a daemon thread, which watches
+	 * them.
+	 * 
+	 * @throws IOException
+	 * 	Watching isn't supported by the file system.
+	 */
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		registerTree(rootDirectory.toPath());
+		
+		Thread thread = new Thread("LibraryWatcher") {
+			@Override
+			public void run() {
+				watch();
+			}
+		};
+		
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops watching. A batch, which is being reported, is finished, but no
+	 * other batch is reported.
+	 */
+	public void stop() {
+		WatchService service = watchService;
+		
+		if (service != null) {
+			try {
+				service.close();
+			} catch (IOException e) {
+				// Service is closed anyway
+			}
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	The watched directory.
+	 */
+	public File getRootDirectory() {
+		return rootDirectory;
+	}
+	
+	/**
+	 * Collects changes into batches and reports them, until the watcher is
+	 * stopped.
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				// Wait for the first change of a batch
+				int		changesCount	= process(watchService.take());
+				long	deadline		= System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+				
+				while (true) {
+					long		timeout	= Math.min(TimeUnit.MILLISECONDS.toNanos(delay), deadline - System.nanoTime());
+					WatchKey	key		= (timeout > 0 ? watchService.poll(timeout, TimeUnit.NANOSECONDS) : null);
+					
+					if (key == null) {
+						break;
+					}
+					
+					changesCount += process(key);
+				}
+				
+				if (changesCount > 0) {
+					listener.libraryChanged(rootDirectory, changesCount);
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// Watcher was stopped
+		}
+	}
+	
+	/**
+	 * Goes through events of one directory. New subdirectories are
+	 * registered.
+	 * 
+	 * @param key
+	 * 	Key of the directory.
+	 * 
+	 * @return
+	 * 	Count of changes of MP3 files and directories.
+	 */
+	private int process(WatchKey key) {
+		Path	directory		= directories.get(key);
+		int		changesCount	= 0;
+		
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Some events were lost, only the update can find out what changed
+				changesCount++;
+				continue;
+			}
+			
+			if (directory == null) {
+				continue;
+			}
+			
+			Path child = directory.resolve((Path) event.context());
+			
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+				registerTree(child);
+				changesCount++;
+			} else if (child.toString().endsWith(".mp3") || paths.contains(child)) {
+				changesCount++;
+			}
+		}
+		
+		// Key of a deleted directory can't be used again
+		if (!key.reset()) {
+			paths.remove(directories.remove(key));
+		}
+		
+		return changesCount;
+	}
+	
+	/**
+	 * Registers the directory and all its subdirectories. Directories, which
+	 * can't be read or registered, are skipped.
+	 * 
+	 * @param directory
+	 * 	The directory.
+	 */
+	private void registerTree(Path directory) {
+		try {
+			Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path subdirectory, BasicFileAttributes attributes) {
+					try {
+						WatchKey key = subdirectory.register(
+							watchService,
+							StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE,
+							StandardWatchEventKinds.ENTRY_MODIFY
+						);
+						
+						directories.put(key, subdirectory);
+						paths.add(subdirectory);
+					} catch (IOException e) {
+						// E.g.: limit of watched directories was reached
+					}
+					
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			// Visitor doesn't throw, nothing else might fail
+		}
+	}
+}
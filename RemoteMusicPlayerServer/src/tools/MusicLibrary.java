@@ -1,27 +1,41 @@
 package tools;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
-import org.farng.mp3.MP3File;
-import org.farng.mp3.TagException;
-import org.farng.mp3.id3.ID3v1;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 /**
@@ -48,12 +62,19 @@ import org.xml.sax.SAXException;
  * 					<li>If you want to, use method <b>serialize()</b> to store the result somewhere.</li>
  * 					<li>If you want to, use method <b>getTransmittableData()</b> for sending data over the network.</li>
  * 				</ol>
- * 			<li><h2>Second time: update of the library (not supported yet).</h2></li>
+ * 			<li><h2>Second time: update of the library.</h2></li>
+ *	 			<ol>
+ * 					<li>Use method <b>deserialize()</b> to load the stored library (if it's not in memory).</li>
+ * 					<li>Use methods <b>updateLibrary()</b>, <b>buildXML()</b> and <b>serialize()</b> again.</li>
+ * 					<li>Use method <b>getChangesSince()</b> to get only changes for a client with an older version.</li>
+ * 					<li>Use method <b>getView()</b> to browse the library by pages.</li>
+ * 				</ol>
  * 		</ul>
  * </p>
  * 
  * @author		Tomáš Zíma
  * @see			#buildLibrary(File)
+ * @see			#updateLibrary(File)
  * @see			#buildXML()
  * @see			#serialize(String)
  * @see			#getTransmittableData()
@@ -65,14 +86,20 @@ public class MusicLibrary {
 	 * 
 	 * @see Artist
 	 */
-	private List<Artist>	artists		= new ArrayList<>();
+	private List<Artist>		artists		= new ArrayList<>();
+	
+	/** Artists from {@link #artists} by their keys (see {@link #normalize(String)}). */
+	private Map<String, Artist>	artistIndex	= new HashMap<>();
 	
 	/**
-	 * Represents XML document, which contains all informations from the
-	 * music library. This attribute will be set only if {@link #buildXML()}
-	 * was called previously. In other case, it'll be null.
+	 * Artists, which are written into XML (see {@link #writeXML(OutputStream)}).
+	 * This attribute will be set only if {@link #buildXML()} was called
+	 * previously. In other case, it'll be null.
 	 */
-	private Document		xmlDocument	= null;
+	private List<Artist>	xmlArtists	= null;
+	
+	/** Version of the library in {@link #xmlArtists}. */
+	private long			xmlVersion	= 0;
 	
 	/**
 	 * <p>
@@ -83,20 +110,130 @@ public class MusicLibrary {
 	 * 
 	 * <p>
 	 * 	Therefore, this number have to be generated each time the library is
-	 * 	generated or updated.
+	 * 	generated or updated. It's a time-based sequence, so newer version is
+	 * 	always greater than the older one (even after restart of the
+	 * 	application, unless the system clock is turned back).
 	 * </p>
 	 */
-	private long			version		= 0;
+	private volatile long	version		= 0;
+	
+	/**
+	 * Sorted view of the current version of the library for browsing by
+	 * pages. It's replaced whenever the library is built or loaded.
+	 */
+	private volatile LibraryView	view	= new LibraryView(0, new LibraryView.ArtistEntry[0]);
+	
+	/** Count of threads reading tags of music files (see {@link #setScanThreads(int)}). */
+	private int						scanThreads	= Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Music files, from which the current version of the library was built
+	 * (see {@link #updateLibrary(File)}). It's saved and loaded together with
+	 * the library.
+	 */
+	private volatile LibraryManifest	manifest	= new LibraryManifest(null);
+	
+	/** Order of songs on an album by number of the track (stable for the same numbers). */
+	private static final Comparator<Song>	TRACK_ORDER	= new Comparator<Song>() {
+		@Override
+		public int compare(Song first, Song second) {
+			return Integer.compare(first.track, second.track);
+		}
+	};
+	
+	/** Maximal count of builds, which are kept in the {@link #changelog}. */
+	private static final int	MAX_CHANGELOG_ENTRIES	= 32;
+	
+	/** Maximal count of changed songs in the whole {@link #changelog}. */
+	private static final int	MAX_CHANGELOG_SONGS		= 50000;
+	
+	/**
+	 * Changes made by the last builds of the library, the oldest one is the
+	 * first. Versions of the entries follow each other. It's bounded by
+	 * {@link #MAX_CHANGELOG_ENTRIES} and {@link #MAX_CHANGELOG_SONGS}, older
+	 * entries are dropped.
+	 * 
+	 * @see #getChangesSince(long)
+	 */
+	private final Deque<ChangelogEntry>	changelog	= new ArrayDeque<>();
+	
+	/** Name of the gzip encoding (RFC 1952) of the serialized library. */
+	public static final String	ENCODING_GZIP		= "gzip";
+	
+	/** Name of the deflate encoding (zlib format, RFC 1950) of the serialized library. */
+	public static final String	ENCODING_DEFLATE	= "deflate";
+	
+	/**
+	 * Compressed content of serialized libraries, the key is path of the
+	 * file. Content is compressed only once for each version of the file.
+	 * 
+	 * @see #loadCompressedContent(String, String)
+	 */
+	private static final Map<String, CompressedContent>	compressedContents	= new HashMap<>();
+	
+	/**
+	 * Compressed content of one version of the file with serialized library.
+	 */
+	private static class CompressedContent {
+		/** Time of the last modification of the file. */
+		private final long		lastModified;
+		
+		/** Length of the file. */
+		private final long		length;
+		
+		/** Content in the gzip encoding. */
+		private final byte[]	gzip;
+		
+		/** Content in the deflate encoding. */
+		private final byte[]	deflate;
+		
+		/**
+		 * @param lastModified
+		 * 	Time of the last modification of the file.
+		 * 
+		 * @param length
+		 * 	Length of the file.
+		 * 
+		 * @param gzip
+		 * 	Content in the gzip encoding.
+		 * 
+		 * @param deflate
+		 * 	Content in the deflate encoding.
+		 */
+		public CompressedContent(long lastModified, long length, byte[] gzip, byte[] deflate) {
+			this.lastModified	= lastModified;
+			this.length			= length;
+			this.gzip			= gzip;
+			this.deflate		= deflate;
+		}
+		
+		/**
+		 * @param file
+		 * 	File with serialized library.
+		 * 
+		 * @return
+		 * 	True if the file wasn't changed since it was compressed.
+		 */
+		public boolean isCurrent(File file) {
+			return (file.lastModified() == lastModified && file.length() == length);
+		}
+	}
 
 	/**
 	 * Simple class, which contains all informations about a single artist.
 	 */
 	protected class Artist {
 		/** Contains all albums from the artist. */
-		private List<Album>	albums	= new ArrayList<>();
+		private List<Album>			albums		= new ArrayList<>();
+		
+		/** Albums from {@link #albums} by their keys. */
+		private Map<String, Album>	albumIndex	= new HashMap<>();
 		
 		/** Name of the artist. */
-		private String		name	= "";
+		private String				name		= "";
+		
+		/** Key of the artist (normalized name). */
+		private final String		key;
 
 		/**
 		 * Creates a new artist with specified name.
@@ -105,12 +242,14 @@ public class MusicLibrary {
 		 * 	Name of the artist.
 		 */
 		public Artist(String name) {
-			this.name = name;
+			this.name	= name;
+			this.key	= normalize(name);
 		}
 		
 		/**
 		 * Checks if informations in the given object are the
-		 * same as informations stored in this object.
+		 * same as informations stored in this object. Names are
+		 * compared by their normalized form (see {@link #normalize(String)}).
 		 * 
 		 * @param artist
 		 * 	Object to be compared with.
@@ -120,15 +259,14 @@ public class MusicLibrary {
 		 * 	be returned. False will be returned in the other case.
 		 */
 		public boolean equals(Artist artist) {
-			return (name.equals(artist.name));
+			return (key.equals(artist.key));
 		}
 		
 		/**
-		 * Goes trough all albums of this artist. If it finds album,
-		 * which is exactly the same as given album (same name and
-		 * year of publication), it'll return the existing album
-		 * (which might already contain some songs). If any matching
-		 * album wasn't found, it'll create a new album.
+		 * Looks up an album of this artist, which is the same as
+		 * given album (same name and year of publication), and returns
+		 * the existing album (which might already contain some songs).
+		 * If any matching album wasn't found, the given album is added.
 		 * 
 		 * @param album
 		 * 	Informations about album.
@@ -137,14 +275,15 @@ public class MusicLibrary {
 		 * 	Existing album if found, or a given parameter (now included
 		 * 	into the list of artist's albums).
 		 */
-		protected Album getAlbum(Album album) {
-			for (Album tmpAlbum : albums) {
-				if (tmpAlbum.equals(album)) {
-					return tmpAlbum;
-				}
+		public Album getAlbum(Album album) {
+			Album existing = albumIndex.get(album.key);
+			
+			if (existing != null) {
+				return existing;
 			}
 			
 			albums.add(album);
+			albumIndex.put(album.key, album);
 			return album;
 		}
 		
@@ -163,13 +302,19 @@ public class MusicLibrary {
 	 */
 	protected class Album {
 		/** Contains all songs from the album. */
-		private List<Song>	songs	= new ArrayList<>();
+		private List<Song>		songs	= new ArrayList<>();
 		
 		/** Name of album. */
-		private String		name	= "";
+		private String			name	= "";
 		
 		/** Year of publication. */
-		private String		year	= "";
+		private String			year	= "";
+		
+		/** Key of the album (normalized name and year). */
+		private final String	key;
+		
+		/** False if {@link #songs} have to be sorted by {@link #sort()}. */
+		private boolean			sorted	= true;
 		
 		/**
 		 * Creates record about an album with specified
@@ -184,6 +329,7 @@ public class MusicLibrary {
 		public Album(String name, String year) {
 			this.name	= name;
 			this.year	= year;
+			this.key	= normalize(name) + '\u0000' + year.trim();
 		}
 
 		/**
@@ -194,39 +340,46 @@ public class MusicLibrary {
 		 * 	Informations about album.
 		 * 
 		 * @return
-		 * 	True if informations are exactly the same, or false
-		 * 	if informations doesn't match.
+		 * 	True if informations are the same (names are compared
+		 * 	by their normalized form), or false if informations
+		 * 	doesn't match.
 		 */
 		public boolean equals(Album album) {
-			return (name.equals(album.name) && year.equals(album.year));
+			return (key.equals(album.key));
 		}
 		
 		/**
 		 * <p>
-		 * 	Inserts a song into the album. It's immediately sorting all
-		 * 	songs in the order as they're on the album (if there's an
-		 * 	ID3 tag about track number).
-		 * </p>
-		 * 
-		 * <p>
-		 * 	Therefore, after each call of this method, list of {@link #songs}
-		 * 	will be sorted by track number. It tries to be as fast as possible.
+		 * 	Inserts a song into the album. Songs aren't sorted here, the
+		 * 	whole library is sorted once after it's built (see
+		 * 	{@link MusicLibrary#sortSongs()}), so songs are in the order
+		 * 	as they're on the album (if there's an ID3 tag about track
+		 * 	number).
 		 * </p>
 		 * 
 		 * @param song
 		 * 	Informations about the song.
 		 */
 		public void addSong(Song song) {
-			for (int i = 0; i < songs.size(); i++) {
-				if (Integer.valueOf(songs.get(i).trackNumber) >= Integer.valueOf(song.trackNumber)) {
-					songs.add(i, song);
-					return;
-				}
+			// Files of an album usually come in the order of tracks
+			if (!songs.isEmpty() && songs.get(songs.size() - 1).track > song.track) {
+				sorted = false;
 			}
 			
 			songs.add(song);
 		}
 		
+		/**
+		 * Sorts songs by number of the track. Songs with the same number
+		 * keep the order, in which they were added.
+		 */
+		public void sort() {
+			if (!sorted) {
+				Collections.sort(songs, TRACK_ORDER);
+				sorted = true;
+			}
+		}
+		
 		/**
 		 * @return
 		 * 	Name of the album.
@@ -249,13 +402,16 @@ public class MusicLibrary {
 	 */
 	protected class Song {
 		/** Name of song. */
-		private String	name		= "";
+		private String		name		= "";
 		
 		/** Absolute path to the file with a song. */
-		private String	path		= "";
+		private String		path		= "";
 		
 		/** Number of the track on an album. */
-		private String	trackNumber	= "";
+		private String		trackNumber	= "";
+		
+		/** Parsed {@link #trackNumber} (see {@link #parseTrackNumber(String)}). */
+		private final int	track;
 		
 		/**
 		 * Creates record about a new song.
@@ -273,6 +429,7 @@ public class MusicLibrary {
 			this.name			= name;
 			this.path			= path;
 			this.trackNumber	= trackNumber;
+			this.track			= parseTrackNumber(trackNumber);
 		}
 		
 		/**
@@ -300,9 +457,167 @@ public class MusicLibrary {
 		}
 	}
 	
+	/**
+	 * Flat record about a song including its album and artist. It's used for
+	 * comparison of two versions of the library and for songs found by
+	 * {@link LibraryScanner}.
+	 */
+	protected static class SongRecord {
+		/** Name of the artist. */
+		private final String	artist;
+		
+		/** Name of the album. */
+		private final String	album;
+		
+		/** Year of publication of the album. */
+		private final String	year;
+		
+		/** Name of the song. */
+		private final String	name;
+		
+		/** Number of the track on the album. */
+		private final String	trackNumber;
+		
+		/** Absolute path to the file with the song (it identifies the song). */
+		private final String	path;
+		
+		/**
+		 * @param artist
+		 * 	Artist of the song.
+		 * 
+		 * @param album
+		 * 	Album of the song.
+		 * 
+		 * @param song
+		 * 	The song.
+		 */
+		public SongRecord(Artist artist, Album album, Song song) {
+			this(artist.name, album.name, album.year, song.name, song.path, song.trackNumber);
+		}
+		
+		/**
+		 * @param artist
+		 * 	Name of the artist.
+		 * 
+		 * @param album
+		 * 	Name of the album.
+		 * 
+		 * @param year
+		 * 	Year of publication of the album.
+		 * 
+		 * @param name
+		 * 	Name of the song.
+		 * 
+		 * @param path
+		 * 	Absolute path to the file with the song.
+		 * 
+		 * @param trackNumber
+		 * 	Number of the track on the album.
+		 */
+		SongRecord(String artist, String album, String year, String name, String path, String trackNumber) {
+			this.artist			= artist;
+			this.album			= album;
+			this.year			= year;
+			this.name			= name;
+			this.trackNumber	= trackNumber;
+			this.path			= path;
+		}
+		
+		/**
+		 * @param record
+		 * 	Another record about the same file.
+		 * 
+		 * @return
+		 * 	True if all informations are the same.
+		 */
+		public boolean sameAs(SongRecord record) {
+			return (
+				artist.equals(record.artist) &&
+				album.equals(record.album) &&
+				year.equals(record.year) &&
+				name.equals(record.name) &&
+				trackNumber.equals(record.trackNumber)
+			);
+		}
+		
+		/**
+		 * Writes the record (without the path) into the manifest.
+		 * 
+		 * @param output
+		 * 	Output of the manifest.
+		 * 
+		 * @throws IOException
+		 * 	Output couldn't be written.
+		 */
+		void write(DataOutput output) throws IOException {
+			output.writeUTF(artist);
+			output.writeUTF(album);
+			output.writeUTF(year);
+			output.writeUTF(name);
+			output.writeUTF(trackNumber);
+		}
+		
+		/**
+		 * Reads the record written by {@link #write(DataOutput)}.
+		 * 
+		 * @param input
+		 * 	Input of the manifest.
+		 * 
+		 * @param path
+		 * 	Absolute path to the file with the song.
+		 * 
+		 * @return
+		 * 	The record.
+		 * 
+		 * @throws IOException
+		 * 	Input couldn't be read.
+		 */
+		static SongRecord read(DataInput input, String path) throws IOException {
+			String	artist		= input.readUTF();
+			String	album		= input.readUTF();
+			String	year		= input.readUTF();
+			String	name		= input.readUTF();
+			String	trackNumber	= input.readUTF();
+			
+			return new SongRecord(artist, album, year, name, path, trackNumber);
+		}
+	}
+	
+	/**
+	 * Changes of songs made by one build of the library.
+	 */
+	private static class ChangelogEntry {
+		/** Version before the build. */
+		private final long						fromVersion;
+		
+		/** Version after the build. */
+		private final long						toVersion;
+		
+		/**
+		 * Changed songs after the build, the key is a path. Value is null, if
+		 * the song was removed.
+		 */
+		private final Map<String, SongRecord>	songs	= new HashMap<>();
+		
+		/** Paths of the songs, which didn't exist before the build. */
+		private final Set<String>				added	= new HashSet<>();
+		
+		/**
+		 * @param fromVersion
+		 * 	Version before the build.
+		 * 
+		 * @param toVersion
+		 * 	Version after the build.
+		 */
+		public ChangelogEntry(long fromVersion, long toVersion) {
+			this.fromVersion	= fromVersion;
+			this.toVersion		= toVersion;
+		}
+	}
+	
 	/**
 	 * Tries to find matching record to the given record in
-	 * list of all artists. If it can't be found, it'll be
+	 * index of all artists. If it can't be found, it'll be
 	 * inserted into the list. In other case, existing item
 	 * will be returned.
 	 *  
@@ -316,16 +631,76 @@ public class MusicLibrary {
 	 * 	be found, so it was inserted into the list instead).
 	 */
 	protected Artist getArtist(Artist artist) {
-		for (Artist tmpArtist : artists) {
-			if (tmpArtist.equals(artist)) {
-				return tmpArtist;
-			}
+		Artist existing = artistIndex.get(artist.key);
+		
+		if (existing != null) {
+			return existing;
 		}
 		
 		artists.add(artist);
+		artistIndex.put(artist.key, artist);
 		return artist;
 	}
 	
+	/**
+	 * Sorts songs of all albums by number of the track. It's called once
+	 * after all songs were inserted.
+	 */
+	protected void sortSongs() {
+		for (Artist artist : artists) {
+			for (Album album : artist.albums) {
+				album.sort();
+			}
+		}
+	}
+	
+	/**
+	 * Normalizes a name of an artist or an album for lookups, so names,
+	 * which differ only in surrounding spaces, letter case or composition of
+	 * accented characters, mean the same artist (album). The library keeps
+	 * the name, which was found first.
+	 * 
+	 * @param name
+	 * 	The name.
+	 * 
+	 * @return
+	 * 	Key of the name.
+	 */
+	static String normalize(String name) {
+		return Normalizer.normalize(name.trim(), Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Parses number of the track. Only leading digits are used, so a number
+	 * with count of tracks (e.g.: "3/12") is parsed too.
+	 * 
+	 * @param trackNumber
+	 * 	Number of the track from the ID3 tag.
+	 * 
+	 * @return
+	 * 	Number of the track, or {@link Integer#MAX_VALUE} if there's no number
+	 * 	(such songs are placed at the end of the album).
+	 */
+	static int parseTrackNumber(String trackNumber) {
+		String	trimmed	= trackNumber.trim();
+		int		number	= 0;
+		int		length	= 0;
+		
+		// Nine digits can't overflow
+		while (length < trimmed.length() && length < 9) {
+			char digit = trimmed.charAt(length);
+			
+			if (digit < '0' || digit > '9') {
+				break;
+			}
+			
+			number = number * 10 + (digit - '0');
+			length++;
+		}
+		
+		return (length > 0 ? number : Integer.MAX_VALUE);
+	}
+	
 	/**
 	 * <p>
 	 * 	Goes trough all files in the given directory and list all
@@ -350,214 +725,406 @@ public class MusicLibrary {
 	 * 		Therefore, to insert (or find) some element, you need to find
 	 * 		an element which is by-one-level higher. To find a song, you
 	 * 		need to get an album. To find an album, you need to find an
-	 * 		artist. To find an artist, you need to go trough the list of
-	 * 		all artists.
+	 * 		artist. Artists (and albums of each artist) are indexed by
+	 * 		their normalized names, so each of them is found in a hash map
+	 * 		instead of going through the whole list.
 	 * 	</p>
 	 * </p>
 	 * 
-	 * @param rootDirectory
-	 * 	The directory with music files. You can simply do this by something
-	 * 	like: <pre>new File("/home/user/Music/");</pre>
-	 */
-	public void buildLibrary(File rootDirectory) {
-		// Gets list of all MP3 files in the given directory.
-		File[] subFiles = rootDirectory.listFiles(new FileFilter() {
-			@Override
-			public boolean accept(File file) {
-				return (
-					file.isDirectory() ||
-					file.getAbsolutePath().endsWith(".mp3")
-				);
-			}
-		});
-		
-		// With each file from the directory:
-		//	- Is it a directory? Call this method with that directory.
-		//	- Is it a file?
-		//		- Is it possible to read ID3 tags?
-		//			- Yes:
-		//				- Read informations
-		//				- Find an artist and album
-		//				- Insert song onto the album
-		//			- No:
-		//				- Place the song into the special category:
-		//					- (unknown artist) : (unknown album) : name_of_file_.mp3
-		for (File tmpSubFile : subFiles) {
-			if (tmpSubFile.isDirectory()) {
-				buildLibrary(tmpSubFile);
-			}
-			else {
-				try {
-					MP3File	mp3File	= new MP3File(tmpSubFile);
-					ID3v1	id3v1	= mp3File.getID3v1Tag();
-
-					Artist	artist	= new Artist(id3v1.getArtist());
-					Album	album	= new Album(id3v1.getAlbum(), id3v1.getYear());
-					Song	song	= new Song(id3v1.getSongTitle(), mp3File.getMp3file().getAbsolutePath(), id3v1.getTrackNumberOnAlbum());
-
-					artist			= getArtist(artist);
-					album			= artist.getAlbum(album);
-					
-					album.addSong(song);
-				} catch (IOException |TagException e) {
-					continue;
-				} catch (UnsupportedOperationException | NullPointerException e) {
-					Artist	artist	= new Artist("(unknown artist)");
-					Album	album	= new Album("(unknown album)", "");
-					Song	song	= new Song(tmpSubFile.getName(), tmpSubFile.getAbsolutePath(), "1");
-					
-					artist			= getArtist(artist);
-					album			= artist.getAlbum(album);
-					
-					album.addSong(song);
-				}
-			}
-		}
-		
-		updateVersionNumber();
-	}
-	
-	/**
 	 * <p>
-	 * 	Goes trough all the records in the database (artists -> albums -> songs) and places
-	 * 	them into the XML document. Remember, that you need to firstly load library into the
-	 * 	memory (e.g.: by calling {@link #buildLibrary(File)}).
+	 * 	Previous content of the library is replaced. Differences between the
+	 * 	previous and the new content are recorded into the changelog, so
+	 * 	clients might download only changes (see {@link #getChangesSince(long)}).
+	 * 	If there are no differences, the version is kept, so clients don't
+	 * 	download the same library again.
 	 * </p>
 	 * 
-	 * <p>
-	 * 	Produced XML file has following structure:
-	 * 
-	 * 	<pre>
-	 * 		{@code
-	 * 			<musicLibrary version="9201873486367996336">
-	 * 				<artist name="Fear Factory">
-	 * 					<album name="Demanufacture" year="1995">
-	 * 						<song name="Demanufacture" track="01" path="/home/user/Music/Demanufacture.mp3">
-	 * 						<song name="Replica" track="04" path="/home/user/Music/FearFactory/Replica.mp3">
-	 * 					</album>
-	 * 				</artist>
-	 * 				<artist name="Sybreed">
-	 * 					<album name="Slave design">
-	 * 						<song name="Bioactive" track="01" path="/home/user/Music/Sybreed/SlaveDesign/Bioactive.mp3">
-	 * 					</album>
-	 * 				</artist>
-	 * 			</musicLibrary>
-	 * 		}
-	 * 	</pre>
-	 * </p>
+	 * @param rootDirectory
+	 * 	The directory with music files. You can simply do this by something
+	 * 	like: <pre>new File("/home/user/Music/");</pre>
 	 * 
+	 * @return
+	 * 	True if the content of the library was changed (it has a new version).
 	 * 
-	 * @throws Exception
-	 * 	Due to the work with XML document, some error may occur and exception (by Java API)
-	 * 	will be thrown. However, these kinds of exception can't be handled by this method,
-	 * 	neither by user of this method. Therefore, instead of defining plenty of exceptions
-	 * 	via the <i>throws</i> clause, only general Exception is specified.
+	 * @throws IOException
+	 * 	The directory doesn't exist or it can't be read, the library isn't
+	 * 	changed.
 	 */
-	public void buildXML() throws Exception {
-		xmlDocument			= DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-		Element rootElement	= xmlDocument.createElement("musicLibrary");
-
-		for (Artist artist : artists) {
-			Element elementArtist = xmlDocument.createElement("artist");
-			elementArtist.setAttribute("name", artist.getName());
-			
-			rootElement.appendChild(elementArtist);
-			
-			for (Album album : artist.albums) {
-				Element elementAlbum = xmlDocument.createElement("album");
-				elementAlbum.setAttribute("name", album.getName());
-				elementAlbum.setAttribute("year", album.getYear());
-				
-				elementArtist.appendChild(elementAlbum);
-				
-				for (Song song : album.songs) {
-					Element elementSong = xmlDocument.createElement("song");
-					elementSong.setAttribute("name", song.getName());
-					elementSong.setAttribute("track", song.getTrackNumber());
-					elementSong.setAttribute("filename", song.getPath());
-					
-					elementAlbum.appendChild(elementSong);
-				}
-			}
-		}
-		
-		rootElement.setAttribute("version", String.valueOf(version));
-		xmlDocument.appendChild(rootElement);
+	public boolean buildLibrary(File rootDirectory) throws IOException {
+		return build(rootDirectory, new LibraryManifest(null));
 	}
 	
 	/**
 	 * <p>
-	 * 	Saves the music library (as a XML) into the the local file.
+	 * 	Updates the library from the directory. Only the new files and files,
+	 * 	whose size or time of the last modification was changed since the
+	 * 	last build (or since the build of the loaded library, see
+	 * 	{@link #deserialize(String)}), are read. Tags of the other files are
+	 * 	taken from the manifest of the previous build and deleted files are
+	 * 	dropped, so the result is the same as of
+	 * 	{@link #buildLibrary(File)}, but unchanged files are only listed.
 	 * </p>
 	 * 
 	 * <p>
-	 * 	Remember, that you need to firstly build a library (for example by calling of a
-	 * 	{@link #buildLibrary(File)}) and also build a XML (by calling of a {@link #buildXML()}). 
-	 * 	It won't work without previous call of these methods!
+	 * 	If there's no manifest (e.g.: it was created by an older version of
+	 * 	the application), all files are read.
 	 * </p>
 	 * 
-	 * @param filename
-	 * 	Path to the file (and its name) where the result should be stored.
+	 * @param rootDirectory
+	 * 	The directory with music files (see {@link #getRootDirectory()}).
 	 * 
-	 * @throws Exception
-	 * 	Due to the work with XML document, some error may occur and exception (by Java API)
-	 * 	will be thrown. However, these kinds of exception can't be handled by this method,
-	 * 	neither by user of this method. Therefore, instead of defining plenty of exceptions
-	 * 	via the <i>throws</i> clause, only general Exception is specified.
+	 * @return
+	 * 	True if the content of the library was changed (it has a new version).
+	 * 
+	 * @throws IOException
+	 * 	The directory doesn't exist or it can't be read, the library isn't
+	 * 	changed.
 	 */
-	public void serialize(String filename) throws Exception {
-		TransformerFactory.
-			newInstance().
-				newTransformer().
-					transform(
-						new DOMSource(xmlDocument),
-						new StreamResult(new File(filename))
-					);
+	public boolean updateLibrary(File rootDirectory) throws IOException {
+		return build(rootDirectory, manifest);
 	}
 	
 	/**
-	 * <p>
-	 * 	Transforms the XML document into array of bytes. This format is much more useful
-	 * 	for transmission over the network.
-	 * </p>
+	 * Replaces the content of the library by songs from the directory (see
+	 * {@link #buildLibrary(File)}).
 	 * 
-	 * <p>
-	 * 	Remember, that you need to firstly build a library (for example by calling of a
-	 * 	{@link #buildLibrary(File)}) and also build a XML (by calling of a {@link #buildXML()}). 
-	 * 	It won't work without previous call of these methods!
-	 * </p>
+	 * @param rootDirectory
+	 * 	The directory with music files.
+	 * 
+	 * @param previous
+	 * 	Manifest, from which tags of unchanged files are taken.
 	 * 
 	 * @return
-	 * 	Array of bytes containing whole XML document with music library.
+	 * 	True if the content of the library was changed.
 	 * 
-	 * @throws Exception
-	 * 	Due to the work with XML document, some error may occur and exception (by Java API)
-	 * 	will be thrown. However, these kinds of exception can't be handled by this method,
-	 * 	neither by user of this method. Therefore, instead of defining plenty of exceptions
-	 * 	via the <i>throws</i> clause, only general Exception is specified.
+	 * @throws IOException
+	 * 	The directory doesn't exist or it can't be read, the previous content
+	 * 	is kept.
 	 */
-	public byte[] getTransmittableData() throws Exception {
-		ByteArrayOutputStream	byteArrayOutputStream	= new ByteArrayOutputStream();
-		StreamResult			streamResult			= new StreamResult(byteArrayOutputStream);
+	private boolean build(File rootDirectory, LibraryManifest previous) throws IOException {
+		Map<String, SongRecord>	previousSongs	= getSongRecords();
+		long					previousVersion	= version;
+		List<Artist>			previousArtists	= artists;
+		Map<String, Artist>		previousIndex	= artistIndex;
+		List<Artist>			previousXML		= xmlArtists;
 		
-		TransformerFactory.
-		newInstance().
-			newTransformer().
-				transform(
-					new DOMSource(xmlDocument),
-					streamResult
-				);
+		artists		= new ArrayList<>();
+		artistIndex	= new HashMap<>();
+		xmlArtists	= null;
 		
+		LibraryManifest current;
+		
+		try {
+			current = scanDirectory(rootDirectory, previous);
+		} catch (IOException e) {
+			artists		= previousArtists;
+			artistIndex	= previousIndex;
+			xmlArtists	= previousXML;
+			
+			throw e;
+		}
+		
+		sortSongs();
+		
+		// Everything is prepared before the library is locked, so clients
+		// asking for changes wait only for the swap
+		long			newVersion	= nextVersionNumber();
+		ChangelogEntry	changes		= (previousVersion != 0 ? compareSongs(previousVersion, newVersion, previousSongs, getSongRecords()) : null);
+		
+		// Same songs as before, clients don't need to download anything
+		if (changes != null && changes.songs.isEmpty()) {
+			manifest = current;
+			return false;
+		}
+		
+		LibraryView newView = createView(artists, newVersion);
+		
+		synchronized (this) {
+			version = newVersion;
+			
+			if (changes != null) {
+				appendChanges(changes);
+			}
+			
+			manifest	= current;
+			view		= newView;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Adds all songs from the directory (and its subdirectories) into the
+	 * library (see {@link #buildLibrary(File)}). Tags are read in parallel by
+	 * {@link LibraryScanner}, but songs are inserted by this thread in the
+	 * order of files, so the result doesn't depend on count of threads.
+	 * 
+	 * @param rootDirectory
+	 * 	The directory with music files.
+	 * 
+	 * @param previous
+	 * 	Manifest, from which tags of unchanged files are taken.
+	 * 
+	 * @return
+	 * 	Manifest of all found files.
+	 * 
+	 * @throws IOException
+	 * 	The directory doesn't exist or it can't be read.
+	 */
+	private LibraryManifest scanDirectory(File rootDirectory, LibraryManifest previous) throws IOException {
+		final LibraryManifest current = new LibraryManifest(rootDirectory.getAbsoluteFile());
+		
+		new LibraryScanner(scanThreads).scan(rootDirectory, previous, new LibraryScanner.FileHandler() {
+			@Override
+			public void addFile(LibraryManifest.Entry file) {
+				// Unreadable files are remembered too, so they aren't read
+				// again until they're changed
+				current.add(file);
+				
+				SongRecord record = file.getRecord();
+				
+				if (record == null) {
+					return;
+				}
+				
+				// Find an artist and album, insert song onto the album
+				Artist	artist	= getArtist(new Artist(record.artist));
+				Album	album	= artist.getAlbum(new Album(record.album, record.year));
+				
+				album.addSong(new Song(record.name, record.path, record.trackNumber));
+			}
+		});
+		
+		return current;
+	}
+	
+	/**
+	 * @return
+	 * 	Directory, from which the library was built, or null if it's unknown
+	 * 	(the library wasn't built or it was loaded without the manifest).
+	 */
+	public File getRootDirectory() {
+		return manifest.getRootDirectory();
+	}
+	
+	/**
+	 * @param scanThreads
+	 * 	Count of threads reading tags of music files in
+	 * 	{@link #buildLibrary(File)} (default is count of processors). More
+	 * 	threads than processors might help, if files are on a slow network
+	 * 	share.
+	 */
+	public void setScanThreads(int scanThreads) {
+		this.scanThreads = scanThreads;
+	}
+	
+	/**
+	 * <p>
+	 * 	Prepares the current content of the library for export into XML. The
+	 * 	document isn't built in memory, it's written directly from the library
+	 * 	by {@link #writeXML(OutputStream)}, so memory used by the export
+	 * 	doesn't depend on size of the library. Remember, that you need to
+	 * 	firstly load library into the memory (e.g.: by calling
+	 * 	{@link #buildLibrary(File)}).
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Exported content doesn't change until this method is called again,
+	 * 	because each build replaces the whole content of the library.
+	 * </p>
+	 * 
+	 * @throws Exception
+	 * 	It's kept for compatibility, nothing is thrown now.
+	 */
+	public void buildXML() throws Exception {
+		synchronized (this) {
+			xmlArtists	= artists;
+			xmlVersion	= version;
+		}
+	}
+	
+	/**
+	 * <p>
+	 * 	Writes the content prepared by {@link #buildXML()} as a XML document in
+	 * 	UTF-8. Artists, albums and songs are written one after another, so the
+	 * 	whole document is never in memory.
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Written document has following structure:
+	 * 
+	 * 	<pre>
+	 * 		{@code
+	 * 			<musicLibrary version="9201873486367996336">
+	 * 				<artist name="Fear Factory">
+	 * 					<album name="Demanufacture" year="1995">
+	 * 						<song filename="/home/user/Music/Demanufacture.mp3" name="Demanufacture" track="01"/>
+	 * 						<song filename="/home/user/Music/FearFactory/Replica.mp3" name="Replica" track="04"/>
+	 * 					</album>
+	 * 				</artist>
+	 * 				<artist name="Sybreed">
+	 * 					<album name="Slave design" year="2007">
+	 * 						<song filename="/home/user/Music/Sybreed/SlaveDesign/Bioactive.mp3" name="Bioactive" track="01"/>
+	 * 					</album>
+	 * 				</artist>
+	 * 			</musicLibrary>
+	 * 		}
+	 * 	</pre>
+	 * </p>
+	 * 
+	 * @param output
+	 * 	Output of the document, it isn't closed.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 * 
+	 * @throws IllegalStateException
+	 * 	{@link #buildXML()} wasn't called.
+	 */
+	public void writeXML(OutputStream output) throws IOException {
+		List<Artist>	exportedArtists;
+		long			exportedVersion;
+		
+		synchronized (this) {
+			exportedArtists	= xmlArtists;
+			exportedVersion	= xmlVersion;
+		}
+		
+		if (exportedArtists == null) {
+			throw new IllegalStateException("XML of the library wasn't built.");
+		}
+		
+		XmlWriter writer = new XmlWriter(output);
+		
+		writer.startElement("musicLibrary").attribute("version", String.valueOf(exportedVersion));
+		
+		if (exportedArtists.isEmpty()) {
+			writer.endEmptyElement();
+			writer.flush();
+			return;
+		}
+		
+		writer.endStartTag();
+		
+		for (Artist artist : exportedArtists) {
+			writer.startElement("artist").attribute("name", artist.getName()).endStartTag();
+			
+			for (Album album : artist.albums) {
+				writer.startElement("album").attribute("name", album.getName()).attribute("year", album.getYear()).endStartTag();
+				
+				for (Song song : album.songs) {
+					writer.
+						startElement("song").
+							attribute("filename", song.getPath()).
+							attribute("name", song.getName()).
+							attribute("track", song.getTrackNumber()).
+						endEmptyElement();
+				}
+				
+				writer.endElement("album");
+			}
+			
+			writer.endElement("artist");
+		}
+		
+		writer.endElement("musicLibrary");
+		writer.flush();
+	}
+	
+	/**
+	 * <p>
+	 * 	Saves the music library (as a XML) into the the local file. Existing
+	 * 	file is replaced at once (new content is written into a temporary
+	 * 	file first). Compressed content of the file is prepared immediately
+	 * 	(see {@link #loadCompressedContent(String, String)}). Manifest of music
+	 * 	files for {@link #updateLibrary(File)} is saved next to the library
+	 * 	(with suffix ".manifest").
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Remember, that you need to firstly build a library (for example by calling of a
+	 * 	{@link #buildLibrary(File)}) and also build a XML (by calling of a {@link #buildXML()}). 
+	 * 	It won't work without previous call of these methods!
+	 * </p>
+	 * 
+	 * @param filename
+	 * 	Path to the file (and its name) where the result should be stored.
+	 * 
+	 * @throws Exception
+	 * 	File couldn't be written (see {@link #writeXML(OutputStream)}). Only general
+	 * 	Exception is specified for compatibility.
+	 */
+	public void serialize(String filename) throws Exception {
+		File file		= new File(filename);
+		File temporary	= new File(filename + ".tmp");
+		
+		try (OutputStream output = new FileOutputStream(temporary)) {
+			writeXML(output);
+		}
+		
+		// Clients, which are just downloading the previous version, still
+		// read the old file
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		saveManifest(filename);
+		
+		// Clients will download the new version, so it's compressed now
+		loadCompressedContent(filename, ENCODING_GZIP);
+	}
+	
+	/**
+	 * Saves only the manifest of music files (see {@link #updateLibrary(File)})
+	 * next to the file with the library. It's useful after an update, which
+	 * didn't change the library, but found files with a new time of the last
+	 * modification, so they aren't read again by the next update.
+	 * 
+	 * @param filename
+	 * 	Path to the file with serialized library (see {@link #serialize(String)}).
+	 * 
+	 * @throws IOException
+	 * 	Manifest couldn't be written.
+	 */
+	public void saveManifest(String filename) throws IOException {
+		manifest.save(new File(filename + LibraryManifest.FILE_SUFFIX), version);
+	}
+	
+	/**
+	 * <p>
+	 * 	Writes the XML document into array of bytes. This format is much more useful
+	 * 	for transmission over the network. The whole document is in memory, so
+	 * 	a file written by {@link #serialize(String)} (or
+	 * 	{@link #writeXML(OutputStream)}) should be preferred for big libraries.
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Remember, that you need to firstly build a library (for example by calling of a
+	 * 	{@link #buildLibrary(File)}) and also build a XML (by calling of a {@link #buildXML()}). 
+	 * 	It won't work without previous call of these methods!
+	 * </p>
+	 * 
+	 * @return
+	 * 	Array of bytes containing whole XML document with music library.
+	 * 
+	 * @throws Exception
+	 * 	Document couldn't be written (see {@link #writeXML(OutputStream)}). Only
+	 * 	general Exception is specified for compatibility.
+	 */
+	public byte[] getTransmittableData() throws Exception {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		
+		writeXML(byteArrayOutputStream);
 		return byteArrayOutputStream.toByteArray();
 	}
 	
 	/**
-	 * Generates new (random) version number.
+	 * Generates new version number, which is greater than the current one.
+	 * 
+	 * @return
+	 * 	The new version number.
 	 * 
 	 * @see #version
 	 */
-	private void updateVersionNumber() {
-		version = new Random().nextLong();
+	private long nextVersionNumber() {
+		return Math.max(version + 1, System.currentTimeMillis());
 	}
 	
 	/**
@@ -573,12 +1140,365 @@ public class MusicLibrary {
 	/**
 	 * Resets all internal values to its defaults. 
 	 */
-	public void clear() {
+	public synchronized void clear() {
 		this.artists		= new ArrayList<>();
-		this.xmlDocument	= null;
+		this.artistIndex	= new HashMap<>();
+		this.xmlArtists		= null;
 		this.version		= 0;
+		this.view			= createView(artists, 0);
+		this.manifest		= new LibraryManifest(null);
+		
+		changelog.clear();
 	}
 
+	/**
+	 * <p>
+	 * 	Loads the library from a file, which was created by {@link #serialize(String)}.
+	 * 	Previous content of the library (including the changelog) is replaced,
+	 * 	so the next {@link #buildLibrary(File)} records changes against the
+	 * 	loaded version. Manifest saved with the library is loaded too, if it
+	 * 	belongs to the same version.
+	 * </p>
+	 * 
+	 * @param filename
+	 * 	Path to the file with serialized music library.
+	 * 
+	 * @throws ParserConfigurationException
+	 * 	Internal error. See Javadoc to the exception for more informations.
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be found or isn't readable. Check path and permissions.
+	 * 
+	 * @throws SAXException
+	 * 	XML file is corrupted and couldn't be parsed.
+	 */
+	public void deserialize(String filename) throws ParserConfigurationException, IOException, SAXException {
+		Document		document	= DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(filename));
+		Element			root		= document.getDocumentElement();
+		List<Artist>		newArtists	= new ArrayList<>();
+		Map<String, Artist>	newIndex	= new HashMap<>();
+		
+		for (Element elementArtist : getChildElements(root, "artist")) {
+			Artist artist = new Artist(elementArtist.getAttribute("name"));
+			
+			// Libraries saved by older versions might contain the same
+			// artist twice (with different letter case)
+			if (newIndex.containsKey(artist.key)) {
+				artist = newIndex.get(artist.key);
+			} else {
+				newArtists.add(artist);
+				newIndex.put(artist.key, artist);
+			}
+			
+			for (Element elementAlbum : getChildElements(elementArtist, "album")) {
+				Album album = artist.getAlbum(new Album(elementAlbum.getAttribute("name"), elementAlbum.getAttribute("year")));
+				
+				for (Element elementSong : getChildElements(elementAlbum, "song")) {
+					album.addSong(new Song(
+						elementSong.getAttribute("name"),
+						elementSong.getAttribute("filename"),
+						elementSong.getAttribute("track")
+					));
+				}
+			}
+		}
+		
+		for (Artist artist : newArtists) {
+			for (Album album : artist.albums) {
+				album.sort();
+			}
+		}
+		
+		long			newVersion	= Long.parseLong(root.getAttribute("version"));
+		LibraryManifest	newManifest	= LibraryManifest.load(new File(filename + LibraryManifest.FILE_SUFFIX), newVersion);
+		LibraryView		newView		= createView(newArtists, newVersion);
+		
+		synchronized (this) {
+			artists		= newArtists;
+			artistIndex	= newIndex;
+			xmlArtists	= newArtists;
+			xmlVersion	= newVersion;
+			version		= newVersion;
+			manifest	= newManifest;
+			view		= newView;
+			
+			changelog.clear();
+		}
+	}
+	
+	/**
+	 * <p>
+	 * 	Creates XML document with changes of songs since the given version up
+	 * 	to the current version. It's a one-line document with this structure:
+	 * </p>
+	 * 
+	 * <pre>
+	 * 	{@code
+	 * 		<musicLibraryChanges since="1394012563000" version="1394098421000">
+	 * 			<added artist="Sybreed" album="Slave design" year="2007" name="Bioactive" track="1" filename="/home/user/Music/Sybreed/SlaveDesign/Bioactive.mp3"/>
+	 * 			<modified artist="..." album="..." year="..." name="..." track="..." filename="..."/>
+	 * 			<removed filename="/home/user/Music/Replica.mp3"/>
+	 * 		</musicLibraryChanges>
+	 * 	}
+	 * </pre>
+	 * 
+	 * <p>
+	 * 	Each song (identified by its file) is listed only once, even if it was
+	 * 	changed by more builds.
+	 * </p>
+	 * 
+	 * @param since
+	 * 	Version of the library, which the client has.
+	 * 
+	 * @return
+	 * 	XML document in UTF-8, or null if the changelog doesn't go back to the
+	 * 	given version (it's too old or unknown), so the whole library has to be
+	 * 	downloaded.
+	 * 
+	 * @throws Exception
+	 * 	Due to the work with XML document, some error may occur and exception (by Java API)
+	 * 	will be thrown.
+	 */
+	public byte[] getChangesSince(long since) throws Exception {
+		long							currentVersion;
+		Map<String, SongRecord>			songs		= new LinkedHashMap<>();
+		Set<String>						added		= new HashSet<>();
+		
+		synchronized (this) {
+			currentVersion = version;
+			
+			if (since != currentVersion) {
+				boolean found = false;
+				
+				for (ChangelogEntry entry : changelog) {
+					found = found || (entry.fromVersion == since);
+					
+					if (!found) {
+						continue;
+					}
+					
+					// The first entry, which changed the song, knows if the
+					// song existed in the client's version
+					for (Map.Entry<String, SongRecord> song : entry.songs.entrySet()) {
+						if (!songs.containsKey(song.getKey()) && entry.added.contains(song.getKey())) {
+							added.add(song.getKey());
+						}
+						
+						songs.put(song.getKey(), song.getValue());
+					}
+				}
+				
+				if (!found) {
+					return null;
+				}
+			}
+		}
+		
+		ByteArrayOutputStream	byteArrayOutputStream	= new ByteArrayOutputStream();
+		XmlWriter				writer					= new XmlWriter(byteArrayOutputStream);
+		boolean					empty					= true;
+		
+		writer.
+			startElement("musicLibraryChanges").
+				attribute("since", String.valueOf(since)).
+				attribute("version", String.valueOf(currentVersion));
+		
+		// Attributes are written in alphabetical order as they were written by
+		// the DOM serializer before, so older clients get the same documents
+		for (Map.Entry<String, SongRecord> song : songs.entrySet()) {
+			SongRecord record = song.getValue();
+			
+			// Song added and removed again isn't known to the client
+			if (record == null && added.contains(song.getKey())) {
+				continue;
+			}
+			
+			if (empty) {
+				writer.endStartTag();
+				empty = false;
+			}
+			
+			if (record == null) {
+				writer.startElement("removed");
+			}
+			else {
+				writer.
+					startElement(added.contains(song.getKey()) ? "added" : "modified").
+						attribute("album", record.album).
+						attribute("artist", record.artist);
+			}
+			
+			writer.attribute("filename", song.getKey());
+			
+			if (record != null) {
+				writer.
+					attribute("name", record.name).
+					attribute("track", record.trackNumber).
+					attribute("year", record.year);
+			}
+			
+			writer.endEmptyElement();
+		}
+		
+		if (empty) {
+			writer.endEmptyElement();
+		} else {
+			writer.endElement("musicLibraryChanges");
+		}
+		
+		writer.flush();
+		
+		return byteArrayOutputStream.toByteArray();
+	}
+	
+	/**
+	 * @return
+	 * 	Sorted view of the current version of the library, which might be used
+	 * 	for browsing by pages (see {@link LibraryView}).
+	 */
+	public LibraryView getView() {
+		return view;
+	}
+	
+	/**
+	 * @param content
+	 * 	Artists of the library.
+	 * 
+	 * @param contentVersion
+	 * 	Version of the library.
+	 * 
+	 * @return
+	 * 	New sorted view of the content of the library.
+	 */
+	private static LibraryView createView(List<Artist> content, long contentVersion) {
+		LibraryView.ArtistEntry[] artistEntries = new LibraryView.ArtistEntry[content.size()];
+		
+		for (int i = 0; i < artistEntries.length; i++) {
+			Artist						artist			= content.get(i);
+			LibraryView.AlbumEntry[]	albumEntries	= new LibraryView.AlbumEntry[artist.albums.size()];
+			
+			for (int j = 0; j < albumEntries.length; j++) {
+				Album					album		= artist.albums.get(j);
+				LibraryView.SongEntry[]	songEntries	= new LibraryView.SongEntry[album.songs.size()];
+				
+				for (int k = 0; k < songEntries.length; k++) {
+					Song song = album.songs.get(k);
+					songEntries[k] = new LibraryView.SongEntry(song.name, song.trackNumber, song.path);
+				}
+				
+				albumEntries[j] = new LibraryView.AlbumEntry(album.name, album.year, songEntries);
+			}
+			
+			artistEntries[i] = new LibraryView.ArtistEntry(artist.name, albumEntries);
+		}
+		
+		return new LibraryView(contentVersion, artistEntries);
+	}
+	
+	/**
+	 * @return
+	 * 	Records about all songs in the library, the key is a path.
+	 */
+	private Map<String, SongRecord> getSongRecords() {
+		Map<String, SongRecord> records = new HashMap<>();
+		
+		for (Artist artist : artists) {
+			for (Album album : artist.albums) {
+				for (Song song : album.songs) {
+					records.put(song.path, new SongRecord(artist, album, song));
+				}
+			}
+		}
+		
+		return records;
+	}
+	
+	/**
+	 * Compares songs before and after the build.
+	 * 
+	 * @param fromVersion
+	 * 	Version before the build.
+	 * 
+	 * @param toVersion
+	 * 	Version after the build.
+	 * 
+	 * @param previousSongs
+	 * 	Songs before the build.
+	 * 
+	 * @param currentSongs
+	 * 	Songs after the build.
+	 * 
+	 * @return
+	 * 	Entry of the changelog with the differences.
+	 */
+	private static ChangelogEntry compareSongs(long fromVersion, long toVersion, Map<String, SongRecord> previousSongs, Map<String, SongRecord> currentSongs) {
+		ChangelogEntry entry = new ChangelogEntry(fromVersion, toVersion);
+		
+		for (SongRecord record : currentSongs.values()) {
+			SongRecord previous = previousSongs.get(record.path);
+			
+			if (previous == null) {
+				entry.songs.put(record.path, record);
+				entry.added.add(record.path);
+			}
+			else if (!previous.sameAs(record)) {
+				entry.songs.put(record.path, record);
+			}
+		}
+		
+		for (String path : previousSongs.keySet()) {
+			if (!currentSongs.containsKey(path)) {
+				entry.songs.put(path, null);
+			}
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Appends the entry into the changelog. The oldest entries are dropped,
+	 * if the changelog is too large. It has to be called with the library
+	 * locked.
+	 * 
+	 * @param entry
+	 * 	Differences of the last build.
+	 */
+	private void appendChanges(ChangelogEntry entry) {
+		changelog.addLast(entry);
+		
+		int size = 0;
+		
+		for (ChangelogEntry tmpEntry : changelog) {
+			size += tmpEntry.songs.size();
+		}
+		
+		while (!changelog.isEmpty() && (changelog.size() > MAX_CHANGELOG_ENTRIES || size > MAX_CHANGELOG_SONGS)) {
+			size -= changelog.removeFirst().songs.size();
+		}
+	}
+	
+	/**
+	 * @param parent
+	 * 	Parent element.
+	 * 
+	 * @param name
+	 * 	Name of the child elements.
+	 * 
+	 * @return
+	 * 	All direct child elements with the given name.
+	 */
+	private static List<Element> getChildElements(Element parent, String name) {
+		List<Element> elements = new ArrayList<>();
+		
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals(name)) {
+				elements.add((Element) node);
+			}
+		}
+		
+		return elements;
+	}
+	
 	/**
 	 * Loads number of version from file with serialized music library.
 	 * 
@@ -635,4 +1555,123 @@ public class MusicLibrary {
 		
 		return new String(content);
 	}
+	
+	/**
+	 * <p>
+	 * 	Loads content of file with serialized library compressed in the given
+	 * 	encoding. The file is compressed only once for each version (for all
+	 * 	encodings at once) and compressed data are kept in memory, so next
+	 * 	calls only return the same array.
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Version of the file is recognized by the time of the last modification
+	 * 	and the length, so the file doesn't need to be parsed.
+	 * </p>
+	 * 
+	 * @param filename
+	 * 	Path to the file.
+	 * 
+	 * @param encoding
+	 * 	{@link #ENCODING_GZIP} or {@link #ENCODING_DEFLATE}.
+	 * 
+	 * @return
+	 * 	Compressed content of the file (it mustn't be modified), or null if the
+	 * 	encoding isn't supported.
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be loaded.
+	 */
+	public static byte[] loadCompressedContent(String filename, String encoding) throws IOException {
+		if (!encoding.equals(ENCODING_GZIP) && !encoding.equals(ENCODING_DEFLATE)) {
+			return null;
+		}
+		
+		CompressedContent content = loadCompressedContent(new File(filename));
+		
+		return (encoding.equals(ENCODING_GZIP) ? content.gzip : content.deflate);
+	}
+	
+	/**
+	 * Returns compressed content of the file from the cache. If it's not
+	 * there or it's out-dated, the file is compressed. Clients asking for
+	 * the same file wait until it's compressed, so it's done only once.
+	 * 
+	 * @param file
+	 * 	File with serialized library.
+	 * 
+	 * @return
+	 * 	Compressed content of the current version of the file.
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be loaded.
+	 */
+	private static synchronized CompressedContent loadCompressedContent(File file) throws IOException {
+		String				key		= file.getAbsolutePath();
+		CompressedContent	content	= compressedContents.get(key);
+		
+		if (content != null && content.isCurrent(file)) {
+			return content;
+		}
+		
+		long					lastModified	= file.lastModified();
+		long					length			= file.length();
+		ByteArrayOutputStream	compressed		= new ByteArrayOutputStream();
+		Deflater				deflater		= new Deflater(Deflater.BEST_COMPRESSION, true);
+		CRC32					crc32			= new CRC32();
+		Adler32					adler32			= new Adler32();
+		long					size			= 0;
+		
+		// Data are compressed only once, both encodings differ only in
+		// header and checksum around the same compressed data
+		try (
+			FileInputStream			input	= new FileInputStream(file);
+			DeflaterOutputStream	output	= new DeflaterOutputStream(compressed, deflater, 64 * 1024)
+		) {
+			byte[]	buffer	= new byte[64 * 1024];
+			int		count;
+			
+			while ((count = input.read(buffer)) > 0) {
+				crc32.update(buffer, 0, count);
+				adler32.update(buffer, 0, count);
+				output.write(buffer, 0, count);
+				
+				size += count;
+			}
+		} finally {
+			deflater.end();
+		}
+		
+		byte[] data = compressed.toByteArray();
+		
+		// gzip: header (deflate, no flags, maximal compression, unknown OS),
+		// data, CRC-32 and size (both little-endian)
+		byte[] gzipHeader	= {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 2, (byte) 0xff};
+		byte[] gzip			= new byte[10 + data.length + 8];
+		
+		System.arraycopy(gzipHeader, 0, gzip, 0, gzipHeader.length);
+		System.arraycopy(data, 0, gzip, 10, data.length);
+		
+		for (int i = 0; i < 4; i++) {
+			gzip[10 + data.length + i]		= (byte) (crc32.getValue() >>> (8 * i));
+			gzip[10 + data.length + 4 + i]	= (byte) (size >>> (8 * i));
+		}
+		
+		// zlib: header (deflate, maximal compression), data and Adler-32
+		// (big-endian)
+		byte[] deflate = new byte[2 + data.length + 4];
+		
+		deflate[0] = 0x78;
+		deflate[1] = (byte) 0xda;
+		System.arraycopy(data, 0, deflate, 2, data.length);
+		
+		for (int i = 0; i < 4; i++) {
+			deflate[2 + data.length + i] = (byte) (adler32.getValue() >>> (8 * (3 - i)));
+		}
+		
+		content = new CompressedContent(lastModified, length, gzip, deflate);
+		compressedContents.put(key, content);
+		
+		return content;
+	}
 }
@@ -0,0 +1,456 @@
+package tools;
+
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * 	Prefix index over names (e.g. of all songs), which is used for searching
+ * 	while the user is typing. Names and queries are folded first: letters are
+ * 	converted to lower case, diacritics are removed (so "Dvořák" is found by
+ * 	"dvorak") and all other characters are replaced by one space.
+ * </p>
+ * 
+ * <p>
+ * 	Folded names are stored in one array of bytes (UTF-8, each name is
+ * 	terminated by 0). The index contains positions of beginnings of names and
+ * 	positions of beginnings of other words, both sorted by the text, which
+ * 	follows them. Therefore, all names containing a phrase, which starts at
+ * 	the beginning of a word, make one continuous range, which is found by
+ * 	binary search. Query costs O(log n + limit) regardless of how many names
+ * 	match it.
+ * </p>
+ * 
+ * <p>
+ * 	The index is never changed after it's created, so it might be used by
+ * 	many threads without locking.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class SearchIndex {
+	/** Encoding of folded names in {@link #text}. */
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+	
+	/** Size of header of an array (approximately), it's used for memory usage. */
+	private static final int		ARRAY_HEADER_SIZE	= 16;
+	
+	/**
+	 * Folded characters of Latin alphabets (up to Latin Extended-B), 0 means
+	 * a separator. Names with other characters are normalized first.
+	 */
+	private static final char[]		FOLDED_CHARACTERS	= new char[0x0250];
+	
+	static {
+		for (char character = 0; character < FOLDED_CHARACTERS.length; character++) {
+			char letter = Normalizer.normalize(String.valueOf(character), Normalizer.Form.NFD).charAt(0);
+			
+			if (Character.isLetterOrDigit(letter)) {
+				FOLDED_CHARACTERS[character] = Character.toLowerCase(letter);
+			}
+		}
+	}
+	
+	/** Runs shorter than this are sorted by insertion sort. */
+	private static final int		INSERTION_SORT_SIZE	= 16;
+	
+	/** Folded names in UTF-8, each one is terminated by 0. */
+	private final byte[]			text;
+	
+	/** Position of the first byte of each name in {@link #text}. */
+	private final int[]				starts;
+	
+	/** Positions of beginnings of names, sorted by the text. */
+	private final int[]				nameEntries;
+	
+	/** Positions of beginnings of other words in names, sorted by the text. */
+	private final int[]				wordEntries;
+	
+	/**
+	 * Creates the index. Results of {@link #search(byte[], int[])} are indexes
+	 * to the given array.
+	 * 
+	 * @param names
+	 * 	Names to be indexed.
+	 */
+	public SearchIndex(String[] names) {
+		byte[][]	folded		= new byte[names.length][];
+		int			length		= 0;
+		int			nameCount	= 0;
+		int			wordCount	= 0;
+		
+		for (int i = 0; i < names.length; i++) {
+			folded[i]	= fold(names[i]).getBytes(UTF8);
+			length		+= folded[i].length + 1;
+			
+			if (folded[i].length > 0) {
+				nameCount++;
+			}
+			
+			for (byte character : folded[i]) {
+				if (character == ' ') {
+					wordCount++;
+				}
+			}
+		}
+		
+		text		= new byte[length];
+		starts		= new int[names.length];
+		nameEntries	= new int[nameCount];
+		wordEntries	= new int[wordCount];
+		
+		int position	= 0;
+		nameCount		= 0;
+		wordCount		= 0;
+		
+		for (int i = 0; i < folded.length; i++) {
+			starts[i] = position;
+			
+			if (folded[i].length > 0) {
+				nameEntries[nameCount++] = position;
+			}
+			
+			for (byte character : folded[i]) {
+				text[position++] = character;
+				
+				if (character == ' ') {
+					wordEntries[wordCount++] = position;
+				}
+			}
+			
+			// Terminator is already there (array is filled by zeros)
+			position++;
+		}
+		
+		sortEntries(nameEntries);
+		sortEntries(wordEntries);
+	}
+	
+	/**
+	 * Folds the text: letters are converted to lower case, diacritics are
+	 * removed and each sequence of other characters is replaced by one space
+	 * (except at the beginning and at the end).
+	 * 
+	 * @param text
+	 * 	Text to be folded.
+	 * 
+	 * @return
+	 * 	Folded text.
+	 */
+	public static String fold(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			// Letters with diacritics are split into the letter and marks
+			if (text.charAt(i) >= FOLDED_CHARACTERS.length) {
+				text = Normalizer.normalize(text, Normalizer.Form.NFD);
+				break;
+			}
+		}
+		
+		StringBuilder	builder		= new StringBuilder(text.length());
+		boolean			separator	= false;
+		
+		for (int i = 0; i < text.length(); i++) {
+			char character = text.charAt(i);
+			char folded;
+			
+			if (character < FOLDED_CHARACTERS.length) {
+				folded = FOLDED_CHARACTERS[character];
+			}
+			else if (Character.getType(character) == Character.NON_SPACING_MARK) {
+				continue;
+			}
+			else {
+				folded = (Character.isLetterOrDigit(character) ? Character.toLowerCase(character) : 0);
+			}
+			
+			if (folded == 0) {
+				separator = true;
+				continue;
+			}
+			
+			if (separator && builder.length() > 0) {
+				builder.append(' ');
+			}
+			
+			builder.append(folded);
+			separator = false;
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Converts a query into the form used by {@link #search(byte[], int[])}.
+	 * It might be used for more indexes.
+	 * 
+	 * @param query
+	 * 	Text typed by the user.
+	 * 
+	 * @return
+	 * 	Folded query in UTF-8.
+	 */
+	public static byte[] prepareQuery(String query) {
+		return fold(query).getBytes(UTF8);
+	}
+	
+	/**
+	 * Finds names, which contain the query at the beginning of a word. Names,
+	 * which begin with the query, are returned first. Each group is sorted
+	 * alphabetically by the matching text.
+	 * 
+	 * @param query
+	 * 	Query prepared by {@link #prepareQuery(String)}.
+	 * 
+	 * @param results
+	 * 	Array for indexes of found names, its length is the maximal count of
+	 * 	results.
+	 * 
+	 * @return
+	 * 	Count of found names (valid items of the array). Empty query doesn't
+	 * 	find anything.
+	 */
+	public int search(byte[] query, int[] results) {
+		if (query.length == 0) {
+			return 0;
+		}
+		
+		Set<Integer>	found	= new HashSet<>();
+		int				count	= collect(nameEntries, query, results, 0, found);
+		
+		return collect(wordEntries, query, results, count, found);
+	}
+	
+	/**
+	 * @return
+	 * 	Approximate count of bytes occupied by the index.
+	 */
+	public long getMemoryUsage() {
+		return
+			ARRAY_HEADER_SIZE * 4 +
+			text.length +
+			4L * (starts.length + nameEntries.length + wordEntries.length);
+	}
+	
+	/**
+	 * Adds names from the range of entries, which match the query.
+	 * 
+	 * @param entries
+	 * 	Sorted entries.
+	 * 
+	 * @param query
+	 * 	Folded query.
+	 * 
+	 * @param results
+	 * 	Array for indexes of found names.
+	 * 
+	 * @param count
+	 * 	Count of names, which are already in the array.
+	 * 
+	 * @param found
+	 * 	Names, which are already in the array.
+	 * 
+	 * @return
+	 * 	New count of names in the array.
+	 */
+	private int collect(int[] entries, byte[] query, int[] results, int count, Set<Integer> found) {
+		int from	= lowerBound(entries, query, false);
+		int to		= lowerBound(entries, query, true);
+		
+		for (int i = from; i < to && count < results.length; i++) {
+			int name = getName(entries[i]);
+			
+			if (found.add(name)) {
+				results[count++] = name;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @param entries
+	 * 	Sorted entries.
+	 * 
+	 * @param query
+	 * 	Folded query.
+	 * 
+	 * @param after
+	 * 	False to find the first entry, which begins with the query (or is
+	 * 	greater), true to find the first entry, which is greater.
+	 * 
+	 * @return
+	 * 	Index of the entry (or length of the array).
+	 */
+	private int lowerBound(int[] entries, byte[] query, boolean after) {
+		int low		= 0;
+		int high	= entries.length;
+		
+		while (low < high) {
+			int middle	= (low + high) >>> 1;
+			int result	= comparePrefix(entries[middle], query);
+			
+			if (result < 0 || (after && result == 0)) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Compares the text at the position with the query. Only as many bytes
+	 * as the query has are compared.
+	 * 
+	 * @return
+	 * 	Negative number, zero or positive number if the text is lower, begins
+	 * 	with the query or is greater.
+	 */
+	private int comparePrefix(int position, byte[] query) {
+		for (int i = 0; i < query.length; i++) {
+			int first	= text[position + i] & 0xFF;
+			int second	= query[i] & 0xFF;
+			
+			// Terminator (0) is lower than any character of the query
+			if (first != second) {
+				return first - second;
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Compares texts at both positions up to their terminators.
+	 * 
+	 * @param offset
+	 * 	Count of bytes, which are already known to be the same.
+	 */
+	private int compareSuffixes(int first, int second, int offset) {
+		for (int i = offset; ; i++) {
+			int firstByte	= text[first + i] & 0xFF;
+			int secondByte	= text[second + i] & 0xFF;
+			
+			if (firstByte != secondByte) {
+				return firstByte - secondByte;
+			}
+			
+			if (firstByte == 0) {
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * @param position
+	 * 	Position in {@link #text}.
+	 * 
+	 * @return
+	 * 	Index of the name, which contains the position.
+	 */
+	private int getName(int position) {
+		int index = Arrays.binarySearch(starts, position);
+		
+		// Position inside of a name is between two starts
+		return (index >= 0 ? index : -index - 2);
+	}
+	
+	/**
+	 * Sorts entries by the text, which follows them. Entries are sorted by
+	 * the first four bytes (as numbers) and then only entries with the same
+	 * four bytes are compared byte by byte.
+	 * 
+	 * @param entries
+	 * 	Positions in {@link #text}.
+	 */
+	private void sortEntries(int[] entries) {
+		long[] keys = new long[entries.length];
+		
+		for (int i = 0; i < entries.length; i++) {
+			// Sign bit is flipped, so the keys are compared as unsigned
+			keys[i] = (((long) getPrefix(entries[i]) << 32) | entries[i]) ^ Long.MIN_VALUE;
+		}
+		
+		Arrays.sort(keys);
+		
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = (int) keys[i];
+		}
+		
+		int[] buffer = new int[entries.length];
+		
+		for (int start = 0; start < entries.length; ) {
+			long	prefix	= keys[start] >>> 32;
+			int		end		= start + 1;
+			
+			while (end < entries.length && (keys[end] >>> 32) == prefix) {
+				end++;
+			}
+			
+			// Texts are equal if the terminator is among the four bytes
+			if (end - start > 1 && (prefix & 0xFF) != 0) {
+				mergeSort(entries, buffer, start, end);
+			}
+			
+			start = end;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	The first four bytes of the text at the position (bytes after the
+	 * 	terminator are zeros).
+	 */
+	private int getPrefix(int position) {
+		int prefix = 0;
+		
+		for (int i = 0, value = 1; i < 4; i++) {
+			value	= (value == 0 ? 0 : text[position + i] & 0xFF);
+			prefix	= (prefix << 8) | value;
+		}
+		
+		return prefix;
+	}
+	
+	/**
+	 * Sorts the range of entries, which have the same first four bytes.
+	 */
+	private void mergeSort(int[] entries, int[] buffer, int from, int to) {
+		if (to - from <= INSERTION_SORT_SIZE) {
+			for (int i = from + 1; i < to; i++) {
+				int entry	= entries[i];
+				int j		= i - 1;
+				
+				while (j >= from && compareSuffixes(entries[j], entry, 4) > 0) {
+					entries[j + 1] = entries[j];
+					j--;
+				}
+				
+				entries[j + 1] = entry;
+			}
+			
+			return;
+		}
+		
+		int middle = (from + to) >>> 1;
+		
+		mergeSort(entries, buffer, from, middle);
+		mergeSort(entries, buffer, middle, to);
+		
+		System.arraycopy(entries, from, buffer, from, to - from);
+		
+		for (int i = from, left = from, right = middle; i < to; i++) {
+			if (right >= to || (left < middle && compareSuffixes(buffer[left], buffer[right], 4) <= 0)) {
+				entries[i] = buffer[left++];
+			}
+			else {
+				entries[i] = buffer[right++];
+			}
+		}
+	}
+}
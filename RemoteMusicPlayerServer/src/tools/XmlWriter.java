@@ -0,0 +1,160 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * 	Writes a XML document in UTF-8 directly into a stream, so a document of
+ * 	any size is written without building it in memory. It knows only what
+ * 	documents of the library need: elements with attributes, no text.
+ * </p>
+ * 
+ * <p>
+ * 	Values of attributes are escaped (including line breaks, so they're read
+ * 	back unchanged). Control characters, which aren't allowed in XML, are
+ * 	left out.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class XmlWriter {
+	/** Output of the document. */
+	private final Writer	writer;
+	
+	/**
+	 * Starts the document by the XML declaration.
+	 * 
+	 * @param output
+	 * 	Output of the document, it isn't closed by this writer.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public XmlWriter(OutputStream output) throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+	}
+	
+	/**
+	 * Opens a start tag, attributes might be appended then.
+	 * 
+	 * @param name
+	 * 	Name of the element.
+	 * 
+	 * @return
+	 * 	This writer.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public XmlWriter startElement(String name) throws IOException {
+		writer.write('<');
+		writer.write(name);
+		return this;
+	}
+	
+	/**
+	 * Appends attribute with escaped value to the opened tag.
+	 * 
+	 * @param name
+	 * 	Name of the attribute.
+	 * 
+	 * @param value
+	 * 	Value of the attribute.
+	 * 
+	 * @return
+	 * 	This writer.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public XmlWriter attribute(String name, String value) throws IOException {
+		writer.write(' ');
+		writer.write(name);
+		writer.write("=\"");
+		
+		// Most values don't need escaping, they're written at once
+		int start = 0;
+		
+		for (int i = 0; i < value.length(); i++) {
+			char	character	= value.charAt(i);
+			String	escaped;
+			
+			switch (character) {
+				case '&':	escaped = "&amp;";	break;
+				case '<':	escaped = "&lt;";	break;
+				case '>':	escaped = "&gt;";	break;
+				case '"':	escaped = "&quot;";	break;
+				case '\t':	escaped = "&#9;";	break;
+				case '\n':	escaped = "&#10;";	break;
+				case '\r':	escaped = "&#13;";	break;
+				
+				default:
+					// Other control characters aren't allowed in XML
+					if (character >= ' ') {
+						continue;
+					}
+					
+					escaped = "";
+			}
+			
+			writer.write(value, start, i - start);
+			writer.write(escaped);
+			start = i + 1;
+		}
+		
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+		return this;
+	}
+	
+	/**
+	 * Closes the opened start tag, children might be written then.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public void endStartTag() throws IOException {
+		writer.write('>');
+	}
+	
+	/**
+	 * Closes the opened start tag as an element without children.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public void endEmptyElement() throws IOException {
+		writer.write("/>");
+	}
+	
+	/**
+	 * Writes an end tag.
+	 * 
+	 * @param name
+	 * 	Name of the element.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public void endElement(String name) throws IOException {
+		writer.write("</");
+		writer.write(name);
+		writer.write('>');
+	}
+	
+	/**
+	 * Writes all buffered characters into the output.
+	 * 
+	 * @throws IOException
+	 * 	Output couldn't be written.
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+}
@@ -0,0 +1,96 @@
+package tools.benchmark;
+
+/**
+ * One benchmark, which is run by {@link BenchmarkRunner}. Method
+ * {@link #setUp()} is called once in each forked JVM, then method
+ * {@link #run(Blackhole)} is called repeatedly and its average time is
+ * measured.
+ * 
+ * @author Tomáš Zíma
+ */
+public abstract class BenchmarkCase {
+	/** Unique name of the benchmark (e.g. "protocol.parse.GET_STATE"). */
+	private final String	name;
+	
+	/**
+	 * True if each iteration calls {@link #run(Blackhole)} only once (for
+	 * operations, which take a long time).
+	 */
+	private final boolean	singleShot;
+	
+	/**
+	 * Count of operations done by one call of {@link #run(Blackhole)} (e.g.
+	 * count of scanned files), results are reported per one operation.
+	 */
+	private final int		operationsPerInvocation;
+	
+	/**
+	 * @param name
+	 * 	Unique name of the benchmark.
+	 * 
+	 * @param singleShot
+	 * 	True if each iteration calls {@link #run(Blackhole)} only once.
+	 */
+	protected BenchmarkCase(String name, boolean singleShot) {
+		this(name, singleShot, 1);
+	}
+	
+	/**
+	 * @param name
+	 * 	Unique name of the benchmark.
+	 * 
+	 * @param singleShot
+	 * 	True if each iteration calls {@link #run(Blackhole)} only once.
+	 * 
+	 * @param operationsPerInvocation
+	 * 	Count of operations done by one call of {@link #run(Blackhole)}.
+	 */
+	protected BenchmarkCase(String name, boolean singleShot, int operationsPerInvocation) {
+		this.name						= name;
+		this.singleShot					= singleShot;
+		this.operationsPerInvocation	= operationsPerInvocation;
+	}
+	
+	/**
+	 * Prepares data for the benchmark, it isn't measured.
+	 * 
+	 * @throws Exception
+	 */
+	public void setUp() throws Exception {
+		//
+	}
+	
+	/**
+	 * Executes one operation, which is measured.
+	 * 
+	 * @param blackhole
+	 * 	Consumer of the results.
+	 * 
+	 * @throws Exception
+	 */
+	public abstract void run(Blackhole blackhole) throws Exception;
+	
+	/**
+	 * @return
+	 * 	Unique name of the benchmark.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return
+	 * 	True if each iteration calls {@link #run(Blackhole)} only once.
+	 */
+	public boolean isSingleShot() {
+		return singleShot;
+	}
+	
+	/**
+	 * @return
+	 * 	Count of operations done by one call of {@link #run(Blackhole)}.
+	 */
+	public int getOperationsPerInvocation() {
+		return operationsPerInvocation;
+	}
+}
@@ -0,0 +1,657 @@
+package tools.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * 	Runs benchmarks of hot paths of the server (see {@link ProtocolBenchmarks}
+ * 	and {@link LibraryBenchmarks}) and reports average time of one operation
+ * 	with its 99.9% confidence interval.
+ * </p>
+ * 
+ * <p>
+ * 	Each benchmark runs in its own JVM (fork), so the JIT compiler doesn't
+ * 	mix profiles of different benchmarks. Each fork runs warm-up iterations,
+ * 	which are thrown away, and then measured iterations. Iteration of a normal
+ * 	benchmark calls it repeatedly for the given time, iteration of a
+ * 	single-shot benchmark (e.g. building of the whole library) calls it once.
+ * 	Times are reported per one operation (e.g. one scanned file) together
+ * 	with count of operations per second.
+ * </p>
+ * 
+ * <p>
+ * 	Results might be saved into a CSV file and compared with a previously
+ * 	saved baseline:
+ * </p>
+ * 
+ * <pre>
+ * 	java tools.benchmark.BenchmarkRunner --filter protocol --output before.csv
+ * 	java tools.benchmark.BenchmarkRunner --filter protocol --baseline before.csv
+ * </pre>
+ * 
+ * <p>
+ * 	Options:
+ * </p>
+ * 
+ * <ul>
+ * 	<li>{@code --list} - prints names of the benchmarks.</li>
+ * 	<li>{@code --filter REGEX} - runs only benchmarks, whose name contains a match (default all).</li>
+ * 	<li>{@code --forks N} - count of forked JVMs per benchmark (default 2, 0 = this JVM).</li>
+ * 	<li>{@code --warmup N} - count of warm-up iterations per fork (default 5).</li>
+ * 	<li>{@code --iterations N} - count of measured iterations per fork (default 10).</li>
+ * 	<li>{@code --time MS} - duration of one iteration of a normal benchmark (default 1000).</li>
+ * 	<li>{@code --jvm-args "ARGS"} - options of the forked JVMs (e.g. "-Xmx4g").</li>
+ * 	<li>{@code --output FILE} - saves results into the CSV file.</li>
+ * 	<li>{@code --baseline FILE} - compares results with the CSV file.</li>
+ * </ul>
+ * 
+ * @author Tomáš Zíma
+ */
+public class BenchmarkRunner {
+	/** Prefix of lines, by which a fork reports results of measured iterations. */
+	private static final String		RESULT_PREFIX	= "BENCHMARK_RESULT ";
+	
+	/** Header of the CSV file with results. */
+	private static final String		CSV_HEADER		= "benchmark,mode,samples,mean_ns,error_ns,min_ns,max_ns";
+	
+	/** Properties of the environment, which are printed and saved with results. */
+	private static final String[]	ENVIRONMENT		= { "java.version", "java.vm.name", "java.vm.version", "os.name", "os.version", "os.arch" };
+	
+	/**
+	 * Quantiles of Student's t-distribution for the two-sided 99.9% interval,
+	 * index is the count of degrees of freedom (1-30).
+	 */
+	private static final double[]	T_QUANTILES		= {
+		Double.NaN,
+		636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+		3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+	};
+	
+	/** Count of forks per benchmark. */
+	private int		forks		= 2;
+	
+	/** Count of warm-up iterations per fork. */
+	private int		warmup		= 5;
+	
+	/** Count of measured iterations per fork. */
+	private int		iterations	= 10;
+	
+	/** Duration of one iteration of a normal benchmark (in nanoseconds). */
+	private long	time		= 1000000000L;
+	
+	/** Options of the forked JVMs. */
+	private String	jvmArgs		= "";
+	
+	/**
+	 * Result of one benchmark.
+	 */
+	private static class Result {
+		/** Name of the benchmark. */
+		private final String	name;
+		
+		/** True if the benchmark is single-shot. */
+		private final boolean	singleShot;
+		
+		/** Count of measured iterations. */
+		private final int		samples;
+		
+		/** Average time of one operation (in nanoseconds). */
+		private final double	mean;
+		
+		/** Half of the 99.9% confidence interval (in nanoseconds). */
+		private final double	error;
+		
+		/** Fastest iteration (in nanoseconds per operation). */
+		private final double	min;
+		
+		/** Slowest iteration (in nanoseconds per operation). */
+		private final double	max;
+		
+		/**
+		 * @param name
+		 * 	Name of the benchmark.
+		 * 
+		 * @param singleShot
+		 * 	True if the benchmark is single-shot.
+		 * 
+		 * @param samples
+		 * 	Count of measured iterations.
+		 * 
+		 * @param mean
+		 * 	Average time of one operation.
+		 * 
+		 * @param error
+		 * 	Half of the confidence interval.
+		 * 
+		 * @param min
+		 * 	Fastest iteration.
+		 * 
+		 * @param max
+		 * 	Slowest iteration.
+		 */
+		public Result(String name, boolean singleShot, int samples, double mean, double error, double min, double max) {
+			this.name		= name;
+			this.singleShot	= singleShot;
+			this.samples	= samples;
+			this.mean		= mean;
+			this.error		= error;
+			this.min		= min;
+			this.max		= max;
+		}
+		
+		/**
+		 * @param name
+		 * 	Name of the benchmark.
+		 * 
+		 * @param singleShot
+		 * 	True if the benchmark is single-shot.
+		 * 
+		 * @param values
+		 * 	Times of the measured iterations (nanoseconds per operation).
+		 * 
+		 * @return
+		 * 	Statistics of the values.
+		 */
+		public static Result of(String name, boolean singleShot, List<Double> values) {
+			double sum	= 0;
+			double min	= Double.MAX_VALUE;
+			double max	= 0;
+			
+			for (double value : values) {
+				sum	+= value;
+				min	= Math.min(min, value);
+				max	= Math.max(max, value);
+			}
+			
+			int		count		= values.size();
+			double	mean		= sum / count;
+			double	squares		= 0;
+			
+			for (double value : values) {
+				squares += (value - mean) * (value - mean);
+			}
+			
+			double error = Double.NaN;
+			
+			if (count > 1) {
+				error = tQuantile(count - 1) * Math.sqrt(squares / (count - 1)) / Math.sqrt(count);
+			}
+			
+			return new Result(name, singleShot, count, mean, error, min, max);
+		}
+		
+		/**
+		 * @param line
+		 * 	Line of the CSV file.
+		 * 
+		 * @return
+		 * 	Parsed result.
+		 */
+		public static Result parse(String line) {
+			String[] fields = line.split(",");
+			
+			return new Result(
+				fields[0],
+				fields[1].equals("ss"),
+				Integer.parseInt(fields[2]),
+				Double.parseDouble(fields[3]),
+				Double.parseDouble(fields[4]),
+				Double.parseDouble(fields[5]),
+				Double.parseDouble(fields[6])
+			);
+		}
+		
+		/**
+		 * @return
+		 * 	Line of the CSV file.
+		 */
+		public String toCsv() {
+			return String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f", name, (singleShot ? "ss" : "avgt"), samples, mean, error, min, max);
+		}
+	}
+	
+	/**
+	 * @param args
+	 * 	Options (see {@link BenchmarkRunner}).
+	 * 
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner	runner		= new BenchmarkRunner();
+		Pattern			filter		= Pattern.compile("");
+		String			fork		= null;
+		String			output		= null;
+		String			baseline	= null;
+		boolean			list		= false;
+		
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--list":
+					list = true;
+					break;
+				case "--filter":
+					filter = Pattern.compile(args[++i]);
+					break;
+				case "--forks":
+					runner.forks = Integer.parseInt(args[++i]);
+					break;
+				case "--warmup":
+					runner.warmup = Integer.parseInt(args[++i]);
+					break;
+				case "--iterations":
+					runner.iterations = Integer.parseInt(args[++i]);
+					break;
+				case "--time":
+					runner.time = Long.parseLong(args[++i]) * 1000000L;
+					break;
+				case "--jvm-args":
+					runner.jvmArgs = args[++i];
+					break;
+				case "--output":
+					output = args[++i];
+					break;
+				case "--baseline":
+					baseline = args[++i];
+					break;
+				case "--fork":
+					fork = args[++i];
+					break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		List<BenchmarkCase> cases = new ArrayList<>();
+		
+		for (BenchmarkCase benchmark : createCases()) {
+			if (filter.matcher(benchmark.getName()).find()) {
+				cases.add(benchmark);
+			}
+		}
+		
+		if (fork != null) {
+			runner.runFork(fork, cases);
+			return;
+		}
+		
+		if (list) {
+			for (BenchmarkCase benchmark : cases) {
+				System.out.println(benchmark.getName() + (benchmark.isSingleShot() ? " (single-shot)" : ""));
+			}
+			
+			return;
+		}
+		
+		runner.printEnvironment();
+		
+		List<Result> results = new ArrayList<>();
+		
+		for (BenchmarkCase benchmark : cases) {
+			Result result = runner.run(benchmark);
+			
+			System.out.println(format(result));
+			results.add(result);
+		}
+		
+		if (output != null) {
+			runner.save(output, results);
+		}
+		
+		if (baseline != null) {
+			compare(load(baseline), results);
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	All the benchmarks.
+	 */
+	private static List<BenchmarkCase> createCases() {
+		List<BenchmarkCase> cases = new ArrayList<>();
+		
+		cases.addAll(ProtocolBenchmarks.createCases());
+		cases.addAll(LibraryBenchmarks.createCases());
+		
+		return cases;
+	}
+	
+	/**
+	 * Runs all forks of the benchmark.
+	 * 
+	 * @param benchmark
+	 * 	The benchmark.
+	 * 
+	 * @return
+	 * 	Result of all measured iterations of all forks.
+	 * 
+	 * @throws Exception
+	 */
+	private Result run(BenchmarkCase benchmark) throws Exception {
+		List<Double> values = new ArrayList<>();
+		
+		if (forks == 0) {
+			benchmark.setUp();
+			
+			for (int i = 0; i < warmup + iterations; i++) {
+				double value = measure(benchmark);
+				
+				if (i >= warmup) {
+					values.add(value);
+				}
+			}
+		}
+		
+		for (int i = 0; i < forks; i++) {
+			values.addAll(runForkedJvm(benchmark));
+		}
+		
+		return Result.of(benchmark.getName(), benchmark.isSingleShot(), values);
+	}
+	
+	/**
+	 * Starts a new JVM, which runs the benchmark.
+	 * 
+	 * @param benchmark
+	 * 	The benchmark.
+	 * 
+	 * @return
+	 * 	Times of the measured iterations (nanoseconds per operation).
+	 * 
+	 * @throws Exception
+	 * 	The JVM couldn't be started or it failed.
+	 */
+	private List<Double> runForkedJvm(BenchmarkCase benchmark) throws Exception {
+		List<String> command = new ArrayList<>();
+		
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		
+		if (!jvmArgs.trim().isEmpty()) {
+			command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+		}
+		
+		command.addAll(Arrays.asList(
+			"-cp",				System.getProperty("java.class.path"),
+			BenchmarkRunner.class.getName(),
+			"--filter",			"^" + Pattern.quote(benchmark.getName()) + "$",
+			"--fork",			benchmark.getName(),
+			"--warmup",			String.valueOf(warmup),
+			"--iterations",		String.valueOf(iterations),
+			"--time",			String.valueOf(time / 1000000L)
+		));
+		
+		Process			process	= new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		List<Double>	values	= new ArrayList<>();
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					values.add(Double.parseDouble(line.substring(RESULT_PREFIX.length())));
+				}
+			}
+		}
+		
+		if (process.waitFor() != 0 || values.size() != iterations) {
+			throw new IOException("Fork of " + benchmark.getName() + " failed (exit code " + process.exitValue() + ")");
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Runs the benchmark in this JVM (it's a fork) and prints results of the
+	 * measured iterations.
+	 * 
+	 * @param name
+	 * 	Name of the benchmark.
+	 * 
+	 * @param cases
+	 * 	Benchmarks matching the filter.
+	 * 
+	 * @throws Exception
+	 */
+	private void runFork(String name, List<BenchmarkCase> cases) throws Exception {
+		for (BenchmarkCase benchmark : cases) {
+			if (benchmark.getName().equals(name)) {
+				benchmark.setUp();
+				
+				for (int i = 0; i < warmup + iterations; i++) {
+					double value = measure(benchmark);
+					
+					if (i >= warmup) {
+						System.out.println(RESULT_PREFIX + value);
+					}
+				}
+				
+				return;
+			}
+		}
+		
+		throw new IllegalArgumentException("Unknown benchmark: " + name);
+	}
+	
+	/**
+	 * Runs one iteration of the benchmark.
+	 * 
+	 * @param benchmark
+	 * 	The benchmark.
+	 * 
+	 * @return
+	 * 	Average time of one operation (in nanoseconds).
+	 * 
+	 * @throws Exception
+	 */
+	private double measure(BenchmarkCase benchmark) throws Exception {
+		Blackhole blackhole = new Blackhole();
+		
+		// Garbage of the previous iteration shouldn't be collected during
+		// a long single operation
+		if (benchmark.isSingleShot()) {
+			System.gc();
+			
+			long start = System.nanoTime();
+			benchmark.run(blackhole);
+			return (double) (System.nanoTime() - start) / benchmark.getOperationsPerInvocation();
+		}
+		
+		// Operations are called in batches, so reading of the clock doesn't
+		// cost more than the operation. Batch grows until it takes 10 us.
+		long	operations	= 0;
+		long	batch		= 1;
+		long	start		= System.nanoTime();
+		long	deadline	= start + time;
+		long	now			= start;
+		
+		while (now < deadline) {
+			long batchStart = now;
+			
+			for (long i = 0; i < batch; i++) {
+				benchmark.run(blackhole);
+			}
+			
+			operations	+= batch;
+			now			= System.nanoTime();
+			
+			if (now - batchStart < 10000) {
+				batch *= 2;
+			}
+		}
+		
+		return (double) (now - start) / operations / benchmark.getOperationsPerInvocation();
+	}
+	
+	/**
+	 * @param degreesOfFreedom
+	 * 	Count of samples minus one.
+	 * 
+	 * @return
+	 * 	Quantile of Student's t-distribution for the 99.9% interval (values
+	 * 	for more than 30 degrees are approximated by smaller ones).
+	 */
+	private static double tQuantile(int degreesOfFreedom) {
+		if (degreesOfFreedom < T_QUANTILES.length) {
+			return T_QUANTILES[degreesOfFreedom];
+		}
+		
+		return (degreesOfFreedom < 60 ? 3.551 : (degreesOfFreedom < 120 ? 3.460 : 3.373));
+	}
+	
+	/**
+	 * Prints the environment, in which benchmarks are running.
+	 */
+	private void printEnvironment() {
+		for (String line : describeEnvironment()) {
+			System.out.println(line);
+		}
+		
+		System.out.println();
+		System.out.println(String.format(Locale.ROOT, "%-36s %-5s %7s %24s %8s %14s", "Benchmark", "Mode", "Samples", "Mean +- 99.9% CI", "Unit", "Ops/s"));
+	}
+	
+	/**
+	 * @return
+	 * 	Lines describing the environment and options.
+	 */
+	private List<String> describeEnvironment() {
+		List<String> lines = new ArrayList<>();
+		
+		for (String property : ENVIRONMENT) {
+			lines.add("# " + property + "=" + System.getProperty(property));
+		}
+		
+		lines.add("# processors=" + Runtime.getRuntime().availableProcessors());
+		lines.add("# forks=" + forks + " warmup=" + warmup + " iterations=" + iterations + " time=" + (time / 1000000L) + "ms jvm-args=" + jvmArgs);
+		
+		return lines;
+	}
+	
+	/**
+	 * @param result
+	 * 	Result of one benchmark.
+	 * 
+	 * @return
+	 * 	Line of the table printed to the console.
+	 */
+	private static String format(Result result) {
+		String	unit	= "ns/op";
+		double	scale	= 1;
+		
+		if (result.mean >= 1e7) {
+			unit	= "ms/op";
+			scale	= 1e6;
+		}
+		else if (result.mean >= 1e4) {
+			unit	= "us/op";
+			scale	= 1e3;
+		}
+		
+		return String.format(
+			Locale.ROOT,
+			"%-36s %-5s %7d %12.3f +- %9.3f %8s %14.1f",
+			result.name, (result.singleShot ? "ss" : "avgt"), result.samples, result.mean / scale, result.error / scale, unit, 1e9 / result.mean
+		);
+	}
+	
+	/**
+	 * Saves results into the CSV file, the environment is saved as comments.
+	 * 
+	 * @param filename
+	 * 	Path to the file.
+	 * 
+	 * @param results
+	 * 	Results of benchmarks.
+	 * 
+	 * @throws IOException
+	 */
+	private void save(String filename, List<Result> results) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8))) {
+			for (String line : describeEnvironment()) {
+				writer.println(line);
+			}
+			
+			writer.println(CSV_HEADER);
+			
+			for (Result result : results) {
+				writer.println(result.toCsv());
+			}
+		}
+	}
+	
+	/**
+	 * @param filename
+	 * 	Path to the CSV file saved by option --output.
+	 * 
+	 * @return
+	 * 	Results by names of benchmarks.
+	 * 
+	 * @throws IOException
+	 */
+	private static Map<String, Result> load(String filename) throws IOException {
+		Map<String, Result> results = new LinkedHashMap<>();
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8))) {
+			String line;
+			
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("#") && !line.equals(CSV_HEADER) && !line.trim().isEmpty()) {
+					Result result = Result.parse(line);
+					results.put(result.name, result);
+				}
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Prints differences between the baseline and the current results.
+	 * Difference is significant only if confidence intervals don't overlap.
+	 * 
+	 * @param baseline
+	 * 	Results by names of benchmarks.
+	 * 
+	 * @param results
+	 * 	Current results.
+	 */
+	private static void compare(Map<String, Result> baseline, List<Result> results) {
+		System.out.println();
+		System.out.println(String.format(Locale.ROOT, "%-36s %14s %14s %9s  %s", "Benchmark", "Baseline ns", "Current ns", "Change", "Verdict"));
+		
+		for (Result result : results) {
+			Result previous = baseline.get(result.name);
+			
+			if (previous == null) {
+				System.out.println(String.format(Locale.ROOT, "%-36s %14s %14.1f %9s  %s", result.name, "-", result.mean, "-", "new"));
+				continue;
+			}
+			
+			double	change	= (result.mean - previous.mean) / previous.mean * 100;
+			double	margin	= (Double.isNaN(result.error) ? 0 : result.error) + (Double.isNaN(previous.error) ? 0 : previous.error);
+			String	verdict	= "same (within error)";
+			
+			if (Math.abs(result.mean - previous.mean) > margin) {
+				verdict = (result.mean < previous.mean ? "faster" : "slower");
+			}
+			
+			System.out.println(String.format(Locale.ROOT, "%-36s %14.1f %14.1f %+8.1f%%  %s", result.name, previous.mean, result.mean, change, verdict));
+		}
+	}
+}
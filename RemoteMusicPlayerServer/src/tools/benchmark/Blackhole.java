@@ -0,0 +1,47 @@
+package tools.benchmark;
+
+/**
+ * Consumes results of benchmarks, so the JIT compiler can't remove the code,
+ * which computes them. Values are compared with a volatile field, which
+ * never matches them, so consuming is cheap.
+ * 
+ * @author Tomáš Zíma
+ */
+public final class Blackhole {
+	/** Object, which is never equal to a consumed object. */
+	private volatile Object	unlikelyObject	= new Object();
+	
+	/** Value, which is almost never equal to a consumed value. */
+	private volatile long	unlikelyValue	= System.nanoTime() ^ 0x5DEECE66DL;
+	
+	/** Consumed values end here, if they match (never in fact). */
+	public volatile Object	sink;
+	
+	/**
+	 * @param object
+	 * 	Result of the benchmark.
+	 */
+	public void consume(Object object) {
+		if (object == unlikelyObject) {
+			sink = object;
+		}
+	}
+	
+	/**
+	 * @param value
+	 * 	Result of the benchmark.
+	 */
+	public void consume(long value) {
+		if (value == unlikelyValue) {
+			sink = value;
+		}
+	}
+	
+	/**
+	 * @param value
+	 * 	Result of the benchmark.
+	 */
+	public void consume(boolean value) {
+		consume(value ? 1L : 0L);
+	}
+}
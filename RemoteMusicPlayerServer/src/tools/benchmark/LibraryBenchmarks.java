@@ -0,0 +1,138 @@
+package tools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import tools.MusicLibrary;
+
+/**
+ * <p>
+ * 	Benchmarks of the music library:
+ * </p>
+ * 
+ * <ul>
+ * 	<li>
+ * 		{@code library.insert.N} - insertion of N songs into an empty library
+ * 		(lookup of the artist, lookup of the album, insertion of the song and
+ * 		sorting of the albums), one operation = the whole library.
+ * 	</li>
+ * 	<li>
+ * 		{@code library.writeXML.N} - streaming of the XML document into an
+ * 		output, which discards it.
+ * 	</li>
+ * 	<li>
+ * 		{@code library.transmittableData.N} - writing of the document into
+ * 		bytes sent by UPDATE.
+ * 	</li>
+ * 	<li>
+ * 		{@code library.scan.threadsT} - building of the library from
+ * 		{@value #SCAN_FILES} MP3 files (see {@link SyntheticMusicDirectory})
+ * 		by T threads, one operation = one file.
+ * 	</li>
+ * </ul>
+ * 
+ * @author Tomáš Zíma
+ */
+public class LibraryBenchmarks {
+	/** Seed of the generated songs, so all runs use the same library. */
+	public static final long	SEED			= 20141017;
+	
+	/** Sizes of the libraries (count of songs). */
+	public static final int[]	SIZES			= { 10000, 100000, 1000000 };
+	
+	/** Count of MP3 files scanned by the scan benchmarks. */
+	public static final int		SCAN_FILES		= 10000;
+	
+	/** Counts of threads reading tags in the scan benchmarks. */
+	public static final int[]	SCAN_THREADS	= { 1, 4 };
+	
+	/**
+	 * @return
+	 * 	All the library benchmarks.
+	 */
+	public static List<BenchmarkCase> createCases() {
+		List<BenchmarkCase> cases = new ArrayList<>();
+		
+		for (final int size : SIZES) {
+			cases.add(new BenchmarkCase("library.insert." + size, true) {
+				private SyntheticLibrary.Songs songs;
+				
+				@Override
+				public void setUp() {
+					songs = new SyntheticLibrary.Songs(size, SEED);
+				}
+				
+				@Override
+				public void run(Blackhole blackhole) {
+					blackhole.consume(new SyntheticLibrary().insert(songs));
+				}
+			});
+			
+			cases.add(new BenchmarkCase("library.writeXML." + size, true) {
+				private SyntheticLibrary library;
+				
+				@Override
+				public void setUp() throws Exception {
+					library = new SyntheticLibrary().insert(new SyntheticLibrary.Songs(size, SEED));
+					library.buildXML();
+				}
+				
+				@Override
+				public void run(final Blackhole blackhole) throws Exception {
+					library.writeXML(new OutputStream() {
+						@Override
+						public void write(int b) {
+							blackhole.consume(b);
+						}
+						
+						@Override
+						public void write(byte[] b, int offset, int length) {
+							blackhole.consume(length);
+						}
+					});
+				}
+			});
+			
+			cases.add(new BenchmarkCase("library.transmittableData." + size, true) {
+				private SyntheticLibrary library;
+				
+				@Override
+				public void setUp() throws Exception {
+					library = new SyntheticLibrary().insert(new SyntheticLibrary.Songs(size, SEED));
+					library.buildXML();
+				}
+				
+				@Override
+				public void run(Blackhole blackhole) throws Exception {
+					blackhole.consume(library.getTransmittableData());
+				}
+			});
+		}
+		
+		for (final int threads : SCAN_THREADS) {
+			cases.add(new BenchmarkCase("library.scan.threads" + threads, true, SCAN_FILES) {
+				private File directory;
+				
+				@Override
+				public void setUp() throws IOException {
+					directory = SyntheticMusicDirectory.get(SCAN_FILES);
+				}
+				
+				@Override
+				public void run(Blackhole blackhole) throws IOException {
+					MusicLibrary library = new MusicLibrary();
+					
+					library.setScanThreads(threads);
+					library.buildLibrary(directory);
+					
+					blackhole.consume(library.getView());
+				}
+			});
+		}
+		
+		return cases;
+	}
+}
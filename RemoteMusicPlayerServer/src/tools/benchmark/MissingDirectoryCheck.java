@@ -0,0 +1,165 @@
+package tools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import application.controller.Controller;
+
+/**
+ * <p>
+ * 	Check, that an update of the music library from a directory, which isn't
+ * 	available (e.g. a network share isn't mounted), is rejected. Otherwise
+ * 	the library would look like all songs were removed and clients would
+ * 	download an empty library.
+ * </p>
+ * 
+ * <p>
+ * 	The real {@link Controller} builds a library from a generated directory
+ * 	(see {@link SyntheticMusicDirectory}). Then the directory is renamed and
+ * 	the library is updated. The check passes if the update throws
+ * 	{@link IOException}, the version sent to clients is the same and files
+ * 	of the saved library (with its manifest) aren't changed. Exit code is 0
+ * 	if the check passed and 1 if it failed.
+ * </p>
+ * 
+ * <p>
+ * 	Usage: {@code java tools.benchmark.MissingDirectoryCheck [count of songs]}
+ * 	(default is {@value #DEFAULT_SONGS}).
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class MissingDirectoryCheck {
+	/** Default count of songs in the directory. */
+	public static final int		DEFAULT_SONGS	= 96;
+	
+	/** Name of the saved library. */
+	private static final String	LIBRARY_NAME	= "MusicLibrary.xml";
+	
+	public static void main(String[] args) throws Exception {
+		int		songs	= (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SONGS);
+		File	work	= Files.createTempDirectory("library-check").toFile();
+		boolean	passed;
+		
+		try {
+			passed = run(work, songs);
+		} finally {
+			delete(work);
+		}
+		
+		System.exit(passed ? 0 : 1);
+	}
+	
+	/**
+	 * Builds the library, makes its directory unavailable and updates it.
+	 * 
+	 * @param work
+	 * 	Empty directory for the music and the saved library.
+	 * 
+	 * @param songs
+	 * 	Count of songs.
+	 * 
+	 * @return
+	 * 	True if the check passed.
+	 * 
+	 * @throws Exception
+	 * 	Library couldn't be built.
+	 */
+	private static boolean run(File work, int songs) throws Exception {
+		File music		= new File(work, "Music");
+		File unmounted	= new File(work, "Unmounted");
+		
+		SyntheticMusicDirectory.create(music, songs);
+		
+		Controller controller = new Controller();
+		
+		controller.setWatchLibrary(false);
+		controller.setPathMusicLibrary(new File(work, LIBRARY_NAME).getPath());
+		controller.rebuildLibrary(music);
+		
+		long				version		= controller.getLibraryVersion();
+		int					count		= controller.getLibrarySongCount();
+		Map<String, byte[]>	files		= readLibraryFiles(work);
+		
+		if (!music.renameTo(unmounted)) {
+			throw new IOException("Directory couldn't be renamed: " + music);
+		}
+		
+		String error = null;
+		
+		try {
+			controller.updateLibrary(music);
+		} catch (IOException e) {
+			error = e.getMessage();
+		}
+		
+		boolean rejected	= (error != null);
+		boolean kept		= (controller.getLibraryVersion() == version && controller.getLibrarySongCount() == count);
+		boolean unchanged	= equals(files, readLibraryFiles(work));
+		boolean passed		= (rejected && kept && unchanged);
+		
+		System.out.printf(
+			"Update from a missing directory: %s, version %s, saved files %s: %s%n",
+			(rejected ? "rejected (" + error + ")" : "accepted"),
+			(kept ? "kept" : "changed"),
+			(unchanged ? "unchanged" : "changed"),
+			(passed ? "PASSED" : "FAILED")
+		);
+		
+		return passed;
+	}
+	
+	/**
+	 * @return
+	 * 	Content of the saved library and files saved next to it (e.g. the
+	 * 	manifest) by their names.
+	 */
+	private static Map<String, byte[]> readLibraryFiles(File work) throws IOException {
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		
+		for (File file : work.listFiles()) {
+			if (file.isFile() && file.getName().startsWith(LIBRARY_NAME)) {
+				files.put(file.getName(), Files.readAllBytes(file.toPath()));
+			}
+		}
+		
+		return files;
+	}
+	
+	/**
+	 * @return
+	 * 	True if both maps contain the same files with the same content.
+	 */
+	private static boolean equals(Map<String, byte[]> first, Map<String, byte[]> second) {
+		if (!first.keySet().equals(second.keySet())) {
+			return false;
+		}
+		
+		for (Map.Entry<String, byte[]> entry : first.entrySet()) {
+			if (!Arrays.equals(entry.getValue(), second.get(entry.getKey()))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Deletes the file or the whole directory tree.
+	 */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		
+		file.delete();
+	}
+}
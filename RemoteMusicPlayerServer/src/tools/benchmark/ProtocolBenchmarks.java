@@ -0,0 +1,156 @@
+package tools.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import tools.communicator.ClientConnection;
+import tools.communicator.CommandLine;
+import tools.communicator.Communicator;
+import tools.communicator.ConnectionDescriptor;
+import tools.communicator.PlayerState;
+import tools.loadgenerator.StubConnectionListener;
+
+/**
+ * <p>
+ * 	Benchmarks of the text protocol without the network:
+ * </p>
+ * 
+ * <ul>
+ * 	<li>{@code protocol.parse.VERB} - parsing of one command line.</li>
+ * 	<li>
+ * 		{@code protocol.dispatch.VERB} - the whole processing of one command
+ * 		by {@link Communicator} (admission, parsing, lookup of the verb,
+ * 		handler and the reply) with a listener, which doesn't do anything.
+ * 	</li>
+ * 	<li>{@code protocol.formatState} - formatting of the reply to GET_STATE.</li>
+ * </ul>
+ * 
+ * @author Tomáš Zíma
+ */
+public class ProtocolBenchmarks {
+	/** Command lines measured by the benchmarks (verb first). */
+	private static final String[]	COMMANDS	= {
+		"GET_STATE",
+		"AUTHENTICATE \"phone\" \"password\"",
+		"PLAY \"/music/Artist/Album/Song.mp3\"",
+		"LIST_SONGS \"Artist\" \"Album\" \"0\" \"100\"",
+		"UNKNOWN_COMMAND"
+	};
+	
+	/**
+	 * Communicator, which processes commands directly from the benchmark.
+	 */
+	private static class DispatchingCommunicator extends Communicator {
+		/** Connection, from which all the commands come. */
+		private final NullConnection connection = new NullConnection(createConnectionDescriptor(InetAddress.getLoopbackAddress()));
+		
+		/**
+		 * Creates communicator without any limits.
+		 */
+		public DispatchingCommunicator() {
+			setConnectionListener(new StubConnectionListener(null));
+			setConnectionRateLimit(0, 0);
+			setAddressRateLimit(0, 0);
+		}
+		
+		/**
+		 * @param line
+		 * 	Command line (without "\n").
+		 * 
+		 * @return
+		 * 	Count of bytes sent as the reply.
+		 * 
+		 * @throws IOException
+		 */
+		public long dispatch(String line) throws IOException {
+			long sentBefore = connection.sentBytes;
+			
+			processCommand(connection, line);
+			return connection.sentBytes - sentBefore;
+		}
+	}
+	
+	/**
+	 * Connection, which only counts sent bytes.
+	 */
+	private static class NullConnection extends ClientConnection {
+		/** Count of sent bytes. */
+		private long sentBytes = 0;
+		
+		/**
+		 * @param connectionDescriptor
+		 * 	Structure, which contains informations about connection.
+		 */
+		public NullConnection(ConnectionDescriptor connectionDescriptor) {
+			super(connectionDescriptor);
+		}
+		
+		@Override
+		protected void sendBytes(byte[]... parts) {
+			for (byte[] part : parts) {
+				sentBytes += part.length;
+			}
+		}
+		
+		@Override
+		protected void sendRegion(byte[] header, FileChannel file, long count, byte[] trailer) throws IOException {
+			sentBytes += header.length + count + trailer.length;
+			file.close();
+		}
+		
+		@Override
+		public void close() {
+			//
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	All the protocol benchmarks.
+	 */
+	public static List<BenchmarkCase> createCases() {
+		List<BenchmarkCase> cases = new ArrayList<>();
+		
+		for (final String line : COMMANDS) {
+			String verb = line.split(" ")[0];
+			
+			cases.add(new BenchmarkCase("protocol.parse." + verb, false) {
+				private final CommandLine command = new CommandLine();
+				
+				@Override
+				public void run(Blackhole blackhole) {
+					blackhole.consume(command.parse(line));
+					blackhole.consume(command.getVerb());
+				}
+			});
+			
+			cases.add(new BenchmarkCase("protocol.dispatch." + verb, false) {
+				private DispatchingCommunicator communicator;
+				
+				@Override
+				public void setUp() {
+					communicator = new DispatchingCommunicator();
+				}
+				
+				@Override
+				public void run(Blackhole blackhole) throws IOException {
+					blackhole.consume(communicator.dispatch(line));
+				}
+			});
+		}
+		
+		cases.add(new BenchmarkCase("protocol.formatState", false) {
+			private final PlayerState state = new PlayerState(true, "Fear Factory", "Demanufacture", "Replica", "/music/Replica.mp3", 236, 117);
+			
+			@Override
+			public void run(Blackhole blackhole) {
+				blackhole.consume(Communicator.formatState(state));
+			}
+		});
+		
+		return cases;
+	}
+}
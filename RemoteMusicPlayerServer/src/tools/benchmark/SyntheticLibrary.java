@@ -0,0 +1,113 @@
+package tools.benchmark;
+
+import java.util.Random;
+
+import tools.MusicLibrary;
+
+/**
+ * <p>
+ * 	Music library filled by generated songs instead of MP3 files, so insertion
+ * 	and the XML export might be measured without the disk and ID3 tags. Songs
+ * 	are inserted exactly as by {@link MusicLibrary#buildLibrary(java.io.File)}
+ * 	(artist, album of the artist, song of the album, sorting of all albums at
+ * 	the end).
+ * </p>
+ * 
+ * <p>
+ * 	Songs come grouped by albums as from a directory tree, but tracks of each
+ * 	album are shuffled. The same seed always produces the same songs.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class SyntheticLibrary extends MusicLibrary {
+	/** Count of songs on one album. */
+	public static final int	SONGS_PER_ALBUM		= 12;
+	
+	/** Count of albums of one artist. */
+	public static final int	ALBUMS_PER_ARTIST	= 4;
+	
+	/**
+	 * Generated songs, which might be inserted repeatedly. Each row contains
+	 * artist, album, year, name, path and track number.
+	 */
+	public static final class Songs {
+		/** Rows of the songs. */
+		private final String[][] rows;
+		
+		/**
+		 * @param count
+		 * 	Count of songs.
+		 * 
+		 * @param seed
+		 * 	Seed of the random generator.
+		 */
+		public Songs(int count, long seed) {
+			Random random = new Random(seed);
+			
+			rows = new String[count][];
+			
+			for (int first = 0; first < count; first += SONGS_PER_ALBUM) {
+				int		albumNumber	= first / SONGS_PER_ALBUM;
+				int		last		= Math.min(count, first + SONGS_PER_ALBUM);
+				String	artist		= "Artist " + (albumNumber / ALBUMS_PER_ARTIST) + " " + Long.toString(random.nextLong() & 0xFFFF, 36);
+				String	album		= "Album " + albumNumber;
+				String	year		= String.valueOf(1960 + random.nextInt(60));
+				
+				// Artist names are random, but the same for all albums of the artist
+				if (albumNumber % ALBUMS_PER_ARTIST != 0) {
+					artist = rows[first - 1][0];
+				}
+				
+				for (int i = first; i < last; i++) {
+					int		track	= i - first + 1;
+					String	name	= "Song " + i;
+					
+					rows[i] = new String[] { artist, album, year, name, "/music/" + artist + "/" + album + "/" + name + ".mp3", String.valueOf(track) };
+				}
+				
+				// Fisher-Yates shuffle of the tracks of the album
+				for (int i = last - 1; i > first; i--) {
+					int			j		= first + random.nextInt(i - first + 1);
+					String[]	swapped	= rows[i];
+					
+					rows[i] = rows[j];
+					rows[j] = swapped;
+				}
+			}
+		}
+		
+		/**
+		 * @return
+		 * 	Count of songs.
+		 */
+		public int size() {
+			return rows.length;
+		}
+	}
+	
+	/**
+	 * Inserts all the songs into this library.
+	 * 
+	 * @param songs
+	 * 	Generated songs.
+	 * 
+	 * @return
+	 * 	This library.
+	 */
+	public SyntheticLibrary insert(Songs songs) {
+		for (String[] row : songs.rows) {
+			Artist	artist	= new Artist(row[0]);
+			Album	album	= new Album(row[1], row[2]);
+			Song	song	= new Song(row[3], row[4], row[5]);
+			
+			artist			= getArtist(artist);
+			album			= artist.getAlbum(album);
+			
+			album.addSong(song);
+		}
+		
+		sortSongs();
+		return this;
+	}
+}
@@ -0,0 +1,189 @@
+package tools.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * 	Creates a directory tree with small MP3 files, so scanning of the music
+ * 	library might be measured without a real music collection. Each file
+ * 	contains a few empty MPEG frames and an ID3v1 tag. Each album directory
+ * 	also contains a file, which isn't MP3, so the filter is measured too.
+ * </p>
+ * 
+ * <p>
+ * 	Tree is created in the temporary directory and it's reused by following
+ * 	runs, unless its creation wasn't finished.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class SyntheticMusicDirectory {
+	/** Count of songs in one album directory. */
+	private static final int	SONGS_PER_ALBUM		= 12;
+	
+	/** Count of album directories in one artist directory. */
+	private static final int	ALBUMS_PER_ARTIST	= 4;
+	
+	/** Length of one MPEG frame (128 kbps, 44.1 kHz). */
+	private static final int	FRAME_LENGTH		= 417;
+	
+	/** Count of frames in each file. */
+	private static final int	FRAMES_COUNT		= 4;
+	
+	/** Name of the file, which marks completely created tree. */
+	private static final String	COMPLETE_MARKER		= ".complete";
+	
+	/**
+	 * This class contains only static methods.
+	 */
+	private SyntheticMusicDirectory() {
+		//
+	}
+	
+	/**
+	 * Returns the directory with the given count of MP3 files, it's created
+	 * if it doesn't exist yet.
+	 * 
+	 * @param filesCount
+	 * 	Count of MP3 files.
+	 * 
+	 * @return
+	 * 	Root of the tree.
+	 * 
+	 * @throws IOException
+	 * 	Files couldn't be created.
+	 */
+	public static File get(int filesCount) throws IOException {
+		File root = new File(System.getProperty("java.io.tmpdir"), "benchmark-music-" + filesCount);
+		
+		if (new File(root, COMPLETE_MARKER).exists()) {
+			return root;
+		}
+		
+		create(root, filesCount);
+		
+		write(new File(root, COMPLETE_MARKER), new byte[0]);
+		return root;
+	}
+	
+	/**
+	 * Creates the tree with the given count of MP3 files in the directory.
+	 * 
+	 * @param root
+	 * 	Root of the tree, it's created if it doesn't exist.
+	 * 
+	 * @param filesCount
+	 * 	Count of MP3 files.
+	 * 
+	 * @throws IOException
+	 * 	Files couldn't be created.
+	 */
+	public static void create(File root, int filesCount) throws IOException {
+		byte[] frames = new byte[FRAME_LENGTH * FRAMES_COUNT];
+		
+		for (int i = 0; i < FRAMES_COUNT; i++) {
+			frames[i * FRAME_LENGTH]		= (byte) 0xFF;
+			frames[i * FRAME_LENGTH + 1]	= (byte) 0xFB;
+			frames[i * FRAME_LENGTH + 2]	= (byte) 0x90;
+			frames[i * FRAME_LENGTH + 3]	= (byte) 0x64;
+		}
+		
+		for (int i = 0; i < filesCount; i++) {
+			int		albumNumber		= i / SONGS_PER_ALBUM;
+			int		artistNumber	= albumNumber / ALBUMS_PER_ARTIST;
+			int		track			= i % SONGS_PER_ALBUM + 1;
+			File	album			= new File(root, "Artist " + artistNumber + File.separator + "Album " + albumNumber);
+			
+			if (track == 1) {
+				if (!album.isDirectory() && !album.mkdirs()) {
+					throw new IOException("Directory couldn't be created: " + album);
+				}
+				
+				write(new File(album, "cover.jpg"), new byte[FRAME_LENGTH]);
+			}
+			
+			byte[] tag = encodeTag("Song " + i, "Artist " + artistNumber, "Album " + albumNumber, String.valueOf(1960 + albumNumber % 60), track);
+			
+			write(new File(album, String.format("%02d Song %d.mp3", track, i)), frames, tag);
+		}
+	}
+	
+	/**
+	 * Creates ID3v1.1 tag (128 bytes at the end of the file).
+	 * 
+	 * @param title
+	 * 	Name of the song.
+	 * 
+	 * @param artist
+	 * 	Name of the artist.
+	 * 
+	 * @param album
+	 * 	Name of the album.
+	 * 
+	 * @param year
+	 * 	Year of publication.
+	 * 
+	 * @param track
+	 * 	Number of the track on the album.
+	 * 
+	 * @return
+	 * 	Bytes of the tag.
+	 */
+	private static byte[] encodeTag(String title, String artist, String album, String year, int track) {
+		byte[] tag = new byte[128];
+		
+		put(tag, 0, 3, "TAG");
+		put(tag, 3, 30, title);
+		put(tag, 33, 30, artist);
+		put(tag, 63, 30, album);
+		put(tag, 93, 4, year);
+		
+		// Zero byte before the track number marks ID3v1.1
+		tag[125] = 0;
+		tag[126] = (byte) track;
+		tag[127] = (byte) 0xFF;
+		
+		return tag;
+	}
+	
+	/**
+	 * Writes the text into the field of the tag.
+	 * 
+	 * @param tag
+	 * 	Bytes of the tag.
+	 * 
+	 * @param offset
+	 * 	Start of the field.
+	 * 
+	 * @param length
+	 * 	Length of the field.
+	 * 
+	 * @param text
+	 * 	Text, which is cut to the length of the field.
+	 */
+	private static void put(byte[] tag, int offset, int length, String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(bytes, 0, tag, offset, Math.min(length, bytes.length));
+	}
+	
+	/**
+	 * @param file
+	 * 	File to be created.
+	 * 
+	 * @param parts
+	 * 	Content of the file.
+	 * 
+	 * @throws IOException
+	 */
+	private static void write(File file, byte[]... parts) throws IOException {
+		try (OutputStream output = new FileOutputStream(file)) {
+			for (byte[] part : parts) {
+				output.write(part);
+			}
+		}
+	}
+}
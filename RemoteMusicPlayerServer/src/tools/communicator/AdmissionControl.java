@@ -0,0 +1,224 @@
+package tools.communicator;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 	Limits of the server, which protect normal clients against a client,
+ * 	which sends too many commands or reconnects in a loop:
+ * </p>
+ * 
+ * <ul>
+ * 	<li>Count of opened connections might be limited (it isn't by default).</li>
+ * 	<li>Each connection has its own {@link TokenBucket} for commands.</li>
+ * 	<li>
+ * 		Each IP address has a {@link TokenBucket} shared by all its
+ * 		connections. New connection takes one token from it too, so
+ * 		reconnecting doesn't bypass the limit.
+ * 	</li>
+ * </ul>
+ * 
+ * <p>
+ * 	Rejected connections and commands are counted. Limits might be changed
+ * 	while the server is running, but rate of the opened connections is changed
+ * 	only for new connections.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class AdmissionControl {
+	/**
+	 * Default maximal count of opened connections (0 = unlimited). Idle
+	 * clients keep their connections opened, so any fixed default might
+	 * reject them.
+	 */
+	public static final int							DEFAULT_MAX_CONNECTIONS		= 0;
+	
+	/** Default count of commands per second for one connection. */
+	public static final double						DEFAULT_CONNECTION_RATE		= 50;
+	
+	/** Default burst of commands of one connection. */
+	public static final int							DEFAULT_CONNECTION_BURST	= 100;
+	
+	/** Default count of commands and connections per second for one IP address. */
+	public static final double						DEFAULT_ADDRESS_RATE		= 100;
+	
+	/** Default burst of commands and connections of one IP address. */
+	public static final int							DEFAULT_ADDRESS_BURST		= 200;
+	
+	/** Full buckets of IP addresses are thrown away, when there's more of them. */
+	private static final int						SWEEP_THRESHOLD				= 1024;
+	
+	/** Maximal count of opened connections (0 = unlimited). */
+	private volatile int							maxConnections				= DEFAULT_MAX_CONNECTIONS;
+	
+	/** Count of commands per second for one connection (0 = unlimited). */
+	private volatile double							connectionRate				= DEFAULT_CONNECTION_RATE;
+	
+	/** Burst of commands of one connection. */
+	private volatile int							connectionBurst				= DEFAULT_CONNECTION_BURST;
+	
+	/** Count of commands and connections per second for one IP address (0 = unlimited). */
+	private volatile double							addressRate					= DEFAULT_ADDRESS_RATE;
+	
+	/** Burst of commands and connections of one IP address. */
+	private volatile int							addressBurst				= DEFAULT_ADDRESS_BURST;
+	
+	/** Buckets of IP addresses, which were used recently. */
+	private final ConcurrentMap<InetAddress, TokenBucket>	addressBuckets				= new ConcurrentHashMap<>();
+	
+	/** Count of rejected connections. */
+	private final AtomicLong						rejectedConnections			= new AtomicLong();
+	
+	/** Count of rejected commands. */
+	private final AtomicLong						rejectedCommands			= new AtomicLong();
+	
+	/**
+	 * Decides, if a new connection might be accepted.
+	 * 
+	 * @param address
+	 * 	IP address of the client.
+	 * 
+	 * @param openedConnections
+	 * 	Count of connections, which are already opened.
+	 * 
+	 * @return
+	 * 	True if the connection is accepted, false if it's rejected.
+	 */
+	public boolean admitConnection(InetAddress address, int openedConnections) {
+		int limit = maxConnections;
+		
+		if ((limit > 0 && openedConnections >= limit) || !takeAddressToken(address)) {
+			rejectedConnections.incrementAndGet();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Decides, if a command might be processed. It must be called only by
+	 * the thread, which reads commands of the connection.
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received (not a wrapper).
+	 * 
+	 * @return
+	 * 	True if the command is accepted, false if it's rejected.
+	 */
+	public boolean admitCommand(ClientConnection connection) {
+		TokenBucket bucket = connection.getCommandBucket();
+		
+		// Bucket is created with the first command, so it uses the current limit
+		if (bucket == null && connectionRate > 0) {
+			bucket = new TokenBucket(connectionRate, connectionBurst);
+			connection.setCommandBucket(bucket);
+		}
+		
+		if (
+			(bucket != null && !bucket.tryConsume()) ||
+			!takeAddressToken(connection.getConnectionDescriptor().getDeviceInetAddress())
+		) {
+			rejectedCommands.incrementAndGet();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Takes one token from the bucket of the IP address.
+	 * 
+	 * @param address
+	 * 	IP address of the client.
+	 * 
+	 * @return
+	 * 	True if the token was taken or the rate isn't limited.
+	 */
+	private boolean takeAddressToken(InetAddress address) {
+		if (addressRate <= 0 || address == null) {
+			return true;
+		}
+		
+		TokenBucket bucket = addressBuckets.get(address);
+		
+		if (bucket == null) {
+			if (addressBuckets.size() >= SWEEP_THRESHOLD) {
+				sweep();
+			}
+			
+			TokenBucket newBucket = new TokenBucket(addressRate, addressBurst);
+			
+			bucket = addressBuckets.putIfAbsent(address, newBucket);
+			bucket = (bucket == null ? newBucket : bucket);
+		}
+		
+		return bucket.tryConsume();
+	}
+	
+	/**
+	 * Throws away full buckets of IP addresses, they're the same as new ones.
+	 */
+	private void sweep() {
+		for (Iterator<TokenBucket> iterator = addressBuckets.values().iterator(); iterator.hasNext(); ) {
+			if (iterator.next().isFull()) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * @param maxConnections
+	 * 	Maximal count of opened connections (0 = unlimited).
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	
+	/**
+	 * @param rate
+	 * 	Count of commands per second for one connection (0 = unlimited).
+	 * 
+	 * @param burst
+	 * 	Count of commands, which might be sent at once.
+	 */
+	public void setConnectionRate(double rate, int burst) {
+		this.connectionBurst	= burst;
+		this.connectionRate		= rate;
+	}
+	
+	/**
+	 * @param rate
+	 * 	Count of commands and new connections per second for one IP address
+	 * 	(0 = unlimited).
+	 * 
+	 * @param burst
+	 * 	Count of commands and new connections, which might come at once.
+	 */
+	public void setAddressRate(double rate, int burst) {
+		this.addressBurst	= burst;
+		this.addressRate	= rate;
+		
+		addressBuckets.clear();
+	}
+	
+	/**
+	 * @return
+	 * 	Count of rejected connections.
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.get();
+	}
+	
+	/**
+	 * @return
+	 * 	Count of rejected commands.
+	 */
+	public long getRejectedCommands() {
+		return rejectedCommands.get();
+	}
+}
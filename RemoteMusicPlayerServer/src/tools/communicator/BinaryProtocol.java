@@ -0,0 +1,224 @@
+package tools.communicator;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * 	Encoding and decoding of frames of the binary protocol. Connection is
+ * 	switched to this protocol by command {@code HELLO "BINARY"} (see Javadoc
+ * 	for class {@link Communicator}). All numbers are big-endian and all text
+ * 	strings are encoded in UTF-8.
+ * </p>
+ * 
+ * <p>
+ * 	<b>Request</b> (client to server):
+ * 	<pre>
+ * 		int32	length of the rest of the frame
+ * 		int32	request ID (0 = reply in order, other = might be pipelined)
+ * 		uint8	count of strings (at least 1)
+ * 		strings	each one as uint16 length followed by the bytes, the first one
+ * 				is the name of the command, the others are parameters
+ * 	</pre>
+ * </p>
+ * 
+ * <p>
+ * 	<b>Reply</b> (server to client):
+ * 	<pre>
+ * 		int32	length of the rest of the frame
+ * 		int32	request ID of the command (0 for events)
+ * 		uint8	type of the payload ({@link #TYPE_TEXT} or {@link #TYPE_DATA})
+ * 		bytes	payload (UTF-8 text or raw data, e.g. the music library)
+ * 	</pre>
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+final class BinaryProtocol {
+	/** Payload is a text string, the same as a reply of the text protocol. */
+	public static final byte	TYPE_TEXT				= 0;
+	
+	/** Payload is raw data (e.g. XML document with music library). */
+	public static final byte	TYPE_DATA				= 1;
+	
+	/** Size of the length field in front of each frame. */
+	public static final int		LENGTH_SIZE				= 4;
+	
+	/** Size of the request header after the length field (ID and count). */
+	public static final int		REQUEST_HEADER_SIZE		= 5;
+	
+	/** Size of the reply header after the length field (ID and type). */
+	public static final int		REPLY_HEADER_SIZE		= 5;
+	
+	/** Maximal length of a request frame (without the length field). */
+	public static final int		MAX_REQUEST_LENGTH		= 32 * 1024;
+	
+	/** Encoding of all text strings. */
+	public static final Charset	UTF8					= Charset.forName("UTF-8");
+	
+	/**
+	 * This class contains only static methods.
+	 */
+	private BinaryProtocol() {
+		//
+	}
+	
+	/**
+	 * Creates the whole reply frame.
+	 * 
+	 * @param requestId
+	 * 	ID of the request, to which this is the reply.
+	 * 
+	 * @param type
+	 * 	{@link #TYPE_TEXT} or {@link #TYPE_DATA}.
+	 * 
+	 * @param payload
+	 * 	Content of the reply.
+	 * 
+	 * @return
+	 * 	Frame ready to be sent.
+	 */
+	public static byte[] encodeReply(int requestId, byte type, byte[] payload) {
+		byte[] frame = new byte[LENGTH_SIZE + REPLY_HEADER_SIZE + payload.length];
+		
+		writeReplyHeader(frame, requestId, type, payload.length);
+		System.arraycopy(payload, 0, frame, LENGTH_SIZE + REPLY_HEADER_SIZE, payload.length);
+		
+		return frame;
+	}
+	
+	/**
+	 * Creates only the header of the reply frame, payload will be sent
+	 * separately.
+	 * 
+	 * @param requestId
+	 * 	ID of the request, to which this is the reply.
+	 * 
+	 * @param type
+	 * 	{@link #TYPE_TEXT} or {@link #TYPE_DATA}.
+	 * 
+	 * @param payloadLength
+	 * 	Length of the payload, which will follow the header.
+	 * 
+	 * @return
+	 * 	Header of the frame.
+	 */
+	public static byte[] encodeReplyHeader(int requestId, byte type, int payloadLength) {
+		byte[] header = new byte[LENGTH_SIZE + REPLY_HEADER_SIZE];
+		
+		writeReplyHeader(header, requestId, type, payloadLength);
+		return header;
+	}
+	
+	/**
+	 * Reads length of the frame.
+	 * 
+	 * @param buffer
+	 * 	Array with the data.
+	 * 
+	 * @param offset
+	 * 	Index of the first byte of the frame.
+	 * 
+	 * @return
+	 * 	Length of the rest of the frame.
+	 * 
+	 * @throws IOException
+	 * 	Length is too small or larger than {@link #MAX_REQUEST_LENGTH}.
+	 */
+	public static int readLength(byte[] buffer, int offset) throws IOException {
+		int length = readInt(buffer, offset);
+		
+		if (length < REQUEST_HEADER_SIZE || length > MAX_REQUEST_LENGTH) {
+			throw new IOException("Invalid length of the frame: " + length);
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Decodes request frame into the command.
+	 * 
+	 * @param buffer
+	 * 	Array with the data.
+	 * 
+	 * @param offset
+	 * 	Index of the first byte after the length field.
+	 * 
+	 * @param length
+	 * 	Length of the frame (without the length field).
+	 * 
+	 * @param command
+	 * 	Object, which will be filled by the command and its parameters.
+	 * 
+	 * @return
+	 * 	Request ID.
+	 * 
+	 * @throws IOException
+	 * 	Frame is malformed.
+	 */
+	public static int decodeRequest(byte[] buffer, int offset, int length, CommandLine command) throws IOException {
+		int end			= offset + length;
+		int requestId	= readInt(buffer, offset);
+		int count		= buffer[offset + 4] & 0xFF;
+		int position	= offset + REQUEST_HEADER_SIZE;
+		
+		if (count == 0) {
+			throw new IOException("Frame doesn't contain any command.");
+		}
+		
+		for (int i = 0; i < count; i++) {
+			if (position + 2 > end) {
+				throw new IOException("Frame is truncated.");
+			}
+			
+			int stringLength = ((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF);
+			position += 2;
+			
+			if (position + stringLength > end) {
+				throw new IOException("Frame is truncated.");
+			}
+			
+			String string = new String(buffer, position, stringLength, UTF8);
+			position += stringLength;
+			
+			if (i == 0) {
+				command.reset(string);
+			}
+			else {
+				command.addParameter(string);
+			}
+		}
+		
+		return requestId;
+	}
+	
+	/**
+	 * Writes reply header including the length field into the array.
+	 */
+	private static void writeReplyHeader(byte[] frame, int requestId, byte type, int payloadLength) {
+		writeInt(frame, 0, REPLY_HEADER_SIZE + payloadLength);
+		writeInt(frame, LENGTH_SIZE, requestId);
+		frame[LENGTH_SIZE + 4] = type;
+	}
+	
+	/**
+	 * Reads big-endian int32 from the array.
+	 */
+	private static int readInt(byte[] buffer, int offset) {
+		return
+			((buffer[offset] & 0xFF) << 24) |
+			((buffer[offset + 1] & 0xFF) << 16) |
+			((buffer[offset + 2] & 0xFF) << 8) |
+			(buffer[offset + 3] & 0xFF);
+	}
+	
+	/**
+	 * Writes big-endian int32 into the array.
+	 */
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset]		= (byte) (value >>> 24);
+		buffer[offset + 1]	= (byte) (value >>> 16);
+		buffer[offset + 2]	= (byte) (value >>> 8);
+		buffer[offset + 3]	= (byte) value;
+	}
+}
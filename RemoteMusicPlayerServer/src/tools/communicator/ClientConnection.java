@@ -0,0 +1,364 @@
+package tools.communicator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * 	This class represents one client connection from the point of view of the
+ * 	command processing in {@link Communicator}. It doesn't matter if the
+ * 	connection is served by its own thread or by the selector engine, command
+ * 	handling only needs to know who is the client and how to send him a reply.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public abstract class ClientConnection {
+	/**
+	 * Structure, which contains informations about connection. It's used by
+	 * listener to check out which client is executing the command.
+	 */
+	private final ConnectionDescriptor	connectionDescriptor;
+	
+	/** Parsed command, the same instance is reused for all commands. */
+	private final CommandLine			commandLine	= new CommandLine();
+	
+	/**
+	 * Permits for commands being processed. Command, which might run in
+	 * parallel, takes one permit, all other commands take all permits.
+	 */
+	private final Semaphore				pipeline	= new Semaphore(Communicator.MAX_PIPELINED_COMMANDS);
+	
+	/** True if the client switched to the binary protocol (command HELLO). */
+	private volatile boolean			binary		= false;
+	
+	/** Limit of commands of this connection, it's created with the first command. */
+	private TokenBucket					commandBucket	= null;
+	
+	/**
+	 * @param connectionDescriptor
+	 * 	Structure, which contains informations about connection.
+	 */
+	protected ClientConnection(ConnectionDescriptor connectionDescriptor) {
+		this.connectionDescriptor = connectionDescriptor;
+	}
+	
+	/**
+	 * @return
+	 * 	Structure, which contains informations about connection.
+	 */
+	public ConnectionDescriptor getConnectionDescriptor() {
+		return connectionDescriptor;
+	}
+	
+	/**
+	 * @return
+	 * 	Instance of {@link CommandLine}, which might be used for parsing of
+	 * 	commands from this connection.
+	 */
+	CommandLine getCommandLine() {
+		return commandLine;
+	}
+	
+	/**
+	 * @return
+	 * 	Permits for commands of this connection being processed.
+	 */
+	Semaphore getPipeline() {
+		return pipeline;
+	}
+	
+	/**
+	 * @return
+	 * 	Limit of commands of this connection (null if it wasn't set yet).
+	 */
+	TokenBucket getCommandBucket() {
+		return commandBucket;
+	}
+	
+	/**
+	 * @param commandBucket
+	 * 	Limit of commands of this connection.
+	 */
+	void setCommandBucket(TokenBucket commandBucket) {
+		this.commandBucket = commandBucket;
+	}
+	
+	/**
+	 * @return
+	 * 	The real connection with the client. It's this object, if the
+	 * 	connection isn't a wrapper of another one.
+	 */
+	public ClientConnection getBaseConnection() {
+		return this;
+	}
+	
+	/**
+	 * @return
+	 * 	True if the client uses the binary protocol, false if it uses the text
+	 * 	protocol.
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+	
+	/**
+	 * Switches the protocol. It should be called only after the reply to the
+	 * command HELLO was sent and before the next command is read.
+	 * 
+	 * @param binary
+	 * 	True for the binary protocol, false for the text protocol.
+	 */
+	void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+	
+	/**
+	 * Sends bytes to the client. All bytes of one call are sent together, they
+	 * can't be mixed with bytes of another call (from another thread).
+	 * 
+	 * @param parts
+	 * 	Bytes, which are already encoded according to the protocol. Parts are
+	 * 	sent one after another, so they don't need to be copied into one array.
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	protected abstract void sendBytes(byte[]... parts) throws IOException;
+	
+	/**
+	 * Sends one line to the client. Character "\n" is appended automatically
+	 * (text protocol) or the line is sent as a text frame (binary protocol).
+	 * 
+	 * @param line
+	 * 	Text of the line (without "\n").
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	public void sendLine(String line) throws IOException {
+		if (isBinary()) {
+			sendBytes(BinaryProtocol.encodeReply(0, BinaryProtocol.TYPE_TEXT, line.getBytes(BinaryProtocol.UTF8)));
+		}
+		else {
+			sendBytes(encodeLine(line));
+		}
+	}
+	
+	/**
+	 * Sends the state of the player as the reply to GET_STATE. The reply is
+	 * already encoded by the state, so it's sent by one write without any
+	 * formatting.
+	 * 
+	 * @param state
+	 * 	State of the player.
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	public void sendState(PlayerState state) throws IOException {
+		if (isBinary()) {
+			sendBytes(BinaryProtocol.encodeReply(0, BinaryProtocol.TYPE_TEXT, state.getUtf8Reply()));
+		}
+		else {
+			sendBytes(state.getTextReply());
+		}
+	}
+	
+	/**
+	 * Sends raw data to the client. Using the text protocol, data are sent
+	 * as they are and "\n" is appended. Using the binary protocol, data are
+	 * sent as a data frame.
+	 * 
+	 * @param data
+	 * 	Data to be sent.
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	public void sendData(byte[] data) throws IOException {
+		if (isBinary()) {
+			sendBytes(BinaryProtocol.encodeReplyHeader(0, BinaryProtocol.TYPE_DATA, data.length), data);
+		}
+		else {
+			sendBytes(data, new byte[] {'\n'});
+		}
+	}
+	
+	/**
+	 * Sends encoded (e.g. compressed) data, which might contain any bytes.
+	 * Using the text protocol, line {@code DATA "encoding" "length"} is sent
+	 * first and then the data (without "\n"). Using the binary protocol, data
+	 * are sent as a data frame.
+	 * 
+	 * @param encoding
+	 * 	Name of the encoding (e.g. "gzip").
+	 * 
+	 * @param data
+	 * 	Encoded data, they aren't copied.
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	public void sendEncodedData(String encoding, byte[] data) throws IOException {
+		sendEncodedData(encoding, data, 0, "");
+	}
+	
+	/**
+	 * Sends encoded data with the given ID (see
+	 * {@link #sendEncodedData(String, byte[])}).
+	 * 
+	 * @param encoding
+	 * 	Name of the encoding (e.g. "gzip").
+	 * 
+	 * @param data
+	 * 	Encoded data, they aren't copied.
+	 * 
+	 * @param requestId
+	 * 	Request ID of the frame (binary protocol).
+	 * 
+	 * @param prefix
+	 * 	Prefix of the line (text protocol), e.g. "#17 " or "".
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	protected void sendEncodedData(String encoding, byte[] data, int requestId, String prefix) throws IOException {
+		if (isBinary()) {
+			sendBytes(BinaryProtocol.encodeReplyHeader(requestId, BinaryProtocol.TYPE_DATA, data.length), data);
+		}
+		else {
+			sendBytes(encodeLine(prefix + "DATA \"" + encoding + "\" \"" + data.length + "\""), data);
+		}
+	}
+	
+	/**
+	 * Sends content of the file as raw data (the same way as
+	 * {@link #sendData(byte[])}), but the file isn't loaded into memory. It's
+	 * transferred directly from the file to the socket if possible.
+	 * 
+	 * @param file
+	 * 	File to be sent.
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be read or data couldn't be sent.
+	 */
+	public void sendFile(File file) throws IOException {
+		sendFile(file, 0, "");
+	}
+	
+	/**
+	 * Sends content of the file as raw data with the given ID (see
+	 * {@link #sendFile(File)}).
+	 * 
+	 * @param file
+	 * 	File to be sent.
+	 * 
+	 * @param requestId
+	 * 	Request ID of the frame (binary protocol).
+	 * 
+	 * @param prefix
+	 * 	Prefix of the line (text protocol), e.g. "#17 " or "".
+	 * 
+	 * @throws IOException
+	 * 	File couldn't be read or data couldn't be sent.
+	 */
+	protected void sendFile(File file, int requestId, String prefix) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		
+		try {
+			long size = channel.size();
+			
+			if (isBinary()) {
+				if (size > Integer.MAX_VALUE - BinaryProtocol.REPLY_HEADER_SIZE) {
+					throw new IOException("File is too large: " + file);
+				}
+				
+				sendRegion(BinaryProtocol.encodeReplyHeader(requestId, BinaryProtocol.TYPE_DATA, (int) size), channel, size, new byte[0]);
+			}
+			else {
+				byte[] header = encodeLine(prefix);
+				
+				// Prefix without "\n", then the file and "\n"
+				sendRegion(Arrays.copyOf(header, header.length - 1), channel, size, new byte[] {'\n'});
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Sends header, part of the file and trailer. All of them are sent
+	 * together, they can't be mixed with data of another call (from another
+	 * thread). The file is closed when it's sent (or when sending fails).
+	 * 
+	 * @param header
+	 * 	Bytes to be sent before the file.
+	 * 
+	 * @param file
+	 * 	Opened file, data are sent from its beginning.
+	 * 
+	 * @param count
+	 * 	Count of bytes of the file to be sent.
+	 * 
+	 * @param trailer
+	 * 	Bytes to be sent after the file.
+	 * 
+	 * @throws IOException
+	 * 	Data couldn't be sent, connection is probably broken.
+	 */
+	protected abstract void sendRegion(byte[] header, FileChannel file, long count, byte[] trailer) throws IOException;
+	
+	/**
+	 * @return
+	 * 	True if some data sent previously are still waiting to be delivered
+	 * 	to the client (it's slow or doesn't read), false otherwise.
+	 */
+	public boolean hasPendingOutput() {
+		return false;
+	}
+	
+	/**
+	 * Closes the connection (client will be disconnected).
+	 */
+	public abstract void close();
+	
+	/**
+	 * Sends reply "OK" or "NO" to the client, based on the parameter.
+	 * 
+	 * @param possitive
+	 * 	true => "OK\n", false => "NO\n"
+	 * 
+	 * @throws IOException
+	 */
+	public void sendReply(boolean possitive) throws IOException {
+		sendLine(possitive ? "OK" : "NO");
+	}
+	
+	/**
+	 * Converts a line into bytes of the text protocol. Each
+	 * character is written as a single byte (the same way as
+	 * DataOutputStream.writeBytes() does it) and "\n" is appended.
+	 * 
+	 * @param line
+	 * 	Text of the line (without "\n").
+	 * 
+	 * @return
+	 * 	Bytes ready to be sent.
+	 */
+	protected static byte[] encodeLine(String line) {
+		byte[] result = new byte[line.length() + 1];
+		
+		for (int i = 0; i < line.length(); i++) {
+			result[i] = (byte) line.charAt(i);
+		}
+		
+		result[line.length()] = '\n';
+		return result;
+	}
+}
@@ -0,0 +1,23 @@
+package tools.communicator;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * 	Handler of one command (verb) of the protocol. Handlers are registered in
+ * 	{@link Communicator} using method
+ * 	{@link Communicator#registerCommand(String, int, CommandHandler)}, so it's
+ * 	possible to add a new command without touching the code, which reads
+ * 	commands from clients.
+ * </p>
+ * 
+ * <p>
+ * 	Handler is triggered only if the verb and count of parameters match the
+ * 	registration. It must send exactly one reply to the client.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public interface CommandHandler {
+	public void handle(ClientConnection connection, CommandLine command) throws IOException;
+}
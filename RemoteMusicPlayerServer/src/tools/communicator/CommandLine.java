@@ -0,0 +1,140 @@
+package tools.communicator;
+
+/**
+ * <p>
+ * 	Parsed command from a client. Commands looks like:
+ * </p>
+ * 
+ * <p>{@code
+ * 	COMMAND "parameter1" "parameter2"
+ * }</p>
+ * 
+ * <p>
+ * 	Parsing doesn't use regular expressions and one instance might be used
+ * 	for all commands of a connection (method {@link #parse(String)} only
+ * 	overwrites previous values). Therefore, parsing of a command without
+ * 	parameters (e.g. GET_STATE) doesn't allocate any memory.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class CommandLine {
+	/** Name of the command (the first word). */
+	private String		verb			= "";
+	
+	/** Parameters (without quotes), only first {@link #parameterCount} are valid. */
+	private String[]	parameters		= new String[4];
+	
+	/** Count of valid parameters. */
+	private int			parameterCount	= 0;
+	
+	/**
+	 * Parses one-line command. Each parameter must be enclosed in quotes and
+	 * separated by exactly one space, quotes inside of parameters aren't
+	 * supported.
+	 * 
+	 * @param line
+	 * 	Text string with one-line command (without "\n").
+	 * 
+	 * @return
+	 * 	True if the command is well-formed, false if it's not (values of this
+	 * 	object aren't valid in such a case).
+	 */
+	public boolean parse(String line) {
+		parameterCount = 0;
+		
+		int position = line.indexOf(' ');
+		
+		// Command without parameters, the whole line is a verb
+		if (position < 0) {
+			verb = line;
+			return true;
+		}
+		
+		verb = line.substring(0, position);
+		
+		// Each parameter: space, quote, text, quote
+		while (position < line.length()) {
+			if (
+				line.charAt(position) != ' ' ||
+				position + 1 >= line.length() ||
+				line.charAt(position + 1) != '"'
+			) {
+				return false;
+			}
+			
+			int end = line.indexOf('"', position + 2);
+			
+			if (end < 0) {
+				return false;
+			}
+			
+			addParameter(line.substring(position + 2, end));
+			position = end + 1;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Sets the name of the command and removes all parameters. It's used
+	 * when the command isn't parsed from a line (e.g. binary protocol).
+	 * 
+	 * @param verb
+	 * 	Name of the command.
+	 */
+	protected void reset(String verb) {
+		this.verb			= verb;
+		this.parameterCount	= 0;
+	}
+	
+	/**
+	 * Appends parameter, array of parameters is enlarged if needed.
+	 * 
+	 * @param parameter
+	 * 	Parameter (without quotes).
+	 */
+	protected void addParameter(String parameter) {
+		if (parameterCount == parameters.length) {
+			String[] newParameters = new String[parameters.length * 2];
+			System.arraycopy(parameters, 0, newParameters, 0, parameters.length);
+			parameters = newParameters;
+		}
+		
+		parameters[parameterCount++] = parameter;
+	}
+	
+	/**
+	 * @return
+	 * 	Name of the command (e.g. "GET_STATE").
+	 */
+	public String getVerb() {
+		return verb;
+	}
+	
+	/**
+	 * @return
+	 * 	Count of parameters.
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+	
+	/**
+	 * @param index
+	 * 	Index of the parameter (from 0).
+	 * 
+	 * @return
+	 * 	Parameter without quotes.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 	Command doesn't have such a parameter.
+	 */
+	public String getParameter(int index) {
+		if (index >= parameterCount) {
+			throw new IndexOutOfBoundsException("Command has only " + parameterCount + " parameters.");
+		}
+		
+		return parameters[index];
+	}
+}
@@ -1,21 +1,40 @@
 package tools.communicator;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import application.controller.OnChangeListener;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tools.LibraryView;
+import application.controller.ChangeEvent;
+import application.controller.EventBus;
 
 /**
  * <p>
@@ -43,9 +62,10 @@ import application.controller.OnChangeListener;
  * 		<ol>
  * 			<li>Create instance of this class.</li>
  * 			<li>Call method {@link #setConnectionListener(ConnectionListener)} with an appropriate argument.</li>
+ * 			<li><b>Optional</b>: Choose how are connections served using method {@link #setMode(Mode)}.</li>
  * 			<li>Create a new thread and execute method {@link #run()} in this new thread.</li>
  * 			<li><b>Optional</b>: Check if there are opened client connections using method {@link #hasOpenedConnection()}.</li>
- * 			<li><b>Optional</b>: Kill the thread, where the server is running, using method Thread.interrupt().</li>
+ * 			<li><b>Optional</b>: Stop the server using method {@link #stop()}.</li>
  * 		</ol>
  * 	</p>
  * </p>
@@ -68,6 +88,58 @@ import application.controller.OnChangeListener;
  * 				<p>
  * 					<b>Answer</b> will be an one-line XML document describing whole music library. This XML document is
  * 					generated by class {@link tools.MusicLibrary}.
+ * 					File returned by {@link ConnectionListener#update(ConnectionDescriptor)} is sent as it is, directly
+ * 					from the disk.
+ * 				</p>
+ * 			</li>
+ * 			<li><i>UPDATE "encoding"</i> (downloads a compressed music library, encoding is "gzip" or "deflate")
+ * 				<p>
+ * 					<b>Answer</b> will be a line {@code DATA "gzip" "length"} followed by exactly {@code length} bytes
+ * 					of the compressed XML document (without "\n" at the end), or "NO" if the encoding isn't supported.
+ * 					Compressed data are prepared once for each version of the library.
+ * 				</p>
+ * 			</li>
+ * 			<li><i>UPDATE_SINCE "libraryVersionNumber"</i> (downloads only changes of the music library)
+ * 				<p>
+ * 					<b>Answer</b> will be an one-line XML document {@code <musicLibraryChanges since="..." version="...">}
+ * 					with elements {@code added}, {@code modified} and {@code removed} for each changed song (see
+ * 					{@link tools.MusicLibrary#getChangesSince(long)}). If the given version is too old (or unknown), the
+ * 					whole library is sent instead, exactly as the answer to UPDATE (client recognizes it by the root
+ * 					element {@code musicLibrary}). If client doesn't have permission, answer is "NO".
+ * 				</p>
+ * 			</li>
+ * 			<li><i>LIST_ARTISTS "offset" "limit"</i> (browses artists of the music library by pages)
+ * 				<p>
+ * 					<b>Answer</b> will be an one-line XML document {@code <artists version="..." total="..." offset="...">}
+ * 					with at most {@code limit} elements {@code <artist name="..." albums="..."/>} sorted by name (see
+ * 					{@link tools.LibraryView}). Both parameters are optional, default page is the first one with
+ * 					{@link tools.LibraryView#MAX_PAGE_SIZE} items (larger limit is reduced). If client doesn't have
+ * 					permission to update the library, answer is "NO".
+ * 				</p>
+ * 			</li>
+ * 			<li><i>LIST_ALBUMS "artist" "offset" "limit"</i> (browses albums of the artist by pages)
+ * 				<p>
+ * 					<b>Answer</b> will be an one-line XML document {@code <albums>} with elements
+ * 					{@code <album name="..." year="..." songs="..."/>}, or "NO" if there's no such artist. Paging is the
+ * 					same as for LIST_ARTISTS.
+ * 				</p>
+ * 			</li>
+ * 			<li><i>LIST_SONGS "artist" "album" "offset" "limit"</i> (browses songs of the album by pages)
+ * 				<p>
+ * 					<b>Answer</b> will be an one-line XML document {@code <songs>} with elements
+ * 					{@code <song name="..." track="..." filename="..."/>} in the order of the album, or "NO" if there's
+ * 					no such album. Paging is the same as for LIST_ARTISTS. Attribute {@code version} of all pages tells
+ * 					the client, if the library was changed while browsing.
+ * 				</p>
+ * 			</li>
+ * 			<li><i>SEARCH "query" "limit"</i> (searches artists, albums and songs by name)
+ * 				<p>
+ * 					<b>Answer</b> will be an one-line XML document {@code <searchResults version="..." query="...">} with
+ * 					at most {@code limit} elements {@code artist}, {@code album} and {@code song} (see
+ * 					{@link tools.LibraryView#search(String, int)}), whose names contain the query at the beginning of
+ * 					a word. Case and diacritics don't matter, so it might be sent after each key typed by the user.
+ * 					Limit is optional (default is {@value #DEFAULT_SEARCH_LIMIT}). If client doesn't have permission
+ * 					to update the library, answer is "NO".
  * 				</p>
  * 			</li>
  * 			<li><i>GET_STATE (returns current state of player)</i>
@@ -84,8 +156,54 @@ import application.controller.OnChangeListener;
  * 			<li><i>PAUSE</i> (pauses the song)</li>
  *			<li><i>STOP</i> (stops the song)</li>
  *			<li><i>PLAY "filename"</i> (plays the song)</li>
+ *			<li><i>SUBSCRIBE</i> (subscribes for changes of the player state)
+ *				<p>
+ *					After the reply "OK", server pushes lines {@code EVENT PLAYING="yes";ARTIST="artist";...}
+ *					(the same format as the answer to GET_STATE) whenever the player is started, paused,
+ *					stopped or the song is changed, and also every few seconds while playing (with the current
+ *					position). Only the newest event is kept for each client, so slow client might miss some
+ *					events, but never gets out-dated state. Events might come between any other command and
+ *					its reply, so client must check the prefix "EVENT " of each line.
+ *				</p>
+ *			</li>
+ *			<li><i>UNSUBSCRIBE</i> (stops the events)</li>
+ *			<li><i>STATS</i> (returns statistics of the server)
+ *				<p>
+ *					<b>Answer</b> will be an one-line XML document {@code <statistics connections="..." bytesIn="..." ...>}
+ *					with an element {@code <command verb="..." count="..." errors="..." mean="..." p50="..." p99="..." max="..."/>}
+ *					for each command (latencies in microseconds, see {@link #getStatisticsText()} for the same values
+ *					as plain text). If client isn't authenticated, answer is "NO".
+ *				</p>
+ *			</li>
  * 		</ul>
  * 	</p>
+ * 	<p>
+ * 		Any command might be prefixed by a numeric ID, e.g. {@code #17 GET_STATE}. Reply will be prefixed by the
+ * 		same ID, e.g. {@code #17 PLAYING="yes";...}, and client doesn't need to wait for it before sending the next
+ * 		command. Replies to GET_STATE, CHECK, UPDATE, UPDATE_SINCE, LIST_*, SEARCH and STATS might come in a different order than
+ * 		the commands were sent, all other commands are executed in order. Invalid command with ID gets reply "NO". Commands without
+ * 		ID are processed exactly as described above.
+ * 	</p>
+ * 	<p>
+ * 		Client might switch to the binary protocol by command {@code HELLO "BINARY"} (and back by
+ * 		{@code HELLO "TEXT"}). Reply "OK" is still sent by the old protocol, all following commands and replies use
+ * 		length-prefixed frames described in {@link BinaryProtocol}. Commands and replies are the same, but all text
+ * 		strings are encoded in UTF-8, parameters might contain quotes, request ID in the frame replaces the prefix
+ * 		"#17 " (ID 0 means a command without ID), UPDATE sends the library as a data frame (or "NO") and invalid
+ * 		command always gets reply "NO". Old clients, which never send HELLO, aren't affected.
+ * 	</p>
+ * 	<p>
+ * 		Server protects itself against clients, which send too many commands or reconnect in a loop. If there are
+ * 		too many opened connections (see {@link #setMaxConnections(int)}) or the client's IP address connects too
+ * 		often, new connection gets line "BUSY" and it's closed. Commands are limited by token buckets of each
+ * 		connection and each IP address (see {@link #setConnectionRateLimit(double, int)} and
+ * 		{@link #setAddressRateLimit(double, int)}), command over the limit isn't processed and gets reply "BUSY"
+ * 		(with the same ID, if it has one). Client should wait a while and send it again.
+ * 	</p>
+ * 	<p>
+ * 		Each command is handled by a {@link CommandHandler}. Other commands might be added using method
+ * 		{@link #registerCommand(String, int, CommandHandler)}.
+ * 	</p>
  * </p>
  * 
  * @author	Tomáš Zíma
@@ -95,6 +213,33 @@ import application.controller.OnChangeListener;
  * @see		#setConnectionListener(ConnectionListener)
  */
 public class Communicator {
+	/**
+	 * Defines, how are client connections served.
+	 */
+	public enum Mode {
+		/**
+		 * Each client connection is served by its own thread, which is
+		 * reading commands from the socket (see {@link ConnectionHandler}).
+		 */
+		THREAD_PER_CONNECTION,
+		
+		/**
+		 * The same as {@link #THREAD_PER_CONNECTION}, but each client
+		 * connection is served by a virtual thread. Virtual threads are
+		 * available since Java 21, on older runtime this mode falls back to
+		 * ordinary (platform) threads.
+		 */
+		VIRTUAL_THREAD_PER_CONNECTION,
+		
+		/**
+		 * All client connections are served by one or a few event-loop
+		 * threads using non-blocking channels and a selector (see
+		 * {@link SelectorEngine}). Idle connections doesn't consume any
+		 * CPU time.
+		 */
+		SELECTOR
+	}
+	
 	/**
 	 * Listener, which will be used for handling of client connections.
 	 */
@@ -102,38 +247,311 @@ public class Communicator {
 	
 	/**
 	 * Using this variable, an unique number will be assigned to each
-	 * connection.
+	 * connection. It's shared by all instances, so IDs stay unique even when
+	 * the server is restarted.
 	 */
-	private int					connectionIdCounter	= 0;
+	private static final AtomicInteger	connectionIdCounter	= new AtomicInteger();
+	
+	/** Set of all opened client connections (in thread-per-connection modes). */
+	private final Set<ConnectionHandler>	handlers	= Collections.newSetFromMap(new ConcurrentHashMap<ConnectionHandler, Boolean>());
 	
-	/** List of all client threads. Thread of this class isn't there! */
-	private List<Thread>		handlerThreadsList	= new ArrayList<>();
+	/** Handlers of all known commands, the key is a verb. */
+	private final Map<String, RegisteredCommand>	commands	= new ConcurrentHashMap<>();
 	
 	/**
-	 * Regular expression, which will be used for parsing of parameters from
-	 * commands.
+	 * Maximal count of commands with IDs, which might be processed in parallel
+	 * for one client. If the client sends more commands, reading from the
+	 * client waits until some of them are finished.
 	 */
-	private final Pattern		parameterPattern	= Pattern.compile("\"(.*?)\"");
+	static final int								MAX_PIPELINED_COMMANDS	= 16;
+	
+	/** Parameter of command HELLO, which switches to the text protocol. */
+	public static final String						PROTOCOL_TEXT			= "TEXT";
+	
+	/** Parameter of command HELLO, which switches to the binary protocol. */
+	public static final String						PROTOCOL_BINARY			= "BINARY";
+	
+	/** Maximal count of results of command SEARCH, if the client doesn't specify it. */
+	public static final int							DEFAULT_SEARCH_LIMIT	= 50;
+	
+	/** Path of the statistics on the HTTP server (see {@link #startStatisticsServer(int)}). */
+	public static final String						STATISTICS_PATH			= "/stats";
+	
+	/** Reply to a connection or command rejected by limits of the server. */
+	public static final String						REPLY_BUSY				= "BUSY";
+	
+	/** Limits of connections and commands. */
+	private final AdmissionControl					admissionControl		= new AdmissionControl();
+	
+	/** Latencies of commands and counts of transferred bytes. */
+	private final ServerStatistics					statistics				= new ServerStatistics();
+	
+	/** Plain-text endpoint with statistics, null if it isn't started. */
+	private HttpServer								statisticsServer		= null;
+	
+	/** Default UDP port of the discovery (see {@link #startDiscovery(int, String)}). */
+	public static final int							DEFAULT_DISCOVERY_PORT	= 9999;
+	
+	/** Responder to UDP queries of clients, null if it isn't started. */
+	private DiscoveryResponder						discoveryResponder		= null;
+	
+	/** Threads, which process concurrent commands with IDs. */
+	private final ExecutorService					commandExecutor			= Executors.newCachedThreadPool();
 
+	/** Number of TCP port to listen on. */
+	private int					tcpListenPort		= 9999;
+	
+	/** Changes of connections are published to this bus. */
+	private volatile EventBus	eventBus			= null;
+	
+	/** Way how are client connections served. */
+	private Mode				mode				= Mode.THREAD_PER_CONNECTION;
+	
+	/** Count of event-loop threads used in {@link Mode#SELECTOR}. */
+	private int					selectorThreads		= 1;
+	
+	/** Engine serving connections in {@link Mode#SELECTOR}, null otherwise. */
+	private volatile SelectorEngine	selectorEngine	= null;
+	
+	/** Server socket used in thread-per-connection modes, null otherwise. */
+	private volatile ServerSocket	serverSocket	= null;
+	
+	/** Set to true by {@link #stop()}. */
+	private volatile boolean	stopped				= false;
+	
+	/** Clients, which subscribed for changes of the player state. */
+	private final StateSubscriptions	subscriptions	= new StateSubscriptions();
+	
 	/**
-	 * Amount of time, for which the thread will be blocked while trying to open
-	 * new client connection. When this time expires, method accept() will throw
-	 * an exception and run of thread will continue.
+	 * Handler of a command together with the expected count of parameters.
 	 */
-	private final int			ACCEPT_TIMEOUT		= 50;
+	private static class RegisteredCommand {
+		/** Minimal count of parameters of the command. */
+		private final int									minParameterCount;
+		
+		/** Maximal count of parameters of the command. */
+		private final int									maxParameterCount;
+		
+		/** True if the command might run in parallel with other commands. */
+		private final boolean								concurrent;
+		
+		/** Handler, which will be triggered for the command. */
+		private final CommandHandler						handler;
+		
+		/** Statistics of the command. */
+		private final ServerStatistics.CommandStatistics	statistics;
+		
+		/**
+		 * @param minParameterCount
+		 * 	Minimal count of parameters of the command.
+		 * 
+		 * @param maxParameterCount
+		 * 	Maximal count of parameters of the command.
+		 * 
+		 * @param concurrent
+		 * 	True if the command might run in parallel with other commands.
+		 * 
+		 * @param handler
+		 * 	Handler, which will be triggered for the command.
+		 * 
+		 * @param statistics
+		 * 	Statistics of the command.
+		 */
+		public RegisteredCommand(int minParameterCount, int maxParameterCount, boolean concurrent, CommandHandler handler, ServerStatistics.CommandStatistics statistics) {
+			this.minParameterCount	= minParameterCount;
+			this.maxParameterCount	= maxParameterCount;
+			this.concurrent			= concurrent;
+			this.handler			= handler;
+			this.statistics			= statistics;
+		}
+		
+		/**
+		 * Triggers the handler and records its latency.
+		 * 
+		 * @param connection
+		 * 	Connection, to which the reply will be sent.
+		 * 
+		 * @param command
+		 * 	Parsed command.
+		 * 
+		 * @throws IOException
+		 * 	Reply couldn't be sent.
+		 */
+		public void handle(ClientConnection connection, CommandLine command) throws IOException {
+			long	start	= System.nanoTime();
+			boolean	failed	= true;
+			
+			try {
+				handler.handle(connection, command);
+				failed = false;
+			} finally {
+				statistics.record(System.nanoTime() - start, failed);
+			}
+		}
+	}
 	
 	/**
-	 * Amount of time, for which the thread will be blocked while trying to read
-	 * data from client. When this time expires, input stream will throw an
-	 * exception and run of thread will continue.
+	 * Connection, which adds ID of the command in front of each reply. Using
+	 * the text protocol, it's a prefix of the line (e.g. "#17 "), using the
+	 * binary protocol, it's the request ID in the header of the frame.
 	 */
-	private final int			READER_TIMEOUT		= 50;
-	
-	/** Number of TCP port to listen on. */
-	private int					tcpListenPort		= 9999;
+	private static class TaggedConnection extends ClientConnection {
+		/** The real connection with the client. */
+		private final ClientConnection	connection;
+		
+		/** Prefix of each reply (ID and space), used by the text protocol. */
+		private final String			prefix;
+		
+		/** Request ID, used by the binary protocol. */
+		private final int				requestId;
+		
+		/**
+		 * @param connection
+		 * 	The real connection with the client.
+		 * 
+		 * @param tag
+		 * 	ID of the command including "#".
+		 */
+		public TaggedConnection(ClientConnection connection, String tag) {
+			super(connection.getConnectionDescriptor());
+			
+			this.connection	= connection;
+			this.prefix		= tag + " ";
+			this.requestId	= 0;
+		}
+		
+		/**
+		 * @param connection
+		 * 	The real connection with the client.
+		 * 
+		 * @param requestId
+		 * 	Request ID from the binary frame.
+		 */
+		public TaggedConnection(ClientConnection connection, int requestId) {
+			super(connection.getConnectionDescriptor());
+			
+			this.connection	= connection;
+			this.prefix		= "#" + requestId + " ";
+			this.requestId	= requestId;
+		}
+		
+		@Override
+		public boolean isBinary() {
+			return connection.isBinary();
+		}
+		
+		@Override
+		protected void sendBytes(byte[]... parts) throws IOException {
+			connection.sendBytes(parts);
+		}
+		
+		@Override
+		public void sendLine(String line) throws IOException {
+			if (isBinary()) {
+				sendBytes(BinaryProtocol.encodeReply(requestId, BinaryProtocol.TYPE_TEXT, line.getBytes(BinaryProtocol.UTF8)));
+			}
+			else {
+				connection.sendLine(prefix + line);
+			}
+		}
+		
+		@Override
+		public void sendState(PlayerState state) throws IOException {
+			if (isBinary()) {
+				sendBytes(BinaryProtocol.encodeReply(requestId, BinaryProtocol.TYPE_TEXT, state.getUtf8Reply()));
+			}
+			else {
+				byte[] reply	= state.getTextReply();
+				byte[] line		= Arrays.copyOf(encodeLine(prefix), prefix.length() + reply.length);
+				
+				// Tag and the reply are sent by one write
+				System.arraycopy(reply, 0, line, prefix.length(), reply.length);
+				sendBytes(line);
+			}
+		}
+		
+		@Override
+		protected void sendRegion(byte[] header, FileChannel file, long count, byte[] trailer) throws IOException {
+			connection.sendRegion(header, file, count, trailer);
+		}
+		
+		@Override
+		public void sendFile(File file) throws IOException {
+			connection.sendFile(file, requestId, prefix);
+		}
+		
+		@Override
+		public void sendEncodedData(String encoding, byte[] data) throws IOException {
+			connection.sendEncodedData(encoding, data, requestId, prefix);
+		}
+		
+		@Override
+		public void sendData(byte[] data) throws IOException {
+			if (isBinary()) {
+				sendBytes(BinaryProtocol.encodeReplyHeader(requestId, BinaryProtocol.TYPE_DATA, data.length), data);
+			}
+			else {
+				byte[] tag = encodeLine(prefix);
+				
+				// Tag without its "\n", then the data and "\n"
+				sendBytes(Arrays.copyOf(tag, tag.length - 1), data, new byte[] {'\n'});
+			}
+		}
+		
+		@Override
+		public boolean hasPendingOutput() {
+			return connection.hasPendingOutput();
+		}
+		
+		@Override
+		public void close() {
+			connection.close();
+		}
+		
+		@Override
+		public ClientConnection getBaseConnection() {
+			return connection;
+		}
+	}
 	
-	/** This listener will be triggered, if something changes. */
-	private OnChangeListener	onChangeListener	= null;
+	/**
+	 * Input stream, which reads directly from the channel. Unlike the stream
+	 * of the socket adaptor, it doesn't block writing to the same channel by
+	 * another thread while it's waiting for data.
+	 */
+	private class ChannelInputStream extends InputStream {
+		/** Channel in blocking mode. */
+		private final SocketChannel	channel;
+		
+		/**
+		 * @param channel
+		 * 	Channel in blocking mode.
+		 */
+		public ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] data = new byte[1];
+			return (read(data, 0, 1) < 0) ? -1 : (data[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			
+			int count = channel.read(ByteBuffer.wrap(data, offset, length));
+			
+			if (count > 0) {
+				countBytesIn(count);
+			}
+			
+			return count;
+		}
+	}
 	
 	/**
 	 * This class takes care of actual connection between server and one client.
@@ -143,186 +561,230 @@ public class Communicator {
 	 * 
 	 * @author Tomáš Zíma
 	 */
-	protected class ConnectionHandler {
+	protected class ConnectionHandler extends ClientConnection {
 		/** Socket between server and client. */
 		private Socket					socket;
 		
-		/**
-		 * Structure, which contains informations about connection. It's used by
-		 * listener to check out which client is executing the command.
-		 */
-		private ConnectionDescriptor	connectionDescriptor;
+		/** Channel of the socket, it's used for writing (in blocking mode). */
+		private SocketChannel			channel;
 		
 		/** Object, which is used for reading of data from client. */
-		private BufferedReader			reader;
+		private DataInputStream			reader;
 		
-		/** Object, which is used for writing of data to the client. */
-		private DataOutputStream		writer;
+		/** Buffer for bytes of the line, which is being read. */
+		private byte[]					lineBuffer		= new byte[256];
+		
+		/** Lock, which keeps data of one reply together. */
+		private final Object			writeLock		= new Object();
 		
 		/**
 		 * @param socket
-		 * 	Socket between server and client.
+		 * 	Socket between server and client. It must have a channel (it must
+		 * 	be accepted by {@link ServerSocketChannel}).
 		 * 
 		 * @param connectionDescriptor
 		 * 	Structure, which contains informations about connection.
 		 * 
 		 * @throws IOException
-		 * 	This exception will be thrown, if Socket has invalid
-		 *	input or output stream, or if method setSoTimeout()
-		 *	couldn't be finished successfully.
+		 * 	This exception will be thrown, if Socket doesn't have a channel.
 		 */
 		public ConnectionHandler(Socket socket, ConnectionDescriptor connectionDescriptor) throws IOException {
+			super(connectionDescriptor);
+			
 			// Save values
 			this.socket					= socket;
-			this.connectionDescriptor	= connectionDescriptor;
+			this.channel				= socket.getChannel();
 			
-			// Create objects for reading and writing
-			this.reader					= new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			this.writer					= new DataOutputStream(socket.getOutputStream()); 
+			if (channel == null) {
+				throw new IOException("Socket doesn't have a channel.");
+			}
 			
-			// Set timeout for reading (will block only for limited amount of time)
-			this.socket.setSoTimeout(READER_TIMEOUT);
+			// Create object for reading. Streams of the socket aren't used,
+			// because they might block writing while reading is blocked.
+			this.reader					= new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
 			
-			// Trigger listener (new connection)
-			if (onChangeListener != null) {
-				onChangeListener.onChange();
-			}
+			// Publish event (new connection)
+			publishEvent(ChangeEvent.CONNECTION_OPENED);
 		}
 		
 		/**
 		 * This method creates loop, which reads data from the client and
 		 * triggers listener based on the received command. It also sends
-		 * replies. The loop will finish only if the current thread is
-		 * interrupted or socket is closed.
+		 * replies. The loop will finish only if socket is closed (by client
+		 * or by {@link Communicator#stop()}).
 		 */
 		public void run() {
-			// Until the thread isn't interrupted and connection exists
-			while (!Thread.currentThread().isInterrupted() && !socket.isClosed()) {
+			// Until the connection exists
+			while (!socket.isClosed()) {
 				try {
+					// Binary protocol, read one frame and process it
+					if (isBinary() && readFrame()) {
+						continue;
+					}
+					
 					// Read one line from client ("\n" will be dropped out!).
-					String command = reader.readLine();
+					// It blocks until some data arrives or socket is closed.
+					String command = isBinary() ? null : readLine();
 					
-					// If readLine() returned null, it means that client closed
-					// the connection.
+					// If readLine() returned null (or there's no next frame),
+					// it means that client closed the connection.
 					if (command == null) {
 						// Close the socket.
 						socket.close();
 						
 						// Let the connection listener know, that connection
 						// was closed.
-						synchronized (connectionListener) {
-							if (connectionListener != null) {
-								connectionListener.setActiveConnection(connectionDescriptor);
-								connectionListener.close();
-							}
-						}
-						
-						// Let the thread die and after 100ms, trigger the
-						// OnChangeListener. It cannot be triggered immediately,
-						// because thread will be still living that time.
-						new Timer().schedule(new TimerTask(){
-							@Override
-							public void run() {
-								if (onChangeListener != null) {
-									onChangeListener.onChange();
-								}
-							}
-						}, 100);
+						connectionClosed(this);
 						
-						// Exit loop (thread)
+						// Exit loop (thread), the event is published after
+						// the handler is removed
 						return;
 					}
 
-					// Ensure, that any other thread is accessing the
-					// connectionListener this time.
-					synchronized (connectionListener) {
-						// Set active connection, so the listener can check out,
-						// which client is executing the command.
-						connectionListener.setActiveConnection(connectionDescriptor);
-						
-						// Tries to read all parameters from the command.
-						List<String> parameters = parseParameters(command);
-
-						// Determine the command, trigger listener and send
-						// reply. 
-						if (command.matches("^AUTHENTICATE \".*\" \".*\"$")) {
-							sendReply(connectionListener.authenticate(parameters.get(0), parameters.get(1)));
-						}
-						else
-						if (command.matches("^CHECK \".*\"$")) {
-							sendReply(connectionListener.checkVersion(Integer.valueOf(parameters.get(0))));
-						}
-						else
-						if (command.matches("^UPDATE$")) {
-							writer.writeBytes(connectionListener.update() + "\n");
-						}
-						else
-						if (command.matches("^GET_STATE$")) {
-							PlayerState state = connectionListener.getState();
-							
-							writer.writeBytes(
-								"PLAYING=\""	+ "yes"					+ "\";" +
-								"ARTIST=\""		+ state.getArtist()		+ "\";" +
-								"ALBUM=\""		+ state.getAlbum()		+ "\";" +
-								"SONG=\""		+ state.getSong()		+ "\";" +
-								"LENGTH=\""		+ state.getLength()		+ "\";" +
-								"POSITION=\""	+ state.getPosition()	+ "\";\n"
-							);
-						}
-						else
-						if (command.matches("^PAUSE$")) {
-							sendReply(connectionListener.pause());
-						}
-						else
-						if (command.matches("^STOP$")) {
-							sendReply(connectionListener.stop());
-						}
-						else
-						if (command.matches("^UNPAUSE$")) {
-							sendReply(connectionListener.unpause());
-						}
-						else
-						if (command.matches("^PLAY \".*\"$")) {
-							sendReply(connectionListener.play(parameters.get(0)));
-						}
-						else {
-							connectionListener.invalidCommand();
-						}
-					}
-				} catch (SocketTimeoutException e) {
-					continue;
+					// Determine the command, trigger listener and send reply.
+					processCommand(this, command);
 				} catch (IOException e) {
-					connectionListener.close();
+					break;
+				} catch (RuntimeException e) {
+					// Error in processing of the command mustn't leak the
+					// connection, it's closed like after an I/O error.
+					e.printStackTrace();
 					break;
 				}
 			}
 
 			// Close connection (client will be disconnected)
+			close();
+			connectionClosed(this);
+		}
+		
+		/**
+		 * Reads one line of the text protocol. Bytes are read one by one from
+		 * the buffered stream, so no byte after the line is consumed and the
+		 * connection might be switched to the binary protocol.
+		 * 
+		 * @return
+		 * 	Line without "\n" (and "\r"), null if the client closed the
+		 * 	connection.
+		 * 
+		 * @throws IOException
+		 */
+		private String readLine() throws IOException {
+			int length = 0;
+			int value;
+			
+			while ((value = reader.read()) != '\n') {
+				if (value < 0) {
+					if (length == 0) {
+						return null;
+					}
+					
+					break;
+				}
+				
+				if (length == lineBuffer.length) {
+					byte[] newBuffer = new byte[lineBuffer.length * 2];
+					System.arraycopy(lineBuffer, 0, newBuffer, 0, length);
+					lineBuffer = newBuffer;
+				}
+				
+				lineBuffer[length++] = (byte) value;
+			}
+			
+			if (length > 0 && lineBuffer[length - 1] == '\r') {
+				length--;
+			}
+			
+			return new String(lineBuffer, 0, length);
+		}
+		
+		/**
+		 * Reads one frame of the binary protocol and processes the command.
+		 * 
+		 * @return
+		 * 	False if the client closed the connection.
+		 * 
+		 * @throws IOException
+		 * 	Connection is broken or the frame is malformed.
+		 */
+		private boolean readFrame() throws IOException {
+			byte[] header = new byte[BinaryProtocol.LENGTH_SIZE];
+			
 			try {
-				socket.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+				reader.readFully(header);
+			} catch (EOFException e) {
+				return false;
+			}
+			
+			int		length	= BinaryProtocol.readLength(header, 0);
+			byte[]	frame	= new byte[length];
+			
+			reader.readFully(frame);
+			
+			CommandLine	command		= new CommandLine();
+			int			requestId	= BinaryProtocol.decodeRequest(frame, 0, length, command);
+			
+			processFrame(this, requestId, command);
+			return true;
+		}
+		
+		@Override
+		protected void sendBytes(byte[]... parts) throws IOException {
+			synchronized (writeLock) {
+				for (byte[] part : parts) {
+					countBytesOut(part.length);
+					writeFully(ByteBuffer.wrap(part));
+				}
 			}
+		}
+		
+		@Override
+		protected void sendRegion(byte[] header, FileChannel file, long count, byte[] trailer) throws IOException {
+			countBytesOut(header.length + count + trailer.length);
 			
-			if (connectionListener != null) {
-				connectionListener.close();
+			try {
+				synchronized (writeLock) {
+					writeFully(ByteBuffer.wrap(header));
+					
+					// Data go from the file to the socket without copying
+					// into the memory of the application.
+					for (long position = 0; position < count; ) {
+						long transferred = file.transferTo(position, count - position, channel);
+						
+						if (transferred <= 0 && position >= file.size()) {
+							throw new IOException("File was truncated while it was being sent.");
+						}
+						
+						position += transferred;
+					}
+					
+					writeFully(ByteBuffer.wrap(trailer));
+				}
+			} finally {
+				file.close();
 			}
 		}
 		
 		/**
-		 * Sends reply "OK" or "NO" to the client, based on the parameter.
+		 * Writes all bytes of the buffer to the channel.
 		 * 
-		 * @param possitive
-		 * 	true => "OK\n", false => "NO\n"
+		 * @param buffer
+		 * 	Data to be written.
 		 * 
 		 * @throws IOException
 		 */
-		protected void sendReply(boolean possitive) throws IOException {
-			if (possitive) {
-				writer.writeBytes("OK\n");
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
 			}
-			else {
-				writer.writeBytes("NO\n");
+		}
+		
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		}
 	}
@@ -332,7 +794,7 @@ public class Communicator {
 	 * listen on.
 	 */
 	public Communicator() {
-		//
+		registerDefaultCommands();
 	}
 	
 	/**
@@ -343,34 +805,150 @@ public class Communicator {
 	 */
 	public Communicator(int tcpListenPort) {
 		this.tcpListenPort = tcpListenPort;
+		registerDefaultCommands();
 	}
 	
 	/**
 	 * Executes main loop, which is waiting for incoming connections and
-	 * delegating them to new thread (using class {@link ConnectionHandler}.
-	 * Loop will only exit if server socket is closed or if current thread is
-	 * interrupted.
+	 * serves them in the way defined by {@link #setMode(Mode)}. Loop will
+	 * only exit if the server is stopped using {@link #stop()} (or, in
+	 * {@link Mode#SELECTOR}, also if the current thread is interrupted).
 	 * 
 	 * @throws IOException
 	 */
 	public void run() throws IOException {
-		// Creates TCP server on the specified port.
-		ServerSocket serverSocket = new ServerSocket(tcpListenPort);
+		subscriptions.start();
+		
+		try {
+			runEngine();
+		} finally {
+			subscriptions.stop();
+			commandExecutor.shutdown();
+		}
+	}
+	
+	/**
+	 * Executes the main loop of the engine defined by {@link #setMode(Mode)}.
+	 * 
+	 * @throws IOException
+	 */
+	protected void runEngine() throws IOException {
+		if (mode == Mode.SELECTOR) {
+			selectorEngine = new SelectorEngine(this, tcpListenPort, selectorThreads);
+			
+			if (stopped) {
+				selectorEngine.stop();
+			}
+			
+			try {
+				selectorEngine.run();
+			} finally {
+				// Publish event (all connections closed)
+				publishEvent(ChangeEvent.CONNECTION_CLOSED);
+			}
+		}
+		else {
+			runThreadPerConnection(createHandlerExecutor());
+		}
+	}
+	
+	/**
+	 * Stops the server: closes the server socket and all client connections.
+	 * Method {@link #run()} will return soon after that. It can be called from
+	 * any thread.
+	 */
+	public void stop() {
+		stopped = true;
 		
-		// Sets timeout after which reading from client will be interrupted.
-		serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+		stopStatisticsServer();
+		stopDiscovery();
 		
-		// Until the thread is interrupted or socket is closed...
-		while (!Thread.currentThread().isInterrupted() && !serverSocket.isClosed()) {
+		if (selectorEngine != null) {
+			selectorEngine.stop();
+		}
+		
+		ServerSocket serverSocket = this.serverSocket;
+		
+		if (serverSocket != null) {
 			try {
-				// Wait for new connection and get it's socket
+				serverSocket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		for (ConnectionHandler handler : handlers) {
+			handler.close();
+		}
+	}
+	
+	/**
+	 * Creates executor, which will run one {@link ConnectionHandler} per task,
+	 * based on the current {@link Mode}.
+	 * 
+	 * @return
+	 * 	Executor with virtual threads in {@link Mode#VIRTUAL_THREAD_PER_CONNECTION}
+	 * 	(if supported by runtime), or executor with ordinary threads.
+	 */
+	protected ExecutorService createHandlerExecutor() {
+		if (mode == Mode.VIRTUAL_THREAD_PER_CONNECTION) {
+			try {
+				// Method exists since Java 21 only, so it can't be called directly.
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Communicator: Virtual threads aren't supported, ordinary threads will be used.");
+			}
+		}
+		
+		return Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 * Executes main loop, which is waiting for incoming connections and
+	 * delegating them to new thread (using class {@link ConnectionHandler}.
+	 * The loop is blocked in accept(), it doesn't need to wake up periodically.
+	 * 
+	 * @param handlerExecutor
+	 * 	Executor, which runs each handler in its own thread.
+	 * 
+	 * @throws IOException
+	 */
+	protected void runThreadPerConnection(ExecutorService handlerExecutor) throws IOException {
+		// Creates TCP server on the specified port. It's created by a channel,
+		// so accepted sockets have channels too and files might be sent by
+		// FileChannel.transferTo().
+		serverSocket = ServerSocketChannel.open().socket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(tcpListenPort));
+		
+		// Until the server is stopped (it closes the socket)...
+		while (!stopped && !serverSocket.isClosed()) {
+			try {
+				// Wait for new connection and get it's socket
 				final Socket socket = serverSocket.accept();
 				
+				if (!admitConnection(socket.getChannel())) {
+					continue;
+				}
+				
+				// Replies are written in more parts (e.g. header, file and "\n"),
+				// they mustn't wait for the acknowledgement of the previous one.
+				// Client might reset the connection meanwhile, it mustn't stop
+				// the server.
+				try {
+					socket.setTcpNoDelay(true);
+				} catch (SocketException e) {
+					try {
+						socket.close();
+					} catch (IOException closeException) {
+						// Nothing to do
+					}
+					
+					continue;
+				}
+				
 				// Create structure describing this connection (it must be unique) 
-				final ConnectionDescriptor connectionDescriptor = new ConnectionDescriptor(
-					connectionIdCounter++,
-					socket.getInetAddress()
-				);
+				final ConnectionDescriptor connectionDescriptor = createConnectionDescriptor(socket.getInetAddress());
 				
 				// Create new handler for this connection
 				final ConnectionHandler connectionHandler = new ConnectionHandler(
@@ -378,69 +956,43 @@ public class Communicator {
 					connectionDescriptor
 				);
 				
-				// Create new thread for the handler
-				Thread handlerThread = new Thread() {
+				handlers.add(connectionHandler);
+				connectionOpened(connectionHandler);
+				
+				// Execute handler in its own thread
+				handlerExecutor.execute(new Runnable() {
 					@Override
 					public void run() {
 						// Execute loop, which will take care of communication between
 						// server and (one) client.
-						connectionHandler.run();
-
-						// We need to let the OnChangeListener know, connection was
-						// closed. In the moment, when this code is executed, connection
-						// still exists, so it's not possible to just call "onChange()"
-						// method (the result would be invalid value in the GUI).
-						//
-						// This is the best solution I could think of. OnChangeListener
-						// will not be triggered immediately, but will be delayed using
-						// timer.
-						//
-						// WARNING: The value 100ms MIGHT NOT BE the best value and it
-						// may cause problems on slower computer. If GUI is not showing
-						// correct informations on some computer, increase this value!
-						new Timer().schedule(new TimerTask() {
-							@Override
-							public void run() {
-								// Trigger listener (connection closed)
-								if (onChangeListener != null) {
-									onChangeListener.onChange();
-								}
-							}
-						}, 100);
+						try {
+							connectionHandler.run();
+						} finally {
+							handlers.remove(connectionHandler);
+							
+							// Publish event (connection closed)
+							publishEvent(ChangeEvent.CONNECTION_CLOSED);
+						}
 					}
-				};
-				
-				// Execute handler in its own thread
-				handlerThread.start();
-				handlerThreadsList.add(handlerThread);
-				
-				// Delete all threads which are not active anymore
-				removeFinishedThreads();
-				
-				// Trigger listener (new connection)
-				if (onChangeListener != null) {
-					onChangeListener.onChange();
-				}
-			} catch (SocketTimeoutException e) {
-				continue;
+				});
+			} catch (SocketException | ClosedChannelException e) {
+				// Server socket was closed by stop().
+				break;
 			}
 		}
 		
-		// Interrupt all threads
-		for (Thread handlerThread : handlerThreadsList) {
-			handlerThread.interrupt();
-		}
-		
-		// Replace list of all (client connection) threads with the new one.  
-		handlerThreadsList = new ArrayList<>();
-		
 		// Close server socket.
 		serverSocket.close();
 		
-		// Trigger listener (all connections closed)
-		if (onChangeListener != null) {
-			onChangeListener.onChange();
+		// Close all connections, handlers will finish immediately.
+		for (ConnectionHandler handler : handlers) {
+			handler.close();
 		}
+		
+		handlerExecutor.shutdown();
+		
+		// Publish event (all connections closed)
+		publishEvent(ChangeEvent.CONNECTION_CLOSED);
 	}
 	
 	/**
@@ -463,13 +1015,7 @@ public class Communicator {
 	 * 	false: no, there are not
 	 */
 	public boolean hasOpenedConnection() {
-		for (Thread handlerThread : handlerThreadsList) {
-			if (handlerThread.isAlive()) {
-				return true;
-			}
-		}
-		
-		return false;
+		return (getConnectionsCount() > 0);
 	}
 	
 	/**
@@ -477,60 +1023,1019 @@ public class Communicator {
 	 * 	Count of opened (active) connections.
 	 */
 	public int getConnectionsCount() {
-		int result = 0;
+		if (selectorEngine != null) {
+			return selectorEngine.getConnectionsCount();
+		}
+		
+		return handlers.size();
+	}
+	
+	/**
+	 * Determines the command, triggers listener and sends reply to the client.
+	 * Protocol is described in the Javadoc for class {@link Communicator}.
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received.
+	 * 
+	 * @param line
+	 * 	Text string with one-line command (without "\n").
+	 * 
+	 * @throws IOException
+	 * 	Reply couldn't be sent.
+	 */
+	protected void processCommand(ClientConnection connection, String line) throws IOException {
+		if (line.startsWith("#")) {
+			processTaggedCommand(connection, line);
+			return;
+		}
 		
-		for (Thread handlerThread : handlerThreadsList) {
-			if (handlerThread.isAlive()) {
-				result++;
+		if (!admissionControl.admitCommand(connection)) {
+			connection.sendLine(REPLY_BUSY);
+			return;
+		}
+		
+		// Command without ID waits until all previous commands are finished,
+		// so old clients get replies in the same order as before.
+		Semaphore pipeline = connection.getPipeline();
+		pipeline.acquireUninterruptibly(MAX_PIPELINED_COMMANDS);
+		
+		try {
+			CommandLine			command		= connection.getCommandLine();
+			RegisteredCommand	registered	= command.parse(line) ? commands.get(command.getVerb()) : null;
+			
+			// There's no lock, commands from different connections are processed
+			// in parallel. Listener gets the connection with each command, so it
+			// can check out which client is executing the command.
+			if (!isValid(registered, command)) {
+				invalidCommand(connection);
+				return;
 			}
+			
+			registered.handle(connection, command);
+		} finally {
+			pipeline.release(MAX_PIPELINED_COMMANDS);
 		}
+	}
+	
+	/**
+	 * <p>
+	 * 	Processes command with an ID (e.g. {@code #17 GET_STATE}). Reply will
+	 * 	be tagged by the same ID (e.g. {@code #17 PLAYING="yes";...}).
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Commands registered as concurrent are executed in a separate thread and
+	 * 	this method returns immediately, so the next command of the client
+	 * 	might be read before the reply is sent. Their replies might come in any
+	 * 	order. Other commands wait until all previous commands of the client are
+	 * 	finished and all following commands wait for them, so e.g. AUTHENTICATE
+	 * 	is always finished before the following GET_STATE starts.
+	 * </p>
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received.
+	 * 
+	 * @param line
+	 * 	Text string with one-line command (without "\n").
+	 * 
+	 * @throws IOException
+	 * 	Reply couldn't be sent.
+	 */
+	protected void processTaggedCommand(final ClientConnection connection, String line) throws IOException {
+		int separator = line.indexOf(' ');
 		
-		return result;
+		if (separator < 2 || !isNumber(line, 1, separator)) {
+			invalidCommand(connection);
+			return;
+		}
+		
+		ClientConnection taggedConnection = new TaggedConnection(connection, line.substring(0, separator));
+		
+		if (!admissionControl.admitCommand(connection)) {
+			taggedConnection.sendLine(REPLY_BUSY);
+			return;
+		}
+		
+		CommandLine command = new CommandLine();
+		
+		processTagged(
+			connection,
+			taggedConnection,
+			command,
+			command.parse(line.substring(separator + 1)) ? commands.get(command.getVerb()) : null
+		);
 	}
 	
 	/**
-	 * Removes all inactive threads, which were used for communication with
-	 * clients.
+	 * <p>
+	 * 	Processes command received by the binary protocol. Command with request
+	 * 	ID 0 is processed in order (as a command without ID of the text
+	 * 	protocol), command with other ID as a command with ID (see
+	 * 	{@link #processTaggedCommand(ClientConnection, String)}).
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Unlike the text protocol, invalid command always gets reply "NO".
+	 * </p>
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received.
+	 * 
+	 * @param requestId
+	 * 	Request ID from the frame.
+	 * 
+	 * @param command
+	 * 	Decoded command, it mustn't be used by the caller anymore.
+	 * 
+	 * @throws IOException
+	 * 	Reply couldn't be sent.
 	 */
-	protected void removeFinishedThreads() {
-		for (int i = 0; i < handlerThreadsList.size(); i++) {
-			if (!handlerThreadsList.get(i).isAlive()) {
-				handlerThreadsList.remove(i);
-				i--;
+	protected void processFrame(ClientConnection connection, int requestId, CommandLine command) throws IOException {
+		RegisteredCommand registered = commands.get(command.getVerb());
+		
+		if (!admissionControl.admitCommand(connection)) {
+			(requestId != 0 ? new TaggedConnection(connection, requestId) : connection).sendLine(REPLY_BUSY);
+			return;
+		}
+		
+		if (requestId != 0) {
+			processTagged(connection, new TaggedConnection(connection, requestId), command, registered);
+			return;
+		}
+		
+		Semaphore pipeline = connection.getPipeline();
+		pipeline.acquireUninterruptibly(MAX_PIPELINED_COMMANDS);
+		
+		try {
+			if (!isValid(registered, command)) {
+				invalidCommand(connection);
+				connection.sendReply(false);
+				return;
 			}
+			
+			registered.handle(connection, command);
+		} finally {
+			pipeline.release(MAX_PIPELINED_COMMANDS);
 		}
 	}
 	
 	/**
-	 * Parses parameters from the incoming client's command. Commands looks
-	 * like:
+	 * Executes command with an ID, either immediately or in a separate thread
+	 * (see {@link #processTaggedCommand(ClientConnection, String)}).
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received.
 	 * 
-	 * <p>{@code
-	 * 	COMMAND "parameter1" "parameter2"
-	 * }</p>
+	 * @param taggedConnection
+	 * 	Connection, which adds ID of the command to the replies.
 	 * 
 	 * @param command
-	 * 	Text string with one-line command.
+	 * 	Parsed command.
+	 * 
+	 * @param registered
+	 * 	Registered handler of the command (or null, if there's none or the
+	 * 	command isn't well-formed).
+	 * 
+	 * @throws IOException
+	 * 	Reply couldn't be sent.
+	 */
+	private void processTagged(
+		final ClientConnection	connection,
+		final ClientConnection	taggedConnection,
+		final CommandLine		command,
+		final RegisteredCommand	registered
+	) throws IOException {
+		// Client waits for the reply with this ID, so it must get one.
+		if (!isValid(registered, command)) {
+			invalidCommand(connection);
+			taggedConnection.sendReply(false);
+			return;
+		}
+		
+		final Semaphore	pipeline	= connection.getPipeline();
+		final int		permits		= registered.concurrent ? 1 : MAX_PIPELINED_COMMANDS;
+		
+		pipeline.acquireUninterruptibly(permits);
+		
+		if (!registered.concurrent) {
+			try {
+				registered.handle(taggedConnection, command);
+			} finally {
+				pipeline.release(permits);
+			}
+			
+			return;
+		}
+		
+		try {
+			commandExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						registered.handle(taggedConnection, command);
+					} catch (IOException e) {
+						connection.close();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						connection.close();
+					} finally {
+						pipeline.release(permits);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pipeline.release(permits);
+			throw new IOException("Server is being stopped.", e);
+		}
+	}
+	
+	/**
+	 * @param registered
+	 * 	Registered handler of the command (or null, if there's none).
+	 * 
+	 * @param command
+	 * 	Parsed command.
+	 * 
+	 * @return
+	 * 	True if there's a handler and command has the right count of parameters.
+	 */
+	private static boolean isValid(RegisteredCommand registered, CommandLine command) {
+		return (
+			registered != null &&
+			command.getParameterCount() >= registered.minParameterCount &&
+			command.getParameterCount() <= registered.maxParameterCount
+		);
+	}
+	
+	/**
+	 * @param text
+	 * 	Text string.
+	 * 
+	 * @param start
+	 * 	Index of the first character.
+	 * 
+	 * @param end
+	 * 	Index after the last character.
 	 * 
 	 * @return
-	 * 	Array of all parameters (without quotes).
+	 * 	True if all characters in the given range are digits.
 	 */
-	protected List<String> parseParameters(String command) {
-		Matcher			matcher	= parameterPattern.matcher(command);
-		List<String>	result	= new LinkedList<>();
+	private static boolean isNumber(String text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+				return false;
+			}
+		}
 		
-		while (matcher.find()) {
-			result.add(matcher.group().substring(1, matcher.group().length() - 1));
+		return true;
+	}
+	
+	/**
+	 * Registers handler of a command. If there's already a handler for the
+	 * same verb, it'll be replaced.
+	 * 
+	 * @param verb
+	 * 	Name of the command (e.g. "GET_STATE").
+	 * 
+	 * @param parameterCount
+	 * 	Exact count of parameters of the command.
+	 * 
+	 * @param handler
+	 * 	Handler, which will be triggered for the command.
+	 */
+	public void registerCommand(String verb, int parameterCount, CommandHandler handler) {
+		registerCommand(verb, parameterCount, false, handler);
+	}
+	
+	/**
+	 * Registers handler of a command. If there's already a handler for the
+	 * same verb, it'll be replaced.
+	 * 
+	 * @param verb
+	 * 	Name of the command (e.g. "GET_STATE").
+	 * 
+	 * @param parameterCount
+	 * 	Exact count of parameters of the command.
+	 * 
+	 * @param concurrent
+	 * 	True if the command doesn't change anything, so more commands with
+	 * 	IDs from the same client might run in parallel with it (see
+	 * 	{@link #processTaggedCommand(ClientConnection, String)}).
+	 * 
+	 * @param handler
+	 * 	Handler, which will be triggered for the command.
+	 */
+	public void registerCommand(String verb, int parameterCount, boolean concurrent, CommandHandler handler) {
+		registerCommand(verb, parameterCount, parameterCount, concurrent, handler);
+	}
+	
+	/**
+	 * Registers handler of a command with optional parameters. If there's
+	 * already a handler for the same verb, it'll be replaced.
+	 * 
+	 * @param verb
+	 * 	Name of the command (e.g. "UPDATE").
+	 * 
+	 * @param minParameterCount
+	 * 	Minimal count of parameters of the command.
+	 * 
+	 * @param maxParameterCount
+	 * 	Maximal count of parameters of the command.
+	 * 
+	 * @param concurrent
+	 * 	True if the command doesn't change anything (see
+	 * 	{@link #registerCommand(String, int, boolean, CommandHandler)}).
+	 * 
+	 * @param handler
+	 * 	Handler, which will be triggered for the command.
+	 */
+	public void registerCommand(String verb, int minParameterCount, int maxParameterCount, boolean concurrent, CommandHandler handler) {
+		commands.put(verb, new RegisteredCommand(minParameterCount, maxParameterCount, concurrent, handler, statistics.forCommand(verb)));
+	}
+	
+	/**
+	 * Registers handlers of all commands described in the Javadoc for class
+	 * {@link Communicator}.
+	 */
+	protected void registerDefaultCommands() {
+		registerCommand("HELLO", 1, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				String protocol = command.getParameter(0);
+				
+				if (!protocol.equals(PROTOCOL_TEXT) && !protocol.equals(PROTOCOL_BINARY)) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				// Reply is sent by the old protocol, the next command is read
+				// by the new one
+				connection.sendReply(true);
+				connection.getBaseConnection().setBinary(protocol.equals(PROTOCOL_BINARY));
+			}
+		});
+		
+		registerCommand("AUTHENTICATE", 2, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				connection.sendReply(connectionListener.authenticate(connection.getConnectionDescriptor(), command.getParameter(0), command.getParameter(1)));
+			}
+		});
+		
+		registerCommand("CHECK", 1, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				long version;
+				
+				try {
+					version = Long.parseLong(command.getParameter(0));
+				} catch (NumberFormatException e) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendReply(connectionListener.checkVersion(connection.getConnectionDescriptor(), version));
+			}
+		});
+		
+		registerCommand("UPDATE", 0, 1, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				// Compressed library, it's already prepared by the listener
+				if (command.getParameterCount() == 1) {
+					String encoding	= command.getParameter(0);
+					byte[] data		= connectionListener.updateCompressed(connection.getConnectionDescriptor(), encoding);
+					
+					if (data == null) {
+						connection.sendReply(false);
+					}
+					else {
+						connection.sendEncodedData(encoding, data);
+					}
+					
+					return;
+				}
+				
+				File library = connectionListener.update(connection.getConnectionDescriptor());
+				
+				if (library == null) {
+					// Text protocol always replied "null" in this case
+					if (connection.isBinary()) {
+						connection.sendReply(false);
+					}
+					else {
+						connection.sendLine("null");
+					}
+					
+					return;
+				}
+				
+				// File is sent as it is, without loading it into memory
+				connection.sendFile(library);
+			}
+		});
+		
+		registerCommand("UPDATE_SINCE", 1, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				long version;
+				
+				try {
+					version = Long.parseLong(command.getParameter(0));
+				} catch (NumberFormatException e) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				byte[] changes = connectionListener.updateSince(connection.getConnectionDescriptor(), version);
+				
+				if (changes != null) {
+					connection.sendData(changes);
+					return;
+				}
+				
+				// Changes aren't available, whole library is sent instead
+				File library = connectionListener.update(connection.getConnectionDescriptor());
+				
+				if (library == null) {
+					connection.sendReply(false);
+				}
+				else {
+					connection.sendFile(library);
+				}
+			}
+		});
+		
+		registerCommand("LIST_ARTISTS", 0, 2, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				LibraryView	view	= connectionListener.getLibraryView(connection.getConnectionDescriptor());
+				int[]		page	= parsePage(command, 0);
+				
+				if (view == null || page == null) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendData(view.listArtists(page[0], page[1]));
+			}
+		});
+		
+		registerCommand("LIST_ALBUMS", 1, 3, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				LibraryView	view	= connectionListener.getLibraryView(connection.getConnectionDescriptor());
+				int[]		page	= parsePage(command, 1);
+				byte[]		data	= null;
+				
+				if (view != null && page != null) {
+					data = view.listAlbums(command.getParameter(0), page[0], page[1]);
+				}
+				
+				if (data == null) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendData(data);
+			}
+		});
+		
+		registerCommand("LIST_SONGS", 2, 4, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				LibraryView	view	= connectionListener.getLibraryView(connection.getConnectionDescriptor());
+				int[]		page	= parsePage(command, 2);
+				byte[]		data	= null;
+				
+				if (view != null && page != null) {
+					data = view.listSongs(command.getParameter(0), command.getParameter(1), page[0], page[1]);
+				}
+				
+				if (data == null) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendData(data);
+			}
+		});
+		
+		registerCommand("SEARCH", 1, 2, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				LibraryView	view	= connectionListener.getLibraryView(connection.getConnectionDescriptor());
+				int			limit	= DEFAULT_SEARCH_LIMIT;
+				
+				if (command.getParameterCount() == 2) {
+					try {
+						limit = Integer.parseInt(command.getParameter(1));
+					} catch (NumberFormatException e) {
+						limit = -1;
+					}
+				}
+				
+				if (view == null || limit < 0) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendData(view.search(command.getParameter(0), limit));
+			}
+		});
+		
+		registerCommand("GET_STATE", 0, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				PlayerState state = connectionListener.getState(connection.getConnectionDescriptor());
+				
+				if (state == null) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				// Reply is encoded only once for each state
+				connection.sendState(state.getCurrent());
+			}
+		});
+		
+		registerCommand("SUBSCRIBE", 0, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				// Subscriber gets the same informations as GET_STATE, so he
+				// needs the same permission.
+				if (connectionListener.getState(connection.getConnectionDescriptor()) == null) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendReply(true);
+				subscriptions.subscribe(connection.getBaseConnection());
+			}
+		});
+		
+		registerCommand("UNSUBSCRIBE", 0, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				subscriptions.unsubscribe(connection.getBaseConnection());
+				connection.sendReply(true);
+			}
+		});
+		
+		registerCommand("PAUSE", 0, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				connection.sendReply(connectionListener.pause(connection.getConnectionDescriptor()));
+			}
+		});
+		
+		registerCommand("STOP", 0, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				connection.sendReply(connectionListener.stop(connection.getConnectionDescriptor()));
+			}
+		});
+		
+		registerCommand("UNPAUSE", 0, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				connection.sendReply(connectionListener.unpause(connection.getConnectionDescriptor()));
+			}
+		});
+		
+		registerCommand("PLAY", 1, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				connection.sendReply(connectionListener.play(connection.getConnectionDescriptor(), command.getParameter(0)));
+			}
+		});
+		
+		registerCommand("STATS", 0, true, new CommandHandler() {
+			@Override
+			public void handle(ClientConnection connection, CommandLine command) throws IOException {
+				if (!connectionListener.statistics(connection.getConnectionDescriptor())) {
+					connection.sendReply(false);
+					return;
+				}
+				
+				connection.sendData(statistics.formatXml(getGauges()));
+			}
+		});
+	}
+	
+	/**
+	 * Counts the invalid command and lets the connection listener know.
+	 * 
+	 * @param connection
+	 * 	Connection, from which the command was received.
+	 */
+	private void invalidCommand(ClientConnection connection) {
+		statistics.addInvalidCommand();
+		connectionListener.invalidCommand(connection.getConnectionDescriptor());
+	}
+	
+	/**
+	 * @param count
+	 * 	Count of bytes received from a client.
+	 */
+	protected void countBytesIn(long count) {
+		statistics.addBytesIn(count);
+	}
+	
+	/**
+	 * @param count
+	 * 	Count of bytes, which will be sent to a client.
+	 */
+	protected void countBytesOut(long count) {
+		statistics.addBytesOut(count);
+	}
+	
+	/**
+	 * @return
+	 * 	Current values of the server for the statistics.
+	 */
+	private ServerStatistics.Gauges getGauges() {
+		ServerStatistics.Gauges gauges = new ServerStatistics.Gauges();
+		
+		gauges.connections			= getConnectionsCount();
+		gauges.rejectedConnections	= admissionControl.getRejectedConnections();
+		gauges.rejectedCommands		= admissionControl.getRejectedCommands();
+		
+		return gauges;
+	}
+	
+	/**
+	 * Returns statistics as plain text with one value per line, e.g.
+	 * {@code communicator_command_count_total{verb="GET_STATE"} 10}. Latencies
+	 * are in microseconds. The same text is served by
+	 * {@link #startStatisticsServer(int)}.
+	 * 
+	 * @return
+	 * 	Text with lines separated by "\n".
+	 */
+	public String getStatisticsText() {
+		return statistics.formatText(getGauges());
+	}
+	
+	/**
+	 * Starts a HTTP server, which serves {@link #getStatisticsText()} on path
+	 * {@value #STATISTICS_PATH}. It listens only on the loopback address, so
+	 * only a local scraper might read it. Server is stopped by {@link #stop()}.
+	 * 
+	 * @param port
+	 * 	Number of TCP port to listen on.
+	 * 
+	 * @throws IOException
+	 * 	Server couldn't be started (e.g. port is already used).
+	 */
+	public synchronized void startStatisticsServer(int port) throws IOException {
+		if (statisticsServer != null) {
+			return;
+		}
+		
+		statisticsServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		statisticsServer.createContext(STATISTICS_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = getStatisticsText().getBytes(BinaryProtocol.UTF8);
+				
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+			}
+		});
+		statisticsServer.start();
+	}
+	
+	/**
+	 * Stops the HTTP server with statistics, if it's running.
+	 */
+	public synchronized void stopStatisticsServer() {
+		if (statisticsServer != null) {
+			statisticsServer.stop(0);
+			statisticsServer = null;
+		}
+	}
+	
+	/**
+	 * Starts answering UDP queries of clients, which are looking for the
+	 * server (see {@link DiscoveryResponder}). Reply contains the name of the
+	 * server, TCP port, supported protocols and version of the music library.
+	 * Responder is stopped by {@link #stop()}.
+	 * 
+	 * @param port
+	 * 	Number of UDP port to listen on (0 = any free port, see
+	 * 	{@link #getDiscoveryPort()}).
+	 * 
+	 * @param name
+	 * 	Name of the server shown to users.
+	 * 
+	 * @throws IOException
+	 * 	Socket couldn't be opened (e.g. port is already used).
+	 */
+	public synchronized void startDiscovery(int port, String name) throws IOException {
+		if (discoveryResponder != null) {
+			return;
+		}
+		
+		discoveryResponder = new DiscoveryResponder(this, port, name);
+		
+		Thread thread = new Thread(discoveryResponder, "Discovery");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops answering UDP queries, if the responder is running.
+	 */
+	public synchronized void stopDiscovery() {
+		if (discoveryResponder != null) {
+			discoveryResponder.stop();
+			discoveryResponder = null;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Number of UDP port of the discovery, or 0 if it isn't started.
+	 */
+	public synchronized int getDiscoveryPort() {
+		return (discoveryResponder != null ? discoveryResponder.getLocalPort() : 0);
+	}
+	
+	/**
+	 * @return
+	 * 	Number of TCP port, on which clients connect.
+	 */
+	public int getTcpListenPort() {
+		return tcpListenPort;
+	}
+	
+	/**
+	 * @return
+	 * 	Version of the music library, which is sent by UPDATE (0 if it's
+	 * 	unknown).
+	 */
+	long getLibraryVersion() {
+		ConnectionListener connectionListener = this.connectionListener;
+		return (connectionListener != null ? connectionListener.getLibraryVersion() : 0);
+	}
+	
+	/**
+	 * Lets the connection listener know, that connection was opened. It must
+	 * be called before the first command of the connection is processed.
+	 * 
+	 * @param connection
+	 * 	Connection, which was opened.
+	 */
+	protected void connectionOpened(ClientConnection connection) {
+		if (connectionListener != null) {
+			connectionListener.open(connection.getConnectionDescriptor());
 		}
+	}
+	
+	/**
+	 * Lets the connection listener know, that connection was closed.
+	 * 
+	 * @param connection
+	 * 	Connection, which was closed.
+	 */
+	protected void connectionClosed(ClientConnection connection) {
+		subscriptions.unsubscribe(connection);
 		
-		return result;
+		if (connectionListener != null) {
+			connectionListener.close(connection.getConnectionDescriptor());
+		}
+	}
+	
+	/**
+	 * Pushes the new state of the player to all clients, which subscribed for
+	 * it using command SUBSCRIBE. It never blocks, so it might be called
+	 * directly when the player changes.
+	 * 
+	 * @param state
+	 * 	The new state of the player.
+	 */
+	public void publishState(PlayerState state) {
+		subscriptions.publish(state);
 	}
 	
 	/**
-	 * @param onChangeListener
-	 * 	Sets listener, which will be triggered, if something changes.
+	 * Reads optional parameters "offset" and "limit" of the LIST_* commands.
+	 * 
+	 * @param command
+	 * 	The command.
+	 * 
+	 * @param first
+	 * 	Index of the parameter "offset".
+	 * 
+	 * @return
+	 * 	Array with offset and limit (0 and {@link LibraryView#MAX_PAGE_SIZE}
+	 * 	if they're missing), or null if they aren't valid numbers.
+	 */
+	private static int[] parsePage(CommandLine command, int first) {
+		int[] page = {0, LibraryView.MAX_PAGE_SIZE};
+		
+		try {
+			for (int i = 0; i < 2 && first + i < command.getParameterCount(); i++) {
+				page[i] = Integer.parseInt(command.getParameter(first + i));
+				
+				if (page[i] < 0) {
+					return null;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		
+		return page;
+	}
+	
+	/**
+	 * Formats the state of the player in the same way, as it's sent as a
+	 * reply to GET_STATE (without "\n").
+	 * 
+	 * @param state
+	 * 	State of the player.
+	 * 
+	 * @return
+	 * 	One-line text string describing the state.
+	 */
+	public static String formatState(PlayerState state) {
+		return formatStatePrefix(state) + state.getPosition() + "\";";
+	}
+	
+	/**
+	 * Formats the reply to GET_STATE up to the value of the position, which
+	 * is the last value (see {@link #formatState(PlayerState)}).
+	 * 
+	 * @param state
+	 * 	State of the player.
+	 * 
+	 * @return
+	 * 	The beginning of the reply, it ends by {@code POSITION="}.
+	 */
+	static String formatStatePrefix(PlayerState state) {
+		return
+			"PLAYING=\""	+ (state.isPlaying() ? "yes" : "no")	+ "\";" +
+			"ARTIST=\""		+ state.getArtist()						+ "\";" +
+			"ALBUM=\""		+ state.getAlbum()						+ "\";" +
+			"SONG=\""		+ state.getSong()						+ "\";" +
+			"LENGTH=\""		+ state.getLength()						+ "\";" +
+			"POSITION=\"";
+	}
+	
+	/**
+	 * Decides, if a new connection might be accepted (see
+	 * {@link AdmissionControl}). Rejected connection gets line "BUSY" and
+	 * it's closed immediately.
+	 * 
+	 * @param channel
+	 * 	Channel of the new connection.
+	 * 
+	 * @return
+	 * 	True if the connection is accepted.
+	 */
+	protected boolean admitConnection(SocketChannel channel) {
+		if (admissionControl.admitConnection(channel.socket().getInetAddress(), getConnectionsCount())) {
+			return true;
+		}
+		
+		// Reply is short, so it fits into the empty buffer of the socket
+		// even if the channel is in non-blocking mode
+		try {
+			channel.write(ByteBuffer.wrap(ClientConnection.encodeLine(REPLY_BUSY)));
+		} catch (IOException e) {
+			// Client is already gone
+		}
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Sets the maximal count of opened connections. Client, which connects
+	 * when the limit is reached, gets line "BUSY" and it's disconnected.
+	 * 
+	 * @param maxConnections
+	 * 	Maximal count of connections (0 = unlimited, default is
+	 * 	{@value AdmissionControl#DEFAULT_MAX_CONNECTIONS}).
+	 */
+	public void setMaxConnections(int maxConnections) {
+		admissionControl.setMaxConnections(maxConnections);
+	}
+	
+	/**
+	 * Sets the rate limit of commands of each connection. Commands over the
+	 * limit get reply "BUSY" instead of being processed.
+	 * 
+	 * @param rate
+	 * 	Count of commands per second (0 = unlimited, default is
+	 * 	{@value AdmissionControl#DEFAULT_CONNECTION_RATE}).
+	 * 
+	 * @param burst
+	 * 	Count of commands, which might be sent at once (default is
+	 * 	{@value AdmissionControl#DEFAULT_CONNECTION_BURST}).
+	 */
+	public void setConnectionRateLimit(double rate, int burst) {
+		admissionControl.setConnectionRate(rate, burst);
+	}
+	
+	/**
+	 * Sets the rate limit of commands and new connections of each IP address
+	 * (all connections from the address share it).
+	 * 
+	 * @param rate
+	 * 	Count of commands and connections per second (0 = unlimited, default
+	 * 	is {@value AdmissionControl#DEFAULT_ADDRESS_RATE}).
+	 * 
+	 * @param burst
+	 * 	Count of commands and connections, which might come at once (default
+	 * 	is {@value AdmissionControl#DEFAULT_ADDRESS_BURST}).
+	 */
+	public void setAddressRateLimit(double rate, int burst) {
+		admissionControl.setAddressRate(rate, burst);
+	}
+	
+	/**
+	 * @return
+	 * 	Count of connections rejected by limits since the server was created.
+	 */
+	public long getRejectedConnectionsCount() {
+		return admissionControl.getRejectedConnections();
+	}
+	
+	/**
+	 * @return
+	 * 	Count of commands rejected by limits since the server was created.
+	 */
+	public long getRejectedCommandsCount() {
+		return admissionControl.getRejectedCommands();
+	}
+	
+	/**
+	 * Creates structure describing a new connection (it must be unique).
+	 * 
+	 * @param deviceInetAddress
+	 * 	Network address of the client (IP address).
+	 * 
+	 * @return
+	 * 	Descriptor with an unique ID.
+	 */
+	protected ConnectionDescriptor createConnectionDescriptor(InetAddress deviceInetAddress) {
+		return new ConnectionDescriptor(connectionIdCounter.getAndIncrement(), deviceInetAddress);
+	}
+	
+	/**
+	 * Publishes the event to the {@link EventBus}, if there's any.
+	 * 
+	 * @param event
+	 * 	Type of the change.
+	 */
+	protected void publishEvent(ChangeEvent event) {
+		EventBus eventBus = this.eventBus;
+		
+		if (eventBus != null) {
+			eventBus.publish(event);
+		}
+	}
+	
+	/**
+	 * @param eventBus
+	 * 	Bus, to which are published changes of connections.
+	 */
+	public void setEventBus(EventBus eventBus) {
+		this.eventBus = eventBus;
+	}
+	
+	/**
+	 * Sets the way, how are client connections served. It must be called
+	 * before the server is started using method {@link #run()}.
+	 * 
+	 * @param mode
+	 * 	{@link Mode#THREAD_PER_CONNECTION} (default),
+	 * 	{@link Mode#VIRTUAL_THREAD_PER_CONNECTION} or {@link Mode#SELECTOR}.
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+	
+	/**
+	 * Sets count of event-loop threads used in {@link Mode#SELECTOR}. It must
+	 * be called before the server is started using method {@link #run()}.
+	 * 
+	 * @param selectorThreads
+	 * 	Count of threads (at least 1).
 	 */
-	public void setOnChangeListener(OnChangeListener onChangeListener) {
-		this.onChangeListener = onChangeListener;
+	public void setSelectorThreads(int selectorThreads) {
+		this.selectorThreads = Math.max(1, selectorThreads);
 	}
 }
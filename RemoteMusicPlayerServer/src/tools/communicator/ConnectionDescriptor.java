@@ -32,6 +32,14 @@ public class ConnectionDescriptor {
 		return deviceInetAddress;
 	}
 	
+	/**
+	 * @return
+	 * 	Unique ID of the connection.
+	 */
+	public int getConnectionId() {
+		return connectionId;
+	}
+	
 	/**
 	 * Compares this instance of this class against the other.
 	 * 
@@ -41,6 +49,10 @@ public class ConnectionDescriptor {
 	 */
 	@Override
 	public boolean equals(Object obj) {
+		if (!(obj instanceof ConnectionDescriptor)) {
+			return false;
+		}
+		
 		ConnectionDescriptor connectionDescriptor = (ConnectionDescriptor) obj;
 		
 		return (
@@ -49,4 +61,14 @@ public class ConnectionDescriptor {
 			this.connectionId == connectionDescriptor.connectionId
 		);
 	}
+	
+	/**
+	 * @return
+	 * 	Hash code consistent with {@link #equals(Object)}, IDs are unique, so
+	 * 	it's just the ID.
+	 */
+	@Override
+	public int hashCode() {
+		return connectionId;
+	}
 }
@@ -1,27 +1,45 @@
 package tools.communicator;
 
+import java.io.File;
+
+import tools.LibraryView;
+
 /**
  * <p>
  * 	This interface must be implemented by each listener for the client's
  * 	commands. It's important to remember, that all connections uses only one
- * 	implementation and one instance of this class. For this reason, there's a
- * 	method {@link #setActiveConnection(ConnectionDescriptor)}, which is triggered
- * 	before each call of any other method, so it's possible to detect which client
- * 	generated the command.
+ * 	implementation and one instance of this class. For this reason, each
+ * 	method gets a {@link ConnectionDescriptor} of the connection, which
+ * 	generated the command, so it's possible to detect which client it was.
+ * 	Only {@link #getLibraryVersion()} isn't related to a connection, it's
+ * 	used to answer discovery queries (see
+ * 	{@link Communicator#startDiscovery(int, String)}).
+ * </p>
+ * 
+ * <p>
+ * 	Methods are triggered concurrently from threads serving different
+ * 	connections, there's no global lock. Implementation has to take care of
+ * 	synchronization of the operations, which mustn't run in parallel (e.g.
+ * 	control of the player).
  * </p>
  * 
  * @author Tomáš Zíma
  */
 public interface ConnectionListener {
-	public void			setActiveConnection(ConnectionDescriptor connectionDescriptor);
-	public boolean		authenticate(String device, String password);
-	public void			invalidCommand();
-	public void			close();
-	public boolean		checkVersion(long version);
-	public String		update();
-	public PlayerState	getState();
-	public boolean		pause();
-	public boolean		unpause();
-	public boolean		stop();
-	public boolean		play(String filename);
+	public boolean		authenticate(ConnectionDescriptor connection, String device, String password);
+	public void			invalidCommand(ConnectionDescriptor connection);
+	public void			open(ConnectionDescriptor connection);
+	public void			close(ConnectionDescriptor connection);
+	public boolean		checkVersion(ConnectionDescriptor connection, long version);
+	public File			update(ConnectionDescriptor connection);
+	public byte[]		updateCompressed(ConnectionDescriptor connection, String encoding);
+	public byte[]		updateSince(ConnectionDescriptor connection, long version);
+	public LibraryView	getLibraryView(ConnectionDescriptor connection);
+	public PlayerState	getState(ConnectionDescriptor connection);
+	public boolean		pause(ConnectionDescriptor connection);
+	public boolean		unpause(ConnectionDescriptor connection);
+	public boolean		stop(ConnectionDescriptor connection);
+	public boolean		play(ConnectionDescriptor connection, String filename);
+	public boolean		statistics(ConnectionDescriptor connection);
+	public long			getLibraryVersion();
 }
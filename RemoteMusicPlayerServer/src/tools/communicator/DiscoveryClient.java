@@ -0,0 +1,109 @@
+package tools.communicator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 	Sends the discovery query (see {@link DiscoveryResponder}) and collects
+ * 	replies of all servers, which answer within the timeout. It might be used
+ * 	from the command line to check the discovery:
+ * </p>
+ * 
+ * <pre>
+ * 	java tools.communicator.DiscoveryClient [ADDRESS] [PORT] [TIMEOUT_MS]
+ * </pre>
+ * 
+ * <p>
+ * 	Address is the broadcast address by default, but it might be also the
+ * 	multicast group or the address of one server (e.g. 127.0.0.1).
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class DiscoveryClient {
+	/** Default address of the query (broadcast to the local network). */
+	public static final String	DEFAULT_ADDRESS	= "255.255.255.255";
+	
+	/** Default time of waiting for replies (in milliseconds). */
+	public static final int		DEFAULT_TIMEOUT	= 1000;
+	
+	/**
+	 * Sends the query and waits for replies.
+	 * 
+	 * @param address
+	 * 	Broadcast address, multicast group or address of one server.
+	 * 
+	 * @param port
+	 * 	UDP port of the discovery.
+	 * 
+	 * @param timeout
+	 * 	Time of waiting for replies (in milliseconds).
+	 * 
+	 * @return
+	 * 	Replies (without "\n") by addresses of the servers, in the order in
+	 * 	which they came.
+	 * 
+	 * @throws IOException
+	 * 	Query couldn't be sent.
+	 */
+	public static Map<InetSocketAddress, String> discover(InetAddress address, int port, int timeout) throws IOException {
+		Map<InetSocketAddress, String> replies = new LinkedHashMap<>();
+		
+		try (DatagramSocket socket = new DatagramSocket()) {
+			byte[] query = (DiscoveryResponder.QUERY + "\n").getBytes(StandardCharsets.US_ASCII);
+			
+			socket.setBroadcast(true);
+			socket.send(new DatagramPacket(query, query.length, address, port));
+			
+			byte[]			buffer		= new byte[1024];
+			DatagramPacket	reply		= new DatagramPacket(buffer, buffer.length);
+			long			deadline	= System.currentTimeMillis() + timeout;
+			
+			for (long remaining = timeout; remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+				socket.setSoTimeout((int) remaining);
+				reply.setLength(buffer.length);
+				
+				try {
+					socket.receive(reply);
+				} catch (SocketTimeoutException e) {
+					break;
+				}
+				
+				String text = new String(buffer, 0, reply.getLength(), StandardCharsets.ISO_8859_1).trim();
+				replies.put((InetSocketAddress) reply.getSocketAddress(), text);
+			}
+		}
+		
+		return replies;
+	}
+	
+	/**
+	 * @param args
+	 * 	Address, port and timeout (all optional).
+	 * 
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		InetAddress	address	= InetAddress.getByName(args.length > 0 ? args[0] : DEFAULT_ADDRESS);
+		int			port	= (args.length > 1 ? Integer.parseInt(args[1]) : Communicator.DEFAULT_DISCOVERY_PORT);
+		int			timeout	= (args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TIMEOUT);
+		
+		Map<InetSocketAddress, String> replies = discover(address, port, timeout);
+		
+		for (Map.Entry<InetSocketAddress, String> reply : replies.entrySet()) {
+			System.out.println(reply.getKey().getAddress().getHostAddress() + " " + reply.getValue());
+		}
+		
+		if (replies.isEmpty()) {
+			System.out.println("No server found.");
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package tools.communicator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+
+/**
+ * <p>
+ * 	Answers UDP queries of clients, which are looking for the server, so they
+ * 	don't have to probe the whole subnet. Client sends datagram with line
+ * 	{@value #QUERY} (as a broadcast, to the multicast group
+ * 	{@value #DEFAULT_GROUP} or directly to the server) and gets reply:
+ * </p>
+ * 
+ * <p>{@code
+ * 	SERVER NAME="living-room";PORT="9999";PROTOCOLS="TEXT,BINARY";LIBRARY="9201873486367996336";
+ * }</p>
+ * 
+ * <p>
+ * 	Client might connect to the TCP port immediately. If its cached music
+ * 	library has the same version, it doesn't need to send CHECK.
+ * </p>
+ * 
+ * <p>
+ * 	Reply is sent only to well-formed queries, queries from privileged ports
+ * 	(e.g. spoofed DNS replies) are ignored and count of replies per second is
+ * 	limited, so the server can't be easily used to flood somebody else.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class DiscoveryResponder implements Runnable {
+	/** Text of the query (trailing "\n" is allowed). */
+	public static final String		QUERY				= "DISCOVER";
+	
+	/** Multicast group, which is joined by the responder. */
+	public static final String		DEFAULT_GROUP		= "239.255.99.99";
+	
+	/** Maximal count of replies per second. */
+	private static final double		REPLY_RATE			= 50;
+	
+	/** Count of replies, which might be sent at once. */
+	private static final int		REPLY_BURST			= 100;
+	
+	/** Maximal length of a query, longer datagrams are ignored. */
+	private static final int		MAX_QUERY_LENGTH	= 64;
+	
+	/** Queries from lower ports (reserved for system services) are ignored. */
+	private static final int		MIN_CLIENT_PORT		= 1024;
+	
+	/** Socket receiving queries. */
+	private final MulticastSocket	socket;
+	
+	/** Communicator, which is described by replies. */
+	private final Communicator		communicator;
+	
+	/** Name of the server shown to users. */
+	private final String			name;
+	
+	/** Limit of replies of all clients. */
+	private final TokenBucket		replies				= new TokenBucket(REPLY_RATE, REPLY_BURST);
+	
+	/** True if the responder was stopped. */
+	private volatile boolean		stopped				= false;
+	
+	/**
+	 * Opens the socket. Multicast group is joined if possible, otherwise
+	 * broadcast and direct queries still work.
+	 * 
+	 * @param communicator
+	 * 	Communicator, which is described by replies.
+	 * 
+	 * @param port
+	 * 	Number of UDP port to listen on (0 = any free port).
+	 * 
+	 * @param name
+	 * 	Name of the server shown to users.
+	 * 
+	 * @throws IOException
+	 * 	Socket couldn't be opened (e.g. port is already used).
+	 */
+	public DiscoveryResponder(Communicator communicator, int port, String name) throws IOException {
+		this.communicator	= communicator;
+		this.name			= name.replace('"', '\'');
+		this.socket			= new MulticastSocket(null);
+		
+		socket.setReuseAddress(true);
+		socket.bind(new InetSocketAddress(port));
+		
+		try {
+			// Group is joined on the default interface of the system
+			socket.joinGroup(new InetSocketAddress(InetAddress.getByName(DEFAULT_GROUP), 0), null);
+		} catch (IOException e) {
+			System.err.println("DiscoveryResponder: Multicast group couldn't be joined: " + e.getMessage());
+		}
+	}
+	
+	@Override
+	public void run() {
+		byte[]			buffer	= new byte[MAX_QUERY_LENGTH + 1];
+		DatagramPacket	query	= new DatagramPacket(buffer, buffer.length);
+		
+		while (!stopped) {
+			try {
+				query.setLength(buffer.length);
+				socket.receive(query);
+				
+				if (isQuery(query) && query.getPort() >= MIN_CLIENT_PORT && replies.tryConsume()) {
+					byte[] reply = ClientConnection.encodeLine(formatReply());
+					socket.send(new DatagramPacket(reply, reply.length, query.getSocketAddress()));
+				}
+			} catch (SocketException e) {
+				// Socket was closed by stop()
+				if (stopped) {
+					return;
+				}
+			} catch (IOException e) {
+				// Reply couldn't be sent to this client, others might be fine
+			}
+		}
+	}
+	
+	/**
+	 * @param packet
+	 * 	Received datagram.
+	 * 
+	 * @return
+	 * 	True if the datagram contains the query.
+	 */
+	private static boolean isQuery(DatagramPacket packet) {
+		int length = packet.getLength();
+		
+		if (length > 0 && packet.getData()[packet.getOffset() + length - 1] == '\n') {
+			length--;
+		}
+		
+		if (length != QUERY.length()) {
+			return false;
+		}
+		
+		for (int i = 0; i < length; i++) {
+			if (packet.getData()[packet.getOffset() + i] != QUERY.charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return
+	 * 	Text of the reply (without "\n").
+	 */
+	private String formatReply() {
+		return
+			"SERVER " +
+			"NAME=\""		+ name								+ "\";" +
+			"PORT=\""		+ communicator.getTcpListenPort()	+ "\";" +
+			"PROTOCOLS=\""	+ "TEXT,BINARY"						+ "\";" +
+			"LIBRARY=\""	+ communicator.getLibraryVersion()	+ "\";";
+	}
+	
+	/**
+	 * @return
+	 * 	Number of UDP port, on which queries are received.
+	 */
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+	
+	/**
+	 * Closes the socket, method {@link #run()} returns soon after that.
+	 */
+	public void stop() {
+		stopped = true;
+		socket.close();
+	}
+}
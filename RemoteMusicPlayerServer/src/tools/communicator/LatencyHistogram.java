@@ -0,0 +1,184 @@
+package tools.communicator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * 	Histogram of latencies with fixed memory (similar to HdrHistogram). Values
+ * 	below {@value #LINEAR_LIMIT} ns have their own buckets, each higher power
+ * 	of two is split into {@value #SUB_BUCKETS} buckets, so the relative error
+ * 	of percentiles is about 3 %. Values from 2^41 ns (about 36 minutes) are
+ * 	counted in the last bucket. One histogram takes less than 10 kB.
+ * </p>
+ * 
+ * <p>
+ * 	Recording only increments atomic counters, so it might be called by many
+ * 	threads at once and it doesn't allocate any memory.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class LatencyHistogram {
+	/** Count of bits of the sub-bucket index. */
+	private static final int		SUB_BUCKET_BITS	= 5;
+	
+	/** Count of buckets for each power of two. */
+	private static final int		SUB_BUCKETS		= 1 << SUB_BUCKET_BITS;
+	
+	/** Values below this limit are stored exactly. */
+	private static final int		LINEAR_LIMIT	= 2 * SUB_BUCKETS;
+	
+	/** Exponent of the highest power of two, which has its own buckets. */
+	private static final int		MAX_EXPONENT	= 40;
+	
+	/** Total count of buckets. */
+	private static final int		BUCKET_COUNT	= LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	/** Count of values in each bucket. */
+	private final AtomicLongArray	buckets			= new AtomicLongArray(BUCKET_COUNT);
+	
+	/** The highest recorded value. */
+	private final AtomicLong		max				= new AtomicLong();
+	
+	/** Sum of all recorded values. */
+	private final AtomicLong		sum				= new AtomicLong();
+	
+	/**
+	 * Records one value.
+	 * 
+	 * @param value
+	 * 	Latency in nanoseconds (negative value is taken as 0).
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		
+		buckets.incrementAndGet(bucketOf(value));
+		sum.addAndGet(value);
+		
+		for (long current = max.get(); value > current; current = max.get()) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @param value
+	 * 	Non-negative value.
+	 * 
+	 * @return
+	 * 	Index of the bucket for the value.
+	 */
+	private static int bucketOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		
+		if (exponent > MAX_EXPONENT) {
+			return BUCKET_COUNT - 1;
+		}
+		
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * @param bucket
+	 * 	Index of the bucket.
+	 * 
+	 * @return
+	 * 	The highest value, which belongs to the bucket.
+	 */
+	private static long highestValueOf(int bucket) {
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+		
+		int exponent	= (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket	= (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+		int shift		= exponent - SUB_BUCKET_BITS;
+		
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+	
+	/**
+	 * @return
+	 * 	Count of recorded values.
+	 */
+	public long getCount() {
+		long count = 0;
+		
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return
+	 * 	The highest recorded value (0 if there's none).
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return
+	 * 	Sum of all recorded values.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+	
+	/**
+	 * Computes percentiles of the recorded values. Values recorded during the
+	 * computation might be included or not.
+	 * 
+	 * @param percentiles
+	 * 	Requested percentiles (e.g. 50.0 and 99.0) in ascending order.
+	 * 
+	 * @return
+	 * 	Upper bound of each percentile (at most the highest value), or zeros
+	 * 	if nothing was recorded.
+	 */
+	public long[] getPercentiles(double... percentiles) {
+		long[]	counts	= new long[BUCKET_COUNT];
+		long	total	= 0;
+		
+		// Take a copy, so all percentiles are computed from the same data
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i]	= buckets.get(i);
+			total		+= counts[i];
+		}
+		
+		long[]	result	= new long[percentiles.length];
+		long	highest	= max.get();
+		
+		if (total == 0) {
+			return result;
+		}
+		
+		long	seen	= 0;
+		int		bucket	= 0;
+		
+		for (int i = 0; i < percentiles.length; i++) {
+			long rank = Math.max(1, (long) Math.ceil(percentiles[i] / 100.0 * total));
+			
+			while (bucket < BUCKET_COUNT - 1 && seen + counts[bucket] < rank) {
+				seen += counts[bucket];
+				bucket++;
+			}
+			
+			result[i] = Math.min(highestValueOf(bucket), highest);
+		}
+		
+		return result;
+	}
+}
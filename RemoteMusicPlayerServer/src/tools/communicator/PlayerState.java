@@ -1,19 +1,54 @@
 package tools.communicator;
 
+import java.util.Arrays;
+
 /**
- * Logic-poor class, which contains informations about current state of the
- * player.
+ * <p>
+ * 	Logic-poor class, which contains informations about current state of the
+ * 	player.
+ * </p>
+ * 
+ * <p>
+ * 	The state is immutable, so it might be read by many threads without
+ * 	locking and a change of the player replaces the whole state. While the
+ * 	player is playing, {@link #getCurrent()} derives the current position
+ * 	from the time elapsed since the state was created.
+ * </p>
+ * 
+ * <p>
+ * 	Reply to GET_STATE is encoded only once for each state. Encoded text
+ * 	without the position is shared by all derived states, so only the
+ * 	position is encoded again when it changes.
+ * </p>
  * 
  * @author Tomáš Zíma
  */
 public class PlayerState {
-	private boolean	playing		= false;
-	private String	artist		= "";
-	private String	album		= "";
-	private String	song		= "";
-	private String	file		= "";
-	private long	length		= 0;
-	private long	position	= 0;
+	private final boolean	playing;
+	private final String	artist;
+	private final String	album;
+	private final String	song;
+	private final String	file;
+	private final long		length;
+	private final long		position;
+	
+	/** Time, when the position was valid (System.nanoTime()). */
+	private final long		timestamp;
+	
+	/** Reply to GET_STATE up to the value of the position (text protocol). */
+	private final byte[]	textPrefix;
+	
+	/** Reply to GET_STATE up to the value of the position (binary protocol). */
+	private final byte[]	utf8Prefix;
+	
+	/** The whole reply including "\n" (text protocol), created when needed. */
+	private volatile byte[]	textReply;
+	
+	/** The whole reply (binary protocol), created when needed. */
+	private volatile byte[]	utf8Reply;
+	
+	/** State with the latest position, which was derived from this one. */
+	private volatile PlayerState	latest;
 	
 	/**
 	 * Use this constructor if the player is playing or paused. If player is stopped,
@@ -31,6 +66,9 @@ public class PlayerState {
 	 * @param song
 	 * 	Name of the song.
 	 * 
+	 * @param file
+	 * 	Fully qualified name of the file.
+	 * 
 	 * @param length
 	 * 	Total length of the song in seconds.
 	 * 
@@ -45,6 +83,12 @@ public class PlayerState {
 		this.file		= file;
 		this.length		= length;
 		this.position	= position;
+		this.timestamp	= System.nanoTime();
+		
+		String prefix = Communicator.formatStatePrefix(this);
+		
+		this.textPrefix	= encodeText(prefix);
+		this.utf8Prefix	= prefix.getBytes(BinaryProtocol.UTF8);
 	}
 	
 	/**
@@ -52,7 +96,29 @@ public class PlayerState {
 	 * false and all other values will be left empty.
 	 */
 	public PlayerState() {
-		this.playing = false;
+		this(false, "", "", "", "", 0, 0);
+	}
+	
+	/**
+	 * Creates the same state with another position, encoded text is shared.
+	 * 
+	 * @param state
+	 * 	The original state.
+	 * 
+	 * @param position
+	 * 	The new position in the song in seconds.
+	 */
+	private PlayerState(PlayerState state, long position) {
+		this.playing	= state.playing;
+		this.artist		= state.artist;
+		this.album		= state.album;
+		this.song		= state.song;
+		this.file		= state.file;
+		this.length		= state.length;
+		this.position	= position;
+		this.timestamp	= state.timestamp + (position - state.position) * 1000000000L;
+		this.textPrefix	= state.textPrefix;
+		this.utf8Prefix	= state.utf8Prefix;
 	}
 	
 	/**
@@ -112,18 +178,121 @@ public class PlayerState {
 	}
 	
 	/**
+	 * Creates a new state of the same song (e.g. when the player is paused).
+	 * 
 	 * @param playing
 	 * 	True: plays, false: doesn't play
+	 * 
+	 * @param position
+	 * 	Current position in the song (in seconds).
+	 * 
+	 * @return
+	 * 	The new state.
 	 */
-	public void setPlaying(boolean playing) {
-		this.playing = playing;
+	public PlayerState withPlaying(boolean playing, long position) {
+		return new PlayerState(playing, artist, album, song, file, length, position);
 	}
 	
 	/**
-	 * @param position
-	 * 	Current position in the song (in seconds).
+	 * Returns the state with the current position. If the player is playing,
+	 * the position is increased by the time elapsed since this state was
+	 * created (but it's never greater than the length of the song). States
+	 * with a new position are created at most once per second, all callers
+	 * get the same instance in the meantime.
+	 * 
+	 * @return
+	 * 	This state or a state derived from it.
+	 */
+	public PlayerState getCurrent() {
+		if (!playing) {
+			return this;
+		}
+		
+		long currentPosition = position + (System.nanoTime() - timestamp) / 1000000000L;
+		
+		if (length > 0) {
+			currentPosition = Math.min(currentPosition, length);
+		}
+		
+		if (currentPosition == position) {
+			return this;
+		}
+		
+		PlayerState current = latest;
+		
+		// Race only creates the same state twice, both are correct
+		if (current == null || current.position != currentPosition) {
+			current	= new PlayerState(this, currentPosition);
+			latest	= current;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * @return
+	 * 	Reply to GET_STATE for the text protocol (including "\n").
+	 */
+	byte[] getTextReply() {
+		byte[] reply = textReply;
+		
+		if (reply == null) {
+			reply		= concat(textPrefix, encodeText(position + "\";\n"));
+			textReply	= reply;
+		}
+		
+		return reply;
+	}
+	
+	/**
+	 * @return
+	 * 	Reply to GET_STATE for the binary protocol (payload of a text frame).
+	 */
+	byte[] getUtf8Reply() {
+		byte[] reply = utf8Reply;
+		
+		if (reply == null) {
+			reply		= concat(utf8Prefix, encodeText(position + "\";"));
+			utf8Reply	= reply;
+		}
+		
+		return reply;
+	}
+	
+	/**
+	 * Encodes the text the same way as DataOutputStream.writeBytes() does it
+	 * (each character is written as a single byte).
+	 * 
+	 * @param text
+	 * 	Text to be encoded.
+	 * 
+	 * @return
+	 * 	Encoded text.
+	 */
+	private static byte[] encodeText(String text) {
+		byte[] result = new byte[text.length()];
+		
+		for (int i = 0; i < text.length(); i++) {
+			result[i] = (byte) text.charAt(i);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @param first
+	 * 	The first part.
+	 * 
+	 * @param second
+	 * 	The second part.
+	 * 
+	 * @return
+	 * 	Both parts in one array.
 	 */
-	public void setPosition(long position) {
-		this.position = position;
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
 	}
 }
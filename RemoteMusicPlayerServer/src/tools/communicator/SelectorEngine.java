@@ -0,0 +1,882 @@
+package tools.communicator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import application.controller.ChangeEvent;
+
+/**
+ * <p>
+ * 	This class serves client connections of {@link Communicator} using
+ * 	non-blocking channels. Instead of one thread per client, there are only
+ * 	a few event-loop threads, each of them with its own selector. The first
+ * 	event loop runs in the thread, which called {@link #run()}, and it also
+ * 	accepts new connections and distributes them between all event loops.
+ * </p>
+ * 
+ * <p>
+ * 	Each connection has its own read buffer, in which the incoming data are
+ * 	split into lines, and its own queue of outgoing data. Commands are
+ * 	processed by {@link Communicator#processCommand(ClientConnection, String)}
+ * 	in a pool of worker threads (one command of a connection at a time), so
+ * 	the protocol is exactly the same as in the thread-per-connection mode.
+ * 	Idle connections are only registered in the selector and they don't
+ * 	consume any CPU time.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class SelectorEngine {
+	/** Initial size of the read buffer of each connection. */
+	private static final int		READ_BUFFER_SIZE	= 1024;
+	
+	/**
+	 * Maximal length of one line (command) from the client. If the client
+	 * sends longer line, the connection will be closed.
+	 */
+	private static final int		MAX_LINE_LENGTH		= 64 * 1024;
+	
+	/** Communicator, which is processing commands. */
+	private final Communicator		communicator;
+	
+	/** Number of TCP port to listen on. */
+	private final int				tcpListenPort;
+	
+	/** All event loops, the first one accepts new connections. */
+	private final EventLoop[]		eventLoops;
+	
+	/** Count of opened (active) connections. */
+	private final AtomicInteger		connectionsCount	= new AtomicInteger();
+	
+	/**
+	 * Threads, which process commands, so a slow command (e.g. UPDATE) never
+	 * blocks an event loop and other clients.
+	 */
+	private final ExecutorService	workers				= Executors.newCachedThreadPool();
+	
+	/** Index of the event loop, which gets the next accepted connection. */
+	private int						nextEventLoop		= 0;
+	
+	/** Set to true by {@link #stop()}. */
+	private volatile boolean		stopped				= false;
+	
+	/**
+	 * One thread with its own selector, which serves a part of all client
+	 * connections.
+	 */
+	private class EventLoop implements Runnable {
+		/** Selector with registered connections. */
+		private final Selector							selector;
+		
+		/** Connections accepted by another thread waiting for registration. */
+		private final Queue<SelectorConnection>			pendingRegistrations	= new ConcurrentLinkedQueue<>();
+		
+		/** Connections with data written by another thread. */
+		private final Queue<SelectorConnection>			pendingWrites			= new ConcurrentLinkedQueue<>();
+		
+		/** Connections, which finished processing of a command. */
+		private final Queue<SelectorConnection>			pendingResumes			= new ConcurrentLinkedQueue<>();
+		
+		/** Thread executing this loop. */
+		private volatile Thread							thread					= null;
+		
+		/** Channel, on which are accepted new connections (first loop only). */
+		private ServerSocketChannel						serverChannel			= null;
+		
+		/**
+		 * @throws IOException
+		 * 	Selector couldn't be opened.
+		 */
+		public EventLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+		
+		/**
+		 * Waits for events on the registered channels and processes them.
+		 * Loop will exit if the engine is stopped, the current thread is
+		 * interrupted or selector is closed.
+		 */
+		@Override
+		public void run() {
+			thread = Thread.currentThread();
+			
+			try {
+				while (!stopped && !thread.isInterrupted() && selector.isOpen()) {
+					selector.select();
+					
+					registerPendingConnections();
+					flushPendingWrites();
+					resumePendingConnections();
+					
+					Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+					
+					while (iterator.hasNext()) {
+						SelectionKey key = iterator.next();
+						iterator.remove();
+						
+						try {
+							if (key.isAcceptable()) {
+								accept();
+							}
+							else {
+								SelectorConnection connection = (SelectorConnection) key.attachment();
+								
+								if (key.isReadable()) {
+									connection.read();
+								}
+								
+								if (key.isValid() && key.isWritable()) {
+									connection.flush();
+								}
+							}
+						} catch (CancelledKeyException e) {
+							continue;
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				// Selector is broken or closed, the loop is finished.
+			} finally {
+				closeAll();
+			}
+		}
+		
+		/**
+		 * Accepts all waiting connections and hands them over to the event
+		 * loops.
+		 * 
+		 * @throws IOException
+		 */
+		private void accept() throws IOException {
+			SocketChannel channel;
+			
+			while ((channel = serverChannel.accept()) != null) {
+				if (!communicator.admitConnection(channel)) {
+					continue;
+				}
+				
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				
+				SelectorConnection connection = new SelectorConnection(
+					channel,
+					communicator.createConnectionDescriptor(channel.socket().getInetAddress()),
+					eventLoops[nextEventLoop]
+				);
+				
+				nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+				connectionsCount.incrementAndGet();
+				communicator.connectionOpened(connection);
+				
+				connection.eventLoop.register(connection);
+				
+				// Publish event (new connection)
+				communicator.publishEvent(ChangeEvent.CONNECTION_OPENED);
+			}
+		}
+		
+		/**
+		 * Registers the connection in the selector of this loop. It might be
+		 * called from any thread.
+		 * 
+		 * @param connection
+		 * 	Newly accepted connection.
+		 */
+		private void register(SelectorConnection connection) {
+			pendingRegistrations.add(connection);
+			selector.wakeup();
+		}
+		
+		/**
+		 * Lets the loop know, that there are some data waiting to be sent
+		 * to the client. It might be called from any thread.
+		 * 
+		 * @param connection
+		 * 	Connection with some data to be sent.
+		 */
+		private void requestWrite(SelectorConnection connection) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}
+		
+		/**
+		 * Lets the loop know, that the connection finished processing of a
+		 * command. It might be called from any thread.
+		 * 
+		 * @param connection
+		 * 	Connection, which can read the next command.
+		 */
+		private void requestResume(SelectorConnection connection) {
+			pendingResumes.add(connection);
+			selector.wakeup();
+		}
+		
+		/**
+		 * Registers all connections from {@link #pendingRegistrations}.
+		 */
+		private void registerPendingConnections() {
+			SelectorConnection connection;
+			
+			while ((connection = pendingRegistrations.poll()) != null) {
+				try {
+					connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch (IOException e) {
+					connection.close();
+				}
+			}
+		}
+		
+		/**
+		 * Sends data of all connections from {@link #pendingWrites}.
+		 */
+		private void flushPendingWrites() {
+			SelectorConnection connection;
+			
+			while ((connection = pendingWrites.poll()) != null) {
+				if (connection.key != null) {
+					connection.flush();
+				}
+			}
+		}
+		
+		/**
+		 * Resumes all connections from {@link #pendingResumes}.
+		 */
+		private void resumePendingConnections() {
+			SelectorConnection connection;
+			
+			while ((connection = pendingResumes.poll()) != null) {
+				connection.resume();
+			}
+		}
+		
+		/**
+		 * Closes all connections registered in this loop and the selector.
+		 */
+		private void closeAll() {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof SelectorConnection) {
+						((SelectorConnection) key.attachment()).close();
+					}
+				}
+				
+				selector.close();
+			} catch (IOException | ClosedSelectorException e) {
+				// Nothing to do, the loop is finishing anyway.
+			}
+		}
+	}
+	
+	/**
+	 * Data waiting in the write queue of a connection.
+	 */
+	private interface PendingWrite {
+		/**
+		 * Writes as much data as possible without blocking.
+		 * 
+		 * @param channel
+		 * 	Channel in non-blocking mode.
+		 * 
+		 * @return
+		 * 	True if all data were written.
+		 * 
+		 * @throws IOException
+		 */
+		public boolean writeTo(SocketChannel channel) throws IOException;
+		
+		/**
+		 * Releases all resources, it's called when data were written or
+		 * connection was closed.
+		 */
+		public void release();
+	}
+	
+	/**
+	 * Data in memory, possibly in more buffers (e.g. header and payload).
+	 */
+	private static class BufferWrite implements PendingWrite {
+		/** Data, which weren't written yet. */
+		private final ByteBuffer[]	buffers;
+		
+		/**
+		 * @param buffers
+		 * 	Data to be written, one buffer after another.
+		 */
+		public BufferWrite(ByteBuffer... buffers) {
+			this.buffers = buffers;
+		}
+		
+		@Override
+		public boolean writeTo(SocketChannel channel) throws IOException {
+			channel.write(buffers);
+			
+			for (ByteBuffer buffer : buffers) {
+				if (buffer.hasRemaining()) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public void release() {
+			//
+		}
+	}
+	
+	/**
+	 * Part of a file with a header and a trailer. The file is transferred by
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * so its data aren't copied into memory of the application.
+	 */
+	private static class FileWrite implements PendingWrite {
+		/** Bytes in front of the file. */
+		private final ByteBuffer	header;
+		
+		/** Opened file. */
+		private final FileChannel	file;
+		
+		/** Count of bytes of the file to be written. */
+		private final long			count;
+		
+		/** Bytes after the file. */
+		private final ByteBuffer	trailer;
+		
+		/** Count of bytes of the file, which were already written. */
+		private long				position	= 0;
+		
+		/**
+		 * @param header
+		 * 	Bytes in front of the file.
+		 * 
+		 * @param file
+		 * 	Opened file, data are written from its beginning.
+		 * 
+		 * @param count
+		 * 	Count of bytes of the file to be written.
+		 * 
+		 * @param trailer
+		 * 	Bytes after the file.
+		 */
+		public FileWrite(byte[] header, FileChannel file, long count, byte[] trailer) {
+			this.header		= ByteBuffer.wrap(header);
+			this.file		= file;
+			this.count		= count;
+			this.trailer	= ByteBuffer.wrap(trailer);
+		}
+		
+		@Override
+		public boolean writeTo(SocketChannel channel) throws IOException {
+			if (header.hasRemaining()) {
+				channel.write(header);
+				
+				if (header.hasRemaining()) {
+					return false;
+				}
+			}
+			
+			while (position < count) {
+				long transferred = file.transferTo(position, count - position, channel);
+				
+				if (transferred <= 0) {
+					if (position >= file.size()) {
+						throw new IOException("File was truncated while it was being sent.");
+					}
+					
+					// Socket buffer is full
+					return false;
+				}
+				
+				position += transferred;
+			}
+			
+			channel.write(trailer);
+			return !trailer.hasRemaining();
+		}
+		
+		@Override
+		public void release() {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * One client connection served by an event loop.
+	 */
+	private class SelectorConnection extends ClientConnection {
+		/** Channel between server and client. */
+		private final SocketChannel			channel;
+		
+		/** Event loop, which serves this connection. */
+		private final EventLoop				eventLoop;
+		
+		/** Data received from the client, which weren't processed yet. */
+		private ByteBuffer					readBuffer	= ByteBuffer.allocate(READ_BUFFER_SIZE);
+		
+		/** Data waiting to be sent to the client. */
+		private final Queue<PendingWrite>	writeQueue	= new ConcurrentLinkedQueue<>();
+		
+		/** Key of the channel in the selector (null until registered). */
+		private SelectionKey				key			= null;
+		
+		/** Set to true, if the connection was already closed. */
+		private volatile boolean			closed		= false;
+		
+		/** Set to true while a command is being processed by a worker. */
+		private boolean						busy		= false;
+		
+		/**
+		 * @param channel
+		 * 	Channel between server and client.
+		 * 
+		 * @param connectionDescriptor
+		 * 	Structure, which contains informations about connection.
+		 * 
+		 * @param eventLoop
+		 * 	Event loop, which serves this connection.
+		 */
+		public SelectorConnection(SocketChannel channel, ConnectionDescriptor connectionDescriptor, EventLoop eventLoop) {
+			super(connectionDescriptor);
+			
+			this.channel	= channel;
+			this.eventLoop	= eventLoop;
+		}
+		
+		/**
+		 * Reads available data from the channel and starts processing of the
+		 * next complete command. Called by the event loop only.
+		 */
+		private void read() {
+			if (busy) {
+				return;
+			}
+			
+			try {
+				int count = channel.read(readBuffer);
+				
+				if (count < 0) {
+					close();
+					return;
+				}
+				
+				communicator.countBytesIn(count);
+				
+				if (!processNext() && !closed && !readBuffer.hasRemaining()) {
+					// Command doesn't fit into the buffer, enlarge it (up to the limit)
+					if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+						close();
+						return;
+					}
+					
+					ByteBuffer newBuffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+					readBuffer.flip();
+					newBuffer.put(readBuffer);
+					readBuffer = newBuffer;
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+		
+		/**
+		 * If there's a complete command in the read buffer and no other command
+		 * of this connection is being processed, the command is removed from
+		 * the buffer and handed over to a worker thread. Reading from the
+		 * channel is suspended until the command is finished, so commands of
+		 * one connection are processed in the same order as they were received.
+		 * Called by the event loop only.
+		 * 
+		 * @return
+		 * 	True if processing of a command was started, false if there's no
+		 * 	complete command or a command is already being processed.
+		 */
+		private boolean processNext() {
+			if (busy || closed) {
+				return false;
+			}
+			
+			try {
+				return isBinary() ? processNextFrame() : processNextLine();
+			} catch (IOException e) {
+				// Malformed frame
+				close();
+				return false;
+			}
+		}
+		
+		/**
+		 * Starts processing of the next line of the text protocol (see
+		 * {@link #processNext()}).
+		 * 
+		 * @return
+		 * 	True if processing of a command was started.
+		 */
+		private boolean processNextLine() {
+			for (int i = 0; i < readBuffer.position(); i++) {
+				if (readBuffer.get(i) == '\n') {
+					int lineEnd = (i > 0 && readBuffer.get(i - 1) == '\r') ? i - 1 : i;
+					
+					String line = decode(0, lineEnd);
+					removeProcessed(i + 1);
+					startCommand(line, 0, null);
+					
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Starts processing of the next frame of the binary protocol (see
+		 * {@link #processNext()}).
+		 * 
+		 * @return
+		 * 	True if processing of a command was started.
+		 * 
+		 * @throws IOException
+		 * 	Frame is malformed.
+		 */
+		private boolean processNextFrame() throws IOException {
+			if (readBuffer.position() < BinaryProtocol.LENGTH_SIZE) {
+				return false;
+			}
+			
+			byte[]	array	= readBuffer.array();
+			int		offset	= readBuffer.arrayOffset();
+			int		length	= BinaryProtocol.readLength(array, offset);
+			
+			if (readBuffer.position() < BinaryProtocol.LENGTH_SIZE + length) {
+				return false;
+			}
+			
+			CommandLine	command		= new CommandLine();
+			int			requestId	= BinaryProtocol.decodeRequest(array, offset + BinaryProtocol.LENGTH_SIZE, length, command);
+			
+			removeProcessed(BinaryProtocol.LENGTH_SIZE + length);
+			startCommand(null, requestId, command);
+			
+			return true;
+		}
+		
+		/**
+		 * Removes processed bytes from the beginning of the read buffer.
+		 * 
+		 * @param count
+		 * 	Count of the bytes.
+		 */
+		private void removeProcessed(int count) {
+			readBuffer.flip();
+			readBuffer.position(count);
+			readBuffer.compact();
+		}
+		
+		/**
+		 * Hands over the command to a worker thread and suspends reading.
+		 * 
+		 * @param line
+		 * 	Line of the text protocol, or null if the command came in a frame.
+		 * 
+		 * @param requestId
+		 * 	Request ID of the frame (binary protocol only).
+		 * 
+		 * @param command
+		 * 	Decoded command of the frame (binary protocol only).
+		 */
+		private void startCommand(final String line, final int requestId, final CommandLine command) {
+			busy = true;
+			updateInterest();
+			
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (line != null) {
+								communicator.processCommand(SelectorConnection.this, line);
+							}
+							else {
+								communicator.processFrame(SelectorConnection.this, requestId, command);
+							}
+						} catch (IOException e) {
+							close();
+						} catch (RuntimeException e) {
+							// Error in processing of the command mustn't kill the
+							// worker, only this connection.
+							e.printStackTrace();
+							close();
+						} finally {
+							eventLoop.requestResume(SelectorConnection.this);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Engine is being stopped.
+				close();
+			}
+		}
+		
+		/**
+		 * Lets the connection read again after its command was processed.
+		 * Called by the event loop only.
+		 */
+		private void resume() {
+			busy = false;
+			updateInterest();
+			processNext();
+		}
+		
+		/**
+		 * Sets operations, which the selector should watch. Reading is
+		 * suspended while a command is being processed, writing is watched
+		 * only if there are some data waiting in the queue. Called by the
+		 * event loop only.
+		 */
+		private void updateInterest() {
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			
+			key.interestOps(
+				(busy ? 0 : SelectionKey.OP_READ) |
+				(writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE)
+			);
+		}
+		
+		/**
+		 * Decodes a part of the read buffer into a text string.
+		 * 
+		 * @param start
+		 * 	Index of the first byte.
+		 * 
+		 * @param end
+		 * 	Index after the last byte.
+		 * 
+		 * @return
+		 * 	Decoded text.
+		 */
+		private String decode(int start, int end) {
+			return new String(readBuffer.array(), readBuffer.arrayOffset() + start, end - start, Charset.defaultCharset());
+		}
+		
+		@Override
+		protected void sendBytes(byte[]... parts) throws IOException {
+			if (closed) {
+				throw new IOException("Connection is closed.");
+			}
+			
+			ByteBuffer[] buffers = new ByteBuffer[parts.length];
+			
+			for (int i = 0; i < parts.length; i++) {
+				buffers[i] = ByteBuffer.wrap(parts[i]);
+				communicator.countBytesOut(parts[i].length);
+			}
+			
+			enqueue(new BufferWrite(buffers));
+		}
+		
+		@Override
+		protected void sendRegion(byte[] header, FileChannel file, long count, byte[] trailer) throws IOException {
+			if (closed) {
+				file.close();
+				throw new IOException("Connection is closed.");
+			}
+			
+			communicator.countBytesOut(header.length + count + trailer.length);
+			enqueue(new FileWrite(header, file, count, trailer));
+		}
+		
+		/**
+		 * Places data into the write queue and sends them as soon as possible.
+		 * 
+		 * @param write
+		 * 	Data to be sent.
+		 */
+		private void enqueue(PendingWrite write) {
+			writeQueue.add(write);
+			
+			// Connection might have been closed in the meantime
+			if (closed) {
+				releaseQueue();
+				return;
+			}
+			
+			if (Thread.currentThread() == eventLoop.thread && key != null) {
+				flush();
+			}
+			else {
+				eventLoop.requestWrite(this);
+			}
+		}
+		
+		@Override
+		public boolean hasPendingOutput() {
+			return !writeQueue.isEmpty();
+		}
+		
+		/**
+		 * Sends as much queued data as possible without blocking. If some
+		 * data remains, the event loop will be notified when the channel is
+		 * writable again. Called by the event loop only.
+		 */
+		private void flush() {
+			try {
+				PendingWrite write;
+				
+				while ((write = writeQueue.peek()) != null) {
+					if (!write.writeTo(channel)) {
+						break;
+					}
+					
+					writeQueue.poll();
+					write.release();
+				}
+				
+				updateInterest();
+			} catch (IOException | CancelledKeyException e) {
+				close();
+			}
+		}
+		
+		/**
+		 * Removes all data from the write queue (opened files are closed).
+		 */
+		private void releaseQueue() {
+			PendingWrite write;
+			
+			while ((write = writeQueue.poll()) != null) {
+				write.release();
+			}
+		}
+		
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				
+				closed = true;
+			}
+			
+			if (key != null) {
+				key.cancel();
+			}
+			
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			
+			releaseQueue();
+			connectionsCount.decrementAndGet();
+			
+			// Let the connection listener know, that connection was closed.
+			communicator.connectionClosed(this);
+			communicator.publishEvent(ChangeEvent.CONNECTION_CLOSED);
+		}
+	}
+	
+	/**
+	 * @param communicator
+	 * 	Communicator, which is processing commands.
+	 * 
+	 * @param tcpListenPort
+	 * 	Number of TCP port to listen on.
+	 * 
+	 * @param threadsCount
+	 * 	Count of event-loop threads (at least 1).
+	 * 
+	 * @throws IOException
+	 * 	Selector couldn't be opened.
+	 */
+	public SelectorEngine(Communicator communicator, int tcpListenPort, int threadsCount) throws IOException {
+		this.communicator	= communicator;
+		this.tcpListenPort	= tcpListenPort;
+		this.eventLoops		= new EventLoop[Math.max(1, threadsCount)];
+		
+		for (int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new EventLoop();
+		}
+	}
+	
+	/**
+	 * Opens server channel and executes the first event loop in the current
+	 * thread (other loops get their own threads). It will only exit if the
+	 * engine is stopped or the current thread is interrupted.
+	 * 
+	 * @throws IOException
+	 * 	Server channel couldn't be opened.
+	 */
+	public void run() throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		Thread[] threads = new Thread[eventLoops.length];
+		
+		try {
+			serverChannel.bind(new InetSocketAddress(tcpListenPort));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+			
+			eventLoops[0].serverChannel = serverChannel;
+			
+			for (int i = 1; i < eventLoops.length; i++) {
+				threads[i] = new Thread(eventLoops[i], "Communicator-EventLoop-" + i);
+				threads[i].start();
+			}
+			
+			eventLoops[0].run();
+		} finally {
+			for (int i = 1; i < threads.length; i++) {
+				if (threads[i] != null) {
+					threads[i].interrupt();
+				}
+			}
+			
+			serverChannel.close();
+			workers.shutdown();
+		}
+	}
+	
+	/**
+	 * Stops all event loops, all connections will be closed. It can be called
+	 * from any thread.
+	 */
+	public void stop() {
+		stopped = true;
+		
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.selector.wakeup();
+		}
+	}
+	
+	/**
+	 * @return
+	 * 	Count of opened (active) connections.
+	 */
+	public int getConnectionsCount() {
+		return connectionsCount.get();
+	}
+}
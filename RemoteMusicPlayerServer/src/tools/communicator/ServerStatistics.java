@@ -0,0 +1,257 @@
+package tools.communicator;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 	Statistics of the {@link Communicator}: count, errors and latency of each
+ * 	command verb and count of transferred bytes. All counters are atomic and
+ * 	statistics of a command are created when the command is registered, so
+ * 	recording doesn't need any lock or allocation.
+ * </p>
+ * 
+ * <p>
+ * 	Statistics are formatted as an one-line XML document (command STATS) or as
+ * 	plain text with one value per line (HTTP endpoint for local scrapers).
+ * 	Latencies are in microseconds.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class ServerStatistics {
+	/** Percentiles of latency, which are published. */
+	private static final double[]							PERCENTILES			= {50.0, 99.0};
+	
+	/** Names of the published percentiles (the same order as {@link #PERCENTILES}). */
+	private static final String[]							PERCENTILE_NAMES	= {"p50", "p99"};
+	
+	/** Statistics of all registered commands, the key is a verb (sorted). */
+	private final ConcurrentMap<String, CommandStatistics>	commands			= new ConcurrentSkipListMap<>();
+	
+	/** Count of bytes received from clients. */
+	private final AtomicLong								bytesIn				= new AtomicLong();
+	
+	/** Count of bytes passed to connections to be sent to clients. */
+	private final AtomicLong								bytesOut			= new AtomicLong();
+	
+	/** Count of commands, which weren't recognized (or had wrong parameters). */
+	private final AtomicLong								invalidCommands		= new AtomicLong();
+	
+	/** Time, when the statistics were created (in milliseconds). */
+	private final long										startTime			= System.currentTimeMillis();
+	
+	/**
+	 * Statistics of one command verb.
+	 */
+	static class CommandStatistics {
+		/** Latencies of all executions of the command (in nanoseconds). */
+		private final LatencyHistogram	latency	= new LatencyHistogram();
+		
+		/** Count of executions, which failed by an exception. */
+		private final AtomicLong		errors	= new AtomicLong();
+		
+		/**
+		 * Records one execution of the command.
+		 * 
+		 * @param nanoseconds
+		 * 	Time of the execution.
+		 * 
+		 * @param failed
+		 * 	True if the execution failed by an exception.
+		 */
+		public void record(long nanoseconds, boolean failed) {
+			latency.record(nanoseconds);
+			
+			if (failed) {
+				errors.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Values of the server, which aren't recorded by this class.
+	 */
+	static class Gauges {
+		/** Count of opened connections. */
+		public int	connections;
+		
+		/** Count of connections rejected by limits. */
+		public long	rejectedConnections;
+		
+		/** Count of commands rejected by limits. */
+		public long	rejectedCommands;
+	}
+	
+	/**
+	 * Returns statistics of the command. Each verb has only one instance, so
+	 * statistics aren't lost when the command is registered again.
+	 * 
+	 * @param verb
+	 * 	Name of the command.
+	 * 
+	 * @return
+	 * 	Statistics of the command.
+	 */
+	public CommandStatistics forCommand(String verb) {
+		CommandStatistics statistics = commands.get(verb);
+		
+		if (statistics == null) {
+			CommandStatistics newStatistics = new CommandStatistics();
+			
+			statistics = commands.putIfAbsent(verb, newStatistics);
+			statistics = (statistics == null ? newStatistics : statistics);
+		}
+		
+		return statistics;
+	}
+	
+	/**
+	 * @param count
+	 * 	Count of bytes received from a client.
+	 */
+	public void addBytesIn(long count) {
+		bytesIn.addAndGet(count);
+	}
+	
+	/**
+	 * @param count
+	 * 	Count of bytes, which will be sent to a client.
+	 */
+	public void addBytesOut(long count) {
+		bytesOut.addAndGet(count);
+	}
+	
+	/**
+	 * Counts one command, which wasn't recognized.
+	 */
+	public void addInvalidCommand() {
+		invalidCommands.incrementAndGet();
+	}
+	
+	/**
+	 * Formats statistics as an one-line XML document, e.g.
+	 * {@code <statistics uptime="60" connections="2" ...><command verb="GET_STATE" count="10" errors="0" mean="12.5" p50="11.2" p99="40.1" max="52.3"/>...</statistics>}.
+	 * 
+	 * @param gauges
+	 * 	Current values of the server.
+	 * 
+	 * @return
+	 * 	XML document encoded in UTF-8.
+	 */
+	public byte[] formatXml(Gauges gauges) {
+		StringBuilder xml = new StringBuilder(256 + 128 * commands.size());
+		
+		xml.append("<statistics");
+		xml.append(" uptime=\"").append((System.currentTimeMillis() - startTime) / 1000).append('"');
+		xml.append(" connections=\"").append(gauges.connections).append('"');
+		xml.append(" rejectedConnections=\"").append(gauges.rejectedConnections).append('"');
+		xml.append(" rejectedCommands=\"").append(gauges.rejectedCommands).append('"');
+		xml.append(" invalidCommands=\"").append(invalidCommands.get()).append('"');
+		xml.append(" bytesIn=\"").append(bytesIn.get()).append('"');
+		xml.append(" bytesOut=\"").append(bytesOut.get()).append('"');
+		xml.append('>');
+		
+		for (Map.Entry<String, CommandStatistics> entry : commands.entrySet()) {
+			CommandStatistics	statistics	= entry.getValue();
+			long[]				percentiles	= statistics.latency.getPercentiles(PERCENTILES);
+			long				count		= statistics.latency.getCount();
+			
+			xml.append("<command verb=\"").append(entry.getKey()).append('"');
+			xml.append(" count=\"").append(count).append('"');
+			xml.append(" errors=\"").append(statistics.errors.get()).append('"');
+			xml.append(" mean=\"").append(microseconds(count == 0 ? 0 : statistics.latency.getSum() / count)).append('"');
+			
+			for (int i = 0; i < percentiles.length; i++) {
+				xml.append(' ').append(PERCENTILE_NAMES[i]).append("=\"").append(microseconds(percentiles[i])).append('"');
+			}
+			
+			xml.append(" max=\"").append(microseconds(statistics.latency.getMax())).append("\"/>");
+		}
+		
+		xml.append("</statistics>");
+		
+		return xml.toString().getBytes(BinaryProtocol.UTF8);
+	}
+	
+	/**
+	 * Formats statistics as plain text with one value per line, e.g.
+	 * {@code communicator_command_latency_microseconds{verb="GET_STATE",quantile="0.99"} 40.1}.
+	 * 
+	 * @param gauges
+	 * 	Current values of the server.
+	 * 
+	 * @return
+	 * 	Text with lines separated by "\n".
+	 */
+	public String formatText(Gauges gauges) {
+		StringBuilder text = new StringBuilder(512 + 512 * commands.size());
+		
+		appendLine(text, "communicator_uptime_seconds", null, (System.currentTimeMillis() - startTime) / 1000);
+		appendLine(text, "communicator_connections", null, gauges.connections);
+		appendLine(text, "communicator_connections_rejected_total", null, gauges.rejectedConnections);
+		appendLine(text, "communicator_commands_rejected_total", null, gauges.rejectedCommands);
+		appendLine(text, "communicator_commands_invalid_total", null, invalidCommands.get());
+		appendLine(text, "communicator_bytes_in_total", null, bytesIn.get());
+		appendLine(text, "communicator_bytes_out_total", null, bytesOut.get());
+		
+		for (Map.Entry<String, CommandStatistics> entry : commands.entrySet()) {
+			CommandStatistics	statistics	= entry.getValue();
+			String				verb		= "verb=\"" + entry.getKey() + "\"";
+			long[]				percentiles	= statistics.latency.getPercentiles(PERCENTILES);
+			
+			appendLine(text, "communicator_command_count_total", verb, statistics.latency.getCount());
+			appendLine(text, "communicator_command_errors_total", verb, statistics.errors.get());
+			
+			for (int i = 0; i < percentiles.length; i++) {
+				String quantile = verb + ",quantile=\"" + PERCENTILES[i] / 100.0 + "\"";
+				
+				appendLine(text, "communicator_command_latency_microseconds", quantile, microseconds(percentiles[i]));
+			}
+			
+			appendLine(text, "communicator_command_latency_microseconds_max", verb, microseconds(statistics.latency.getMax()));
+			appendLine(text, "communicator_command_latency_microseconds_sum", verb, microseconds(statistics.latency.getSum()));
+		}
+		
+		return text.toString();
+	}
+	
+	/**
+	 * Appends one line {@code name{labels} value}.
+	 * 
+	 * @param text
+	 * 	Text, to which the line is appended.
+	 * 
+	 * @param name
+	 * 	Name of the value.
+	 * 
+	 * @param labels
+	 * 	Labels of the value (without braces), or null.
+	 * 
+	 * @param value
+	 * 	The value.
+	 */
+	private static void appendLine(StringBuilder text, String name, String labels, Object value) {
+		text.append(name);
+		
+		if (labels != null) {
+			text.append('{').append(labels).append('}');
+		}
+		
+		text.append(' ').append(value).append('\n');
+	}
+	
+	/**
+	 * @param nanoseconds
+	 * 	Time in nanoseconds.
+	 * 
+	 * @return
+	 * 	The same time in microseconds with one decimal place.
+	 */
+	private static String microseconds(long nanoseconds) {
+		return String.format(Locale.ROOT, "%.1f", nanoseconds / 1000.0);
+	}
+}
@@ -0,0 +1,233 @@
+package tools.communicator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * 	This class keeps all clients, which subscribed for changes of the player
+ * 	state (command SUBSCRIBE), and pushes EVENT lines to them. Events are
+ * 	published by {@link #publish(PlayerState)} whenever the state changes and
+ * 	while the player is playing, also periodically with an updated position.
+ * </p>
+ * 
+ * <p>
+ * 	Each subscriber has a queue with only one slot, which always contains the
+ * 	newest event. If the client is too slow to receive events, older events
+ * 	are simply replaced. Events are sent by separate threads, so a slow client
+ * 	can't stall the player or the other subscribers.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class StateSubscriptions {
+	/** Interval of the periodic event with the current position (in seconds). */
+	private static final int						TICK_INTERVAL	= 5;
+	
+	/** All subscribers, the key is a connection. */
+	private final Map<ClientConnection, Subscriber>	subscribers		= new ConcurrentHashMap<>();
+	
+	/** Threads, which send events to the subscribers. */
+	private final ExecutorService					senders			= Executors.newCachedThreadPool(new DaemonThreadFactory());
+	
+	/** Thread, which publishes periodic events, null if not started. */
+	private ScheduledExecutorService				ticker			= null;
+	
+	/** The last published state (null if nothing was published yet). */
+	private volatile PlayerState					lastState		= null;
+	
+	/**
+	 * One subscribed client with its one-slot queue.
+	 */
+	private class Subscriber implements Runnable {
+		/** Connection of the client. */
+		private final ClientConnection			connection;
+		
+		/** The newest event, which wasn't sent yet (or null). */
+		private final AtomicReference<String>	pending		= new AtomicReference<>();
+		
+		/** True if sending of events is already scheduled. */
+		private final AtomicBoolean				scheduled	= new AtomicBoolean(false);
+		
+		/**
+		 * @param connection
+		 * 	Connection of the client.
+		 */
+		public Subscriber(ClientConnection connection) {
+			this.connection = connection;
+		}
+		
+		/**
+		 * Places event into the queue (the older one is replaced) and
+		 * schedules sending, if it's not scheduled already.
+		 * 
+		 * @param event
+		 * 	Text of the event, null only schedules sending of the pending one.
+		 */
+		public void offer(String event) {
+			if (event != null) {
+				pending.set(event);
+			}
+			
+			if (pending.get() != null && scheduled.compareAndSet(false, true)) {
+				senders.execute(this);
+			}
+		}
+		
+		/**
+		 * Sends pending events until the queue is empty. If the client still
+		 * didn't receive previous data, the event stays in the queue and it'll
+		 * be sent with the next event or tick.
+		 */
+		@Override
+		public void run() {
+			try {
+				while (!connection.hasPendingOutput()) {
+					String event = pending.getAndSet(null);
+					
+					if (event == null) {
+						break;
+					}
+					
+					connection.sendLine(event);
+				}
+			} catch (IOException e) {
+				subscribers.remove(connection);
+				connection.close();
+			} finally {
+				scheduled.set(false);
+			}
+			
+			// Event might have been offered right before the flag was cleared
+			if (!connection.hasPendingOutput()) {
+				offer(null);
+			}
+		}
+	}
+	
+	/**
+	 * Threads of this class mustn't block exit of the application.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Communicator-Events");
+			thread.setDaemon(true);
+			
+			return thread;
+		}
+	}
+	
+	/**
+	 * Starts the thread, which publishes periodic events.
+	 */
+	public synchronized void start() {
+		if (ticker != null) {
+			return;
+		}
+		
+		ticker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stops the periodic events and removes all subscribers.
+	 */
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+		
+		subscribers.clear();
+	}
+	
+	/**
+	 * Adds a new subscriber. The last published state is sent to him
+	 * immediately.
+	 * 
+	 * @param connection
+	 * 	Connection of the client.
+	 */
+	public void subscribe(ClientConnection connection) {
+		Subscriber subscriber = new Subscriber(connection);
+		subscribers.put(connection, subscriber);
+		
+		PlayerState state = lastState;
+		
+		if (state != null) {
+			subscriber.offer(formatEvent(state.getCurrent()));
+		}
+	}
+	
+	/**
+	 * Removes the subscriber, nothing happens if he isn't subscribed.
+	 * 
+	 * @param connection
+	 * 	Connection of the client.
+	 */
+	public void unsubscribe(ClientConnection connection) {
+		subscribers.remove(connection);
+	}
+	
+	/**
+	 * Sends the state to all subscribers. It never blocks.
+	 * 
+	 * @param state
+	 * 	The new state of the player.
+	 */
+	public void publish(PlayerState state) {
+		lastState = state;
+		
+		offerAll(formatEvent(state));
+	}
+	
+	/**
+	 * Sends the current position to all subscribers, if the player is playing.
+	 * Also retries sending of the events, which couldn't be sent previously.
+	 */
+	protected void tick() {
+		PlayerState state = lastState;
+		
+		if (state != null && state.isPlaying()) {
+			offerAll(formatEvent(state.getCurrent()));
+		}
+		else {
+			offerAll(null);
+		}
+	}
+	
+	/**
+	 * @param event
+	 * 	Text of the event for all subscribers (or null to only retry sending).
+	 */
+	private void offerAll(String event) {
+		for (Subscriber subscriber : subscribers.values()) {
+			subscriber.offer(event);
+		}
+	}
+	
+	/**
+	 * @param state
+	 * 	State of the player.
+	 * 
+	 * @return
+	 * 	EVENT line describing the state.
+	 */
+	private static String formatEvent(PlayerState state) {
+		return "EVENT " + Communicator.formatState(state);
+	}
+}
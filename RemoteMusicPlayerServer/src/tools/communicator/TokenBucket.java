@@ -0,0 +1,85 @@
+package tools.communicator;
+
+/**
+ * <p>
+ * 	Token bucket, which limits rate of some operations (e.g. commands of one
+ * 	client). Bucket holds at most {@code capacity} tokens and it's refilled by
+ * 	{@code rate} tokens per second. Each operation takes one token, operation
+ * 	without a token should be rejected. Therefore, short bursts up to the
+ * 	capacity are allowed, but the long-term rate is limited.
+ * </p>
+ * 
+ * <p>
+ * 	Tokens are refilled lazily when the bucket is used, so an idle bucket
+ * 	doesn't cost anything.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+class TokenBucket {
+	/** Count of tokens added per nanosecond. */
+	private final double	ratePerNanosecond;
+	
+	/** Maximal count of tokens. */
+	private final double	capacity;
+	
+	/** Current count of tokens. */
+	private double			tokens;
+	
+	/** Time of the last refill (System.nanoTime()). */
+	private long			lastRefill;
+	
+	/**
+	 * Creates a full bucket.
+	 * 
+	 * @param rate
+	 * 	Count of tokens added per second.
+	 * 
+	 * @param capacity
+	 * 	Maximal count of tokens (size of a burst).
+	 */
+	public TokenBucket(double rate, int capacity) {
+		this.ratePerNanosecond	= rate / 1e9;
+		this.capacity			= capacity;
+		this.tokens				= capacity;
+		this.lastRefill			= System.nanoTime();
+	}
+	
+	/**
+	 * Takes one token, if there's any.
+	 * 
+	 * @return
+	 * 	True if the token was taken (operation is allowed), false if the
+	 * 	bucket is empty.
+	 */
+	public synchronized boolean tryConsume() {
+		refill();
+		
+		if (tokens < 1) {
+			return false;
+		}
+		
+		tokens--;
+		return true;
+	}
+	
+	/**
+	 * @return
+	 * 	True if the bucket is full, so it's the same as a new one and it
+	 * 	might be thrown away.
+	 */
+	public synchronized boolean isFull() {
+		refill();
+		return (tokens >= capacity);
+	}
+	
+	/**
+	 * Adds tokens for the time elapsed since the last refill.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		
+		tokens		= Math.min(capacity, tokens + (now - lastRefill) * ratePerNanosecond);
+		lastRefill	= now;
+	}
+}
@@ -0,0 +1,276 @@
+package tools.loadgenerator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import tools.communicator.Communicator;
+import tools.communicator.LatencyHistogram;
+import application.controller.Controller;
+
+/**
+ * <p>
+ * 	Check, that commands of different clients don't wait for each other:
+ * 	latency of GET_STATE must stay flat while other clients download the
+ * 	music library by UPDATE. It was broken, when all commands were processed
+ * 	under one global lock.
+ * </p>
+ * 
+ * <p>
+ * 	The real {@link Controller} (with a silent player) runs in this process.
+ * 	The check measures GET_STATE of a few clients alone, then the same
+ * 	clients again while 20 other clients send only UPDATE. They read the
+ * 	library slowly like phones on a wireless network, and the library is
+ * 	bigger than buffers of the sockets, so the server waits for them. It
+ * 	passes if p99 latency of GET_STATE under the load is at most
+ * 	{@code ratio * baseline + slack}. Exit code is 0 if the check passed and
+ * 	1 if it failed, reports of both measurements are printed.
+ * </p>
+ * 
+ * <p>
+ * 	Usage: {@code java tools.loadgenerator.GetStateLatencyCheck [options]},
+ * 	options are described in {@link #USAGE}.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class GetStateLatencyCheck {
+	/** Description of the options. */
+	public static final String	USAGE		=
+		"Options:\n" +
+		"  --mode MODE              mode of the server (default THREAD_PER_CONNECTION)\n" +
+		"  --port PORT              port of the server (default 19999)\n" +
+		"  --library FILE           music library sent by UPDATE (default generated)\n" +
+		"  --songs N                count of songs of the generated library (default 100000)\n" +
+		"  --clients N              count of clients sending GET_STATE (default 5)\n" +
+		"  --updaters N             count of clients sending UPDATE (default 20)\n" +
+		"  --think MILLISECONDS     pause between UPDATE commands of one client (default 100)\n" +
+		"  --read-rate KB           kilobytes per second read by one client sending UPDATE (default 5000)\n" +
+		"  --warmup SECONDS         time before measuring (default 2)\n" +
+		"  --duration SECONDS       time of each measuring (default 10)\n" +
+		"  --ratio FACTOR           allowed growth of p99 latency (default 3)\n" +
+		"  --slack MILLISECONDS     allowed growth of p99 latency on top of the ratio (default 1)\n";
+	
+	/** Checked percentile of GET_STATE. */
+	private static final double	PERCENTILE	= 99.0;
+	
+	private Communicator.Mode	mode		= Communicator.Mode.THREAD_PER_CONNECTION;
+	private int					port		= 19999;
+	private File				library		= null;
+	private int					songs		= 100000;
+	private int					clients		= 5;
+	private int					updaters	= 20;
+	private int					thinkTime	= 100;
+	private int					readRate	= 5000;
+	private int					warmup		= 2;
+	private int					duration	= 10;
+	private double				ratio		= 3;
+	private double				slack		= 1;
+	
+	public static void main(String[] args) throws Exception {
+		GetStateLatencyCheck check = new GetStateLatencyCheck();
+		
+		try {
+			check.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		
+		System.exit(check.run() ? 0 : 1);
+	}
+	
+	/**
+	 * Reads options from the command line.
+	 * 
+	 * @param args
+	 * 	Arguments of the command line.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	Option is unknown or its value is invalid.
+	 */
+	public void parseArguments(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i];
+				
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Option " + option + " needs a value.");
+				}
+				
+				String value = args[++i];
+				
+				switch (option) {
+					case "--mode":		mode		= Communicator.Mode.valueOf(value);		break;
+					case "--port":		port		= Integer.parseInt(value);				break;
+					case "--library":	library		= new File(value);						break;
+					case "--songs":		songs		= Integer.parseInt(value);				break;
+					case "--clients":	clients		= Integer.parseInt(value);				break;
+					case "--updaters":	updaters	= Integer.parseInt(value);				break;
+					case "--think":		thinkTime	= Integer.parseInt(value);				break;
+					case "--read-rate":	readRate	= Integer.parseInt(value);				break;
+					case "--warmup":	warmup		= Integer.parseInt(value);				break;
+					case "--duration":	duration	= Integer.parseInt(value);				break;
+					case "--ratio":		ratio		= Double.parseDouble(value);			break;
+					case "--slack":		slack		= Double.parseDouble(value);			break;
+					default:
+						throw new IllegalArgumentException("Unknown option " + option + ".");
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+		}
+		
+		if (clients < 1 || updaters < 1) {
+			throw new IllegalArgumentException("Count of clients and updaters must be positive.");
+		}
+	}
+	
+	/**
+	 * Runs both measurements and prints the result.
+	 * 
+	 * @return
+	 * 	True if the check passed.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public boolean run() throws IOException, InterruptedException {
+		if (library == null) {
+			library = File.createTempFile("MusicLibrary", ".xml");
+			library.deleteOnExit();
+			
+			writeLibrary(library, songs);
+		}
+		
+		String server = "127.0.0.1:" + port;
+		
+		// Baseline, it also starts the server for the other generators
+		LoadGenerator baseline = createGenerator("controller", clients, "GET_STATE:1", 0, 0, warmup, duration);
+		Communicator communicator = baseline.startServer();
+		
+		baseline.measure();
+		
+		// The same clients while the library is downloaded all the time.
+		// Updaters start before and finish after the measured clients.
+		LoadGenerator			loaded		= createGenerator(server, clients, "GET_STATE:1", 0, 0, warmup, duration);
+		final LoadGenerator		background	= createGenerator(server, updaters, "UPDATE:1", thinkTime, readRate, 1, warmup + duration + 2);
+		
+		loaded.startServer();
+		background.startServer();
+		
+		Thread thread = new Thread("Updaters") {
+			@Override
+			public void run() {
+				try {
+					background.measure();
+				} catch (InterruptedException e) {
+					// Nothing to do
+				}
+			}
+		};
+		
+		thread.start();
+		Thread.sleep(1000);
+		
+		loaded.measure();
+		thread.join();
+		
+		communicator.stop();
+		
+		long	updates		= background.getLatency("UPDATE").getCount();
+		double	before		= getPercentile(baseline.getLatency("GET_STATE"));
+		double	after		= getPercentile(loaded.getLatency("GET_STATE"));
+		double	limit		= before * ratio + slack;
+		boolean	passed		= (after <= limit && updates > 0);
+		
+		System.out.printf(
+			Locale.ROOT,
+			"%nGET_STATE p99: %.3f ms alone, %.3f ms with %d clients sending UPDATE (%d updates), limit %.3f ms: %s%n",
+			before, after, updaters, updates, limit, (passed ? "PASSED" : "FAILED")
+		);
+		
+		return passed;
+	}
+	
+	/**
+	 * @return
+	 * 	Load generator with the given clients and the common options.
+	 */
+	private LoadGenerator createGenerator(String server, int count, String mix, int think, int rate, int warmup, int duration) {
+		String[] args = {
+			"--server",		server,
+			"--mode",		mode.name(),
+			"--port",		String.valueOf(port),
+			"--library",	library.getPath(),
+			"--clients",	String.valueOf(count),
+			"--mix",		mix,
+			"--think",		String.valueOf(think),
+			"--read-rate",	String.valueOf(rate),
+			"--warmup",		String.valueOf(warmup),
+			"--duration",	String.valueOf(duration)
+		};
+		
+		LoadGenerator generator = new LoadGenerator();
+		
+		generator.parseArguments(args);
+		return generator;
+	}
+	
+	/**
+	 * @return
+	 * 	Checked percentile of the latencies (in milliseconds).
+	 */
+	private static double getPercentile(LatencyHistogram latency) {
+		return latency.getPercentiles(PERCENTILE)[0] / 1e6;
+	}
+	
+	/**
+	 * Writes a library with generated songs. It has the same form as a
+	 * serialized {@link tools.MusicLibrary} (one line of XML), so clients of
+	 * the text protocol read it as one reply.
+	 * 
+	 * @param file
+	 * 	Target file.
+	 * 
+	 * @param count
+	 * 	Count of songs.
+	 * 
+	 * @throws IOException
+	 */
+	private static void writeLibrary(File file, int count) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><musicLibrary version=\"1\">");
+			
+			for (int i = 0; i < count; i++) {
+				int album	= i / 12;
+				int artist	= album / 4;
+				
+				if (i % 48 == 0) {
+					writer.write("<artist name=\"Artist " + artist + "\">");
+				}
+				
+				if (i % 12 == 0) {
+					writer.write("<album name=\"Album " + album + "\" year=\"" + (1960 + album % 60) + "\">");
+				}
+				
+				writer.write("<song filename=\"/music/Artist " + artist + "/Album " + album + "/Song " + i + ".mp3\" name=\"Song " + i + "\" track=\"" + (i % 12 + 1) + "\"/>");
+				
+				if (i % 12 == 11 || i == count - 1) {
+					writer.write("</album>");
+				}
+				
+				if (i % 48 == 47 || i == count - 1) {
+					writer.write("</artist>");
+				}
+			}
+			
+			writer.write("</musicLibrary>");
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package tools.loadgenerator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated client of {@link LoadGenerator}. It connects to the server,
+ * authenticates and then sends commands chosen randomly by the configured
+ * mix, one after another. Each command waits for its reply, so latency of
+ * the command is the time between sending it and receiving the whole reply.
+ * If the connection is broken, client connects again.
+ * 
+ * @author Tomáš Zíma
+ */
+class LoadClient implements Runnable {
+	/** Encoding of the commands. */
+	private static final Charset		ENCODING		= Charset.forName("UTF-8");
+	
+	/** Time to wait before connecting again (in milliseconds). */
+	private static final int			RECONNECT_DELAY	= 100;
+	
+	/** Generator, which owns this client. */
+	private final LoadGenerator			generator;
+	
+	/** Number of the client (from 0). */
+	private final int					id;
+	
+	/** Current connection (or null). */
+	private volatile Socket				socket			= null;
+	
+	/** Buffer for replies. */
+	private final byte[]				buffer			= new byte[64 * 1024];
+	
+	/** Position of the first unread byte in {@link #buffer}. */
+	private int							position		= 0;
+	
+	/** Count of valid bytes in {@link #buffer}. */
+	private int							limit			= 0;
+	
+	/** The first bytes of the last reply. */
+	private final byte[]				head			= new byte[8];
+	
+	/** Count of valid bytes in {@link #head}. */
+	private int							headLength		= 0;
+	
+	/**
+	 * @param generator
+	 * 	Generator, which owns this client.
+	 * 
+	 * @param id
+	 * 	Number of the client (from 0).
+	 */
+	public LoadClient(LoadGenerator generator, int id) {
+		this.generator	= generator;
+		this.id			= id;
+	}
+	
+	@Override
+	public void run() {
+		while (generator.isRunning()) {
+			LoadGenerator.CommandResults results = generator.getAuthenticateResults();
+			
+			try {
+				connect();
+				
+				InputStream		input	= socket.getInputStream();
+				OutputStream	output	= socket.getOutputStream();
+				
+				Reply reply = execute(input, output, generator.getAuthenticateCommand(), results);
+				
+				// Connection was rejected by limits of the server
+				if (reply == Reply.BUSY) {
+					Thread.sleep(RECONNECT_DELAY);
+					continue;
+				}
+				
+				if (reply != Reply.OK) {
+					throw new IOException("Client wasn't authenticated.");
+				}
+				
+				while (generator.isRunning()) {
+					results = generator.chooseCommand(ThreadLocalRandom.current().nextInt(generator.getTotalWeight()));
+					
+					execute(input, output, results.getCommand(), results);
+					
+					if (generator.getThinkTime() > 0) {
+						Thread.sleep(generator.getThinkTime());
+					}
+				}
+			} catch (IOException e) {
+				if (generator.isRunning()) {
+					if (generator.isMeasuring()) {
+						results.addError();
+					}
+					
+					try {
+						Thread.sleep(RECONNECT_DELAY);
+					} catch (InterruptedException e1) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * Opens a new connection.
+	 * 
+	 * @throws IOException
+	 */
+	private void connect() throws IOException {
+		Socket socket = new Socket();
+		
+		// Each source address has its own limits on the server
+		if (generator.getSources() > 1) {
+			socket.bind(new InetSocketAddress("127.0.0." + (1 + id % generator.getSources()), 0));
+		}
+		
+		socket.setTcpNoDelay(true);
+		socket.connect(generator.getAddress());
+		
+		this.socket		= socket;
+		this.position	= 0;
+		this.limit		= 0;
+	}
+	
+	/**
+	 * Closes the connection, reading thread will finish.
+	 */
+	public void close() {
+		Socket socket = this.socket;
+		
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+		}
+	}
+	
+	/**
+	 * Sends the command, waits for the reply and records it.
+	 * 
+	 * @param input
+	 * 	Stream of the connection.
+	 * 
+	 * @param output
+	 * 	Stream of the connection.
+	 * 
+	 * @param command
+	 * 	Command with "\n".
+	 * 
+	 * @param results
+	 * 	Results of the command.
+	 * 
+	 * @return
+	 * 	Type of the reply.
+	 * 
+	 * @throws IOException
+	 * 	Connection is broken.
+	 */
+	private Reply execute(InputStream input, OutputStream output, byte[] command, LoadGenerator.CommandResults results) throws IOException {
+		long start = System.nanoTime();
+		
+		output.write(command);
+		output.flush();
+		
+		readReply(input);
+		
+		Reply reply = Reply.of(head, headLength);
+		
+		if (generator.isMeasuring()) {
+			results.record(System.nanoTime() - start, reply);
+		}
+		
+		return reply;
+	}
+	
+	/**
+	 * Reads one line of the reply, only its first bytes are kept in
+	 * {@link #head}. If the read rate is limited, reading is slowed down
+	 * to it, so the server has to wait for the client.
+	 * 
+	 * @param input
+	 * 	Stream of the connection.
+	 * 
+	 * @throws IOException
+	 * 	Connection is broken or closed.
+	 */
+	private void readReply(InputStream input) throws IOException {
+		long	start	= System.nanoTime();
+		long	read	= 0;
+		
+		headLength = 0;
+		
+		while (true) {
+			if (position == limit) {
+				limit		= input.read(buffer);
+				position	= 0;
+				
+				if (limit < 0) {
+					limit = 0;
+					throw new EOFException("Server closed the connection.");
+				}
+				
+				read += limit;
+				throttle(start, read);
+			}
+			
+			int end = position;
+			
+			while (end < limit && buffer[end] != '\n') {
+				end++;
+			}
+			
+			int count = Math.min(end - position, head.length - headLength);
+			
+			System.arraycopy(buffer, position, head, headLength, count);
+			headLength += count;
+			
+			if (end < limit) {
+				position = end + 1;
+				return;
+			}
+			
+			position = limit;
+		}
+	}
+	
+	/**
+	 * Waits until reading of the bytes takes as long as it would with the
+	 * limited read rate.
+	 * 
+	 * @param start
+	 * 	Time, when reading of the reply started (see {@link System#nanoTime()}).
+	 * 
+	 * @param read
+	 * 	Count of bytes read since the start.
+	 * 
+	 * @throws InterruptedIOException
+	 * 	Client was interrupted.
+	 */
+	private void throttle(long start, long read) throws InterruptedIOException {
+		int rate = generator.getReadRate();
+		
+		if (rate <= 0) {
+			return;
+		}
+		
+		long delay = (read * 1000 / rate - (System.nanoTime() - start) / 1000) / 1000;
+		
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+	
+	/**
+	 * Type of the reply.
+	 */
+	enum Reply {
+		OK,
+		NO,
+		BUSY,
+		
+		/** Any other reply (data). */
+		DATA;
+		
+		/** Replies, which are recognized by their text. */
+		private static final Reply[]	KEYWORDS	= {OK, NO, BUSY};
+		
+		/**
+		 * @param head
+		 * 	The first bytes of the reply.
+		 * 
+		 * @param length
+		 * 	Count of valid bytes.
+		 * 
+		 * @return
+		 * 	Type of the reply.
+		 */
+		public static Reply of(byte[] head, int length) {
+			for (Reply reply : KEYWORDS) {
+				if (matches(head, length, reply.name())) {
+					return reply;
+				}
+			}
+			
+			return DATA;
+		}
+		
+		/**
+		 * @return
+		 * 	True if the bytes are the same as the text.
+		 */
+		private static boolean matches(byte[] head, int length, String text) {
+			if (length != text.length()) {
+				return false;
+			}
+			
+			for (int i = 0; i < length; i++) {
+				if (head[i] != text.charAt(i)) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * @param command
+	 * 	Text of the command (without "\n").
+	 * 
+	 * @return
+	 * 	Encoded command with "\n".
+	 */
+	static byte[] encode(String command) {
+		return (command + "\n").getBytes(ENCODING);
+	}
+}
@@ -0,0 +1,558 @@
+package tools.loadgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tools.communicator.Communicator;
+import tools.communicator.ConnectionListener;
+import tools.communicator.LatencyHistogram;
+import application.controller.AudioPlayer;
+import application.controller.Controller;
+import application.controller.SilentAudioPlayer;
+
+/**
+ * <p>
+ * 	Load generator, which simulates many remote clients of the
+ * 	{@link Communicator}. Each client authenticates and then sends commands
+ * 	chosen randomly by the configured mix (e.g. 70 % GET_STATE, 10 % CHECK,
+ * 	...). After a warm-up, the generator measures throughput, latency
+ * 	percentiles and errors of each command and prints them as a table.
+ * </p>
+ * 
+ * <p>
+ * 	Server might run in the same process, either with
+ * 	{@link StubConnectionListener} (server alone) or with the real
+ * 	{@link Controller} using {@link SilentAudioPlayer}, or it might be any
+ * 	running server. Limits of the server in the same process are disabled
+ * 	(unless option {@code --limits} is used), otherwise all simulated
+ * 	clients coming from one address would be rejected soon.
+ * </p>
+ * 
+ * <p>
+ * 	Usage: {@code java tools.loadgenerator.LoadGenerator [options]}, options
+ * 	are described in {@link #USAGE}.
+ * </p>
+ * 
+ * @author Tomáš Zíma
+ */
+public class LoadGenerator {
+	/** Description of the options. */
+	public static final String						USAGE			=
+		"Options:\n" +
+		"  --server stub|controller|HOST:PORT  server to test (default stub, in this process)\n" +
+		"  --mode MODE                         mode of the server in this process (default THREAD_PER_CONNECTION)\n" +
+		"  --port PORT                         port of the server in this process (default 19999)\n" +
+		"  --limits                            keep default limits of the server in this process\n" +
+		"  --library FILE                      music library sent by UPDATE (server in this process)\n" +
+		"  --clients N                         count of simulated clients (default 50)\n" +
+		"  --sources N                         spread clients over addresses 127.0.0.1-N (default 1)\n" +
+		"  --warmup SECONDS                    time before measuring (default 5)\n" +
+		"  --duration SECONDS                  time of measuring (default 30)\n" +
+		"  --think MILLISECONDS                pause between commands of one client (default 0)\n" +
+		"  --read-rate KB                      kilobytes per second read by one client, like a slow network\n" +
+		"                                      (default 0 = unlimited)\n" +
+		"  --mix VERB:WEIGHT,...               mix of GET_STATE, CHECK, UPDATE, PLAY, PAUSE, UNPAUSE, STOP\n" +
+		"                                      (default GET_STATE:70,CHECK:10,UPDATE:2,PLAY:9,PAUSE:9)\n" +
+		"  --play FILE                         file for command PLAY (default song.mp3)\n" +
+		"  --version NUMBER                    version for command CHECK (default 0)\n" +
+		"  --device NAME --password PASSWORD   credentials (default phone/pass)\n";
+	
+	/** Default mix of commands. */
+	public static final String						DEFAULT_MIX		= "GET_STATE:70,CHECK:10,UPDATE:2,PLAY:9,PAUSE:9";
+	
+	/** Percentiles in the report. */
+	private static final double[]					PERCENTILES		= {50.0, 90.0, 99.0};
+	
+	private String									server			= "stub";
+	private Communicator.Mode						mode			= Communicator.Mode.THREAD_PER_CONNECTION;
+	private int										port			= 19999;
+	private boolean									limits			= false;
+	private File									library			= null;
+	private int										clients			= 50;
+	private int										sources			= 1;
+	private int										warmup			= 5;
+	private int										duration		= 30;
+	private int										thinkTime		= 0;
+	private int										readRate		= 0;
+	private String									mix				= DEFAULT_MIX;
+	private String									playFile		= "song.mp3";
+	private long									version			= 0;
+	private String									device			= "phone";
+	private String									password		= "pass";
+	
+	/** Address of the server. */
+	private InetSocketAddress						address;
+	
+	/** Results of all commands of the mix. */
+	private final List<CommandResults>				commands		= new ArrayList<>();
+	
+	/** Results of command AUTHENTICATE. */
+	private CommandResults							authenticate;
+	
+	/** Sum of weights of all commands. */
+	private int										totalWeight		= 0;
+	
+	/** False when clients should finish. */
+	private volatile boolean						running			= true;
+	
+	/** True while results are recorded. */
+	private volatile boolean						measuring		= false;
+	
+	/**
+	 * Results of one command.
+	 */
+	static class CommandResults {
+		/** Name of the command. */
+		private final String			verb;
+		
+		/** Encoded command with "\n". */
+		private final byte[]			command;
+		
+		/** Command is chosen if the random number is below this bound. */
+		private final int				bound;
+		
+		/** Latencies of all replies (in nanoseconds). */
+		private final LatencyHistogram	latency		= new LatencyHistogram();
+		
+		/** Count of replies "NO". */
+		private final AtomicLong		negative	= new AtomicLong();
+		
+		/** Count of replies "BUSY". */
+		private final AtomicLong		busy		= new AtomicLong();
+		
+		/** Count of broken connections. */
+		private final AtomicLong		errors		= new AtomicLong();
+		
+		/**
+		 * @param verb
+		 * 	Name of the command.
+		 * 
+		 * @param command
+		 * 	Command with parameters (without "\n").
+		 * 
+		 * @param bound
+		 * 	Command is chosen if the random number is below this bound.
+		 */
+		public CommandResults(String verb, String command, int bound) {
+			this.verb		= verb;
+			this.command	= LoadClient.encode(command);
+			this.bound		= bound;
+		}
+		
+		/**
+		 * @return
+		 * 	Encoded command with "\n".
+		 */
+		public byte[] getCommand() {
+			return command;
+		}
+		
+		/**
+		 * Records one reply.
+		 * 
+		 * @param nanoseconds
+		 * 	Latency of the reply.
+		 * 
+		 * @param reply
+		 * 	Type of the reply.
+		 */
+		public void record(long nanoseconds, LoadClient.Reply reply) {
+			latency.record(nanoseconds);
+			
+			if (reply == LoadClient.Reply.NO) {
+				negative.incrementAndGet();
+			}
+			else if (reply == LoadClient.Reply.BUSY) {
+				busy.incrementAndGet();
+			}
+		}
+		
+		/**
+		 * Counts one broken connection.
+		 */
+		public void addError() {
+			errors.incrementAndGet();
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		
+		try {
+			generator.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		
+		generator.run();
+		System.exit(0);
+	}
+	
+	/**
+	 * Reads options from the command line.
+	 * 
+	 * @param args
+	 * 	Arguments of the command line.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	Option is unknown or its value is invalid.
+	 */
+	public void parseArguments(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i];
+				
+				if (option.equals("--limits")) {
+					limits = true;
+					continue;
+				}
+				
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Option " + option + " needs a value.");
+				}
+				
+				String value = args[++i];
+				
+				switch (option) {
+					case "--server":	server		= value;								break;
+					case "--mode":		mode		= Communicator.Mode.valueOf(value);		break;
+					case "--port":		port		= Integer.parseInt(value);				break;
+					case "--library":	library		= new File(value);						break;
+					case "--clients":	clients		= Integer.parseInt(value);				break;
+					case "--sources":	sources		= Integer.parseInt(value);				break;
+					case "--warmup":	warmup		= Integer.parseInt(value);				break;
+					case "--duration":	duration	= Integer.parseInt(value);				break;
+					case "--think":		thinkTime	= Integer.parseInt(value);				break;
+					case "--read-rate":	readRate	= Integer.parseInt(value);				break;
+					case "--mix":		mix			= value;								break;
+					case "--play":		playFile	= value;								break;
+					case "--version":	version		= Long.parseLong(value);				break;
+					case "--device":	device		= value;								break;
+					case "--password":	password	= value;								break;
+					default:
+						throw new IllegalArgumentException("Unknown option " + option + ".");
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+		}
+		
+		if (sources < 1 || sources > 254) {
+			throw new IllegalArgumentException("Count of sources must be between 1 and 254.");
+		}
+		
+		parseMix();
+	}
+	
+	/**
+	 * Creates results for all commands of the mix.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	Mix isn't valid.
+	 */
+	private void parseMix() {
+		Map<String, String> known = new LinkedHashMap<>();
+		
+		known.put("GET_STATE",	"GET_STATE");
+		known.put("CHECK",		"CHECK \"" + version + "\"");
+		known.put("UPDATE",		"UPDATE");
+		known.put("PLAY",		"PLAY \"" + playFile + "\"");
+		known.put("PAUSE",		"PAUSE");
+		known.put("UNPAUSE",	"UNPAUSE");
+		known.put("STOP",		"STOP");
+		
+		commands.clear();
+		totalWeight = 0;
+		
+		for (String item : mix.split(",")) {
+			String[] parts = item.trim().split(":");
+			
+			if (parts.length != 2 || !known.containsKey(parts[0])) {
+				throw new IllegalArgumentException("Invalid item of the mix: " + item);
+			}
+			
+			int weight = Integer.parseInt(parts[1]);
+			
+			if (weight <= 0) {
+				throw new IllegalArgumentException("Weight must be positive: " + item);
+			}
+			
+			totalWeight += weight;
+			commands.add(new CommandResults(parts[0], known.get(parts[0]), totalWeight));
+		}
+		
+		authenticate = new CommandResults("AUTHENTICATE", "AUTHENTICATE \"" + device + "\" \"" + password + "\"", 0);
+	}
+	
+	/**
+	 * Starts the server (if it should run in this process) and all clients,
+	 * measures them and prints the report.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run() throws IOException, InterruptedException {
+		Communicator communicator = startServer();
+		
+		measure();
+		
+		if (communicator != null) {
+			communicator.stop();
+		}
+	}
+	
+	/**
+	 * Starts all clients, measures them and prints the report. Server must
+	 * be already started (see {@link #startServer()}).
+	 * 
+	 * @throws InterruptedException
+	 */
+	void measure() throws InterruptedException {
+		List<LoadClient>	loadClients	= new ArrayList<>();
+		List<Thread>		threads		= new ArrayList<>();
+		
+		for (int i = 0; i < clients; i++) {
+			LoadClient	client	= new LoadClient(this, i);
+			Thread		thread	= new Thread(client, "LoadClient-" + i);
+			
+			thread.setDaemon(true);
+			thread.start();
+			
+			loadClients.add(client);
+			threads.add(thread);
+		}
+		
+		Thread.sleep(warmup * 1000L);
+		
+		long start = System.nanoTime();
+		measuring = true;
+		
+		Thread.sleep(duration * 1000L);
+		
+		measuring = false;
+		long elapsed = System.nanoTime() - start;
+		
+		running = false;
+		
+		for (LoadClient client : loadClients) {
+			client.close();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join(1000);
+		}
+		
+		printReport(elapsed / 1e9);
+	}
+	
+	/**
+	 * Starts the server in this process, if it's requested.
+	 * 
+	 * @return
+	 * 	Started server, or null if the server runs elsewhere.
+	 * 
+	 * @throws IOException
+	 */
+	Communicator startServer() throws IOException {
+		ConnectionListener listener;
+		
+		if (server.equals("stub")) {
+			listener = new StubConnectionListener(library);
+		}
+		else if (server.equals("controller")) {
+			Controller controller = new Controller() {
+				@Override
+				protected AudioPlayer createPlayer() {
+					return new SilentAudioPlayer();
+				}
+			};
+			
+			if (library != null) {
+				controller.setPathMusicLibrary(library.getPath());
+			}
+			
+			listener = controller;
+		}
+		else {
+			int separator = server.lastIndexOf(':');
+			
+			if (separator < 0) {
+				throw new IllegalArgumentException("Server must be stub, controller or HOST:PORT.");
+			}
+			
+			address = new InetSocketAddress(server.substring(0, separator), Integer.parseInt(server.substring(separator + 1)));
+			return null;
+		}
+		
+		final Communicator communicator = new Communicator(port);
+		
+		communicator.setMode(mode);
+		communicator.setConnectionListener(listener);
+		
+		if (!limits) {
+			communicator.setMaxConnections(0);
+			communicator.setConnectionRateLimit(0, 0);
+			communicator.setAddressRateLimit(0, 0);
+		}
+		
+		Thread thread = new Thread("Communicator") {
+			@Override
+			public void run() {
+				try {
+					communicator.run();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		
+		thread.setDaemon(true);
+		thread.start();
+		
+		address = new InetSocketAddress("127.0.0.1", port);
+		
+		// Wait until the server accepts connections
+		for (int i = 0; i < 50; i++) {
+			try (Socket socket = new Socket()) {
+				socket.connect(address);
+				break;
+			} catch (IOException e) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e1) {
+					break;
+				}
+			}
+		}
+		
+		return communicator;
+	}
+	
+	/**
+	 * Prints throughput, latencies and errors of all commands.
+	 * 
+	 * @param seconds
+	 * 	Time of measuring.
+	 */
+	private void printReport(double seconds) {
+		System.out.printf(
+			Locale.ROOT,
+			"Server %s (%s), %d clients from %d address(es), think time %d ms, measured %.1f s%n%n",
+			server, mode, clients, sources, thinkTime, seconds
+		);
+		
+		System.out.printf(
+			Locale.ROOT,
+			"%-13s %10s %10s %8s %8s %8s %10s %10s %10s %10s%n",
+			"command", "count", "per second", "NO", "BUSY", "errors", "p50 [ms]", "p90 [ms]", "p99 [ms]", "max [ms]"
+		);
+		
+		List<CommandResults> all = new ArrayList<>();
+		
+		all.add(authenticate);
+		all.addAll(commands);
+		
+		long total = 0;
+		
+		for (CommandResults results : all) {
+			long	count		= results.latency.getCount();
+			long[]	percentiles	= results.latency.getPercentiles(PERCENTILES);
+			
+			total += count;
+			
+			System.out.printf(
+				Locale.ROOT,
+				"%-13s %10d %10.1f %8d %8d %8d %10.3f %10.3f %10.3f %10.3f%n",
+				results.verb, count, count / seconds, results.negative.get(), results.busy.get(), results.errors.get(),
+				percentiles[0] / 1e6, percentiles[1] / 1e6, percentiles[2] / 1e6, results.latency.getMax() / 1e6
+			);
+		}
+		
+		System.out.printf(Locale.ROOT, "%nTotal: %d replies, %.1f per second%n", total, total / seconds);
+	}
+	
+	/**
+	 * @param random
+	 * 	Random number from 0 to {@link #getTotalWeight()} (exclusive).
+	 * 
+	 * @return
+	 * 	Command of the mix chosen by the number.
+	 */
+	CommandResults chooseCommand(int random) {
+		for (CommandResults results : commands) {
+			if (random < results.bound) {
+				return results;
+			}
+		}
+		
+		return commands.get(commands.size() - 1);
+	}
+	
+	/**
+	 * @param verb
+	 * 	Name of the command (e.g. "GET_STATE").
+	 * 
+	 * @return
+	 * 	Latencies of the command measured by {@link #measure()}, or null if
+	 * 	the command isn't in the mix.
+	 */
+	LatencyHistogram getLatency(String verb) {
+		for (CommandResults results : commands) {
+			if (results.verb.equals(verb)) {
+				return results.latency;
+			}
+		}
+		
+		return null;
+	}
+	
+	CommandResults getAuthenticateResults() {
+		return authenticate;
+	}
+	
+	byte[] getAuthenticateCommand() {
+		return authenticate.command;
+	}
+	
+	int getTotalWeight() {
+		return totalWeight;
+	}
+	
+	int getThinkTime() {
+		return thinkTime;
+	}
+	
+	/**
+	 * @return
+	 * 	Kilobytes per second read by one client (0 = unlimited).
+	 */
+	int getReadRate() {
+		return readRate;
+	}
+	
+	int getSources() {
+		return sources;
+	}
+	
+	InetSocketAddress getAddress() {
+		return address;
+	}
+	
+	boolean isRunning() {
+		return running;
+	}
+	
+	boolean isMeasuring() {
+		return measuring;
+	}
+}
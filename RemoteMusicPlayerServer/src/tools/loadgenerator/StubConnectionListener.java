@@ -0,0 +1,111 @@
+package tools.loadgenerator;
+
+import java.io.File;
+
+import tools.LibraryView;
+import tools.communicator.ConnectionDescriptor;
+import tools.communicator.ConnectionListener;
+import tools.communicator.PlayerState;
+
+/**
+ * {@link ConnectionListener}, which allows everything and doesn't do
+ * anything. It's used to measure the server alone, without the player and
+ * the music library.
+ * 
+ * @author Tomáš Zíma
+ */
+public class StubConnectionListener implements ConnectionListener {
+	/** File sent by UPDATE (or null). */
+	private final File			library;
+	
+	/** State returned by GET_STATE. */
+	private final PlayerState	state	= new PlayerState(true, "Artist", "Album", "Song", "song.mp3", 240, 60);
+	
+	/**
+	 * @param library
+	 * 	File sent as the music library by UPDATE, or null (UPDATE gets "NO").
+	 */
+	public StubConnectionListener(File library) {
+		this.library = library;
+	}
+	
+	@Override
+	public boolean authenticate(ConnectionDescriptor connection, String device, String password) {
+		return true;
+	}
+	
+	@Override
+	public void invalidCommand(ConnectionDescriptor connection) {
+		//
+	}
+	
+	@Override
+	public void open(ConnectionDescriptor connection) {
+		//
+	}
+	
+	@Override
+	public void close(ConnectionDescriptor connection) {
+		//
+	}
+	
+	@Override
+	public boolean checkVersion(ConnectionDescriptor connection, long version) {
+		return true;
+	}
+	
+	@Override
+	public File update(ConnectionDescriptor connection) {
+		return library;
+	}
+	
+	@Override
+	public byte[] updateCompressed(ConnectionDescriptor connection, String encoding) {
+		return null;
+	}
+	
+	@Override
+	public byte[] updateSince(ConnectionDescriptor connection, long version) {
+		return null;
+	}
+	
+	@Override
+	public LibraryView getLibraryView(ConnectionDescriptor connection) {
+		return null;
+	}
+	
+	@Override
+	public PlayerState getState(ConnectionDescriptor connection) {
+		return state;
+	}
+	
+	@Override
+	public boolean pause(ConnectionDescriptor connection) {
+		return true;
+	}
+	
+	@Override
+	public boolean unpause(ConnectionDescriptor connection) {
+		return true;
+	}
+	
+	@Override
+	public boolean stop(ConnectionDescriptor connection) {
+		return true;
+	}
+	
+	@Override
+	public boolean play(ConnectionDescriptor connection, String filename) {
+		return true;
+	}
+	
+	@Override
+	public boolean statistics(ConnectionDescriptor connection) {
+		return true;
+	}
+	
+	@Override
+	public long getLibraryVersion() {
+		return 0;
+	}
+}